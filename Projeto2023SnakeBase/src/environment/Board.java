@@ -1,43 +1,102 @@
 package environment;
 
+import java.awt.geom.Point2D;
 import java.util.*;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import game.*;
 
-public abstract class Board extends Observable {
-	protected Cell[][] cells; // 2D array representing the cells of the board.
-	private BoardPosition goalPosition; // Current position of the goal in the game.
+public abstract class Board {
+	private volatile BoardStorage storage; // Contents of the cells of the board, in flat arrays.
+	private volatile BoardSnapshots snapshots; // Snapshots of the storage for the threads only reading the board.
 	public static final long PLAYER_PLAY_INTERVAL = 200; // Interval between each move of a player.
 	public static final long REMOTE_REFRESH_INTERVAL = 50;  // Interval for refreshing game state in remote play.
+	public static final int KEYFRAME_INTERVAL = 20; // Number of refreshes between two full game states in delta mode.
 	public static final long REMOTE_CONNECTION_SETUP_DELAY = 10000; // Delay for setting up remote connections.
-	public static final int NUMBER_COLUMNS = 30; // Number of columns on the board.
-	public static final int NUMBER_ROWS = 30; // Number of rows on the board.
-	protected LinkedList<Snake> snakes = new LinkedList<>(); // List of snakes present on the board.
+	public static final int NUMBER_COLUMNS = 30; // Default number of columns on the board.
+	public static final int NUMBER_ROWS = 30; // Default number of rows on the board.
+	protected volatile LinkedList<Snake> snakes = new LinkedList<>(); // List of snakes present on the board, replaced on every change once the game runs.
+	private final Lock snakesLock = new ReentrantLock(); // Serializes the replacements of the snake list.
 	private final LinkedList<Obstacle> obstacles = new LinkedList<>(); // List of obstacles present on the board.
 	protected volatile boolean isFinished; // Flag indicating if the game is finished.
+	private final Random random; // Source of every random choice of the game, seeded to make games reproducible.
+	private final GoalDistanceField goalDistances = new GoalDistanceField(); // Moves from each cell to the nearest goal, shared by the automatic snakes.
+	private final BoardEvents events = new BoardEvents(); // Bus carrying the changes of the board to the GUI and other consumers.
 
 	public Board() {
-		cells = new Cell[NUMBER_COLUMNS][NUMBER_ROWS];
-		for (int x = 0; x < NUMBER_COLUMNS; x++) {
-			for (int y = 0; y < NUMBER_ROWS; y++) {
-				cells[x][y] = new Cell(new BoardPosition(x, y));
-			}
-		}
+		this(System.nanoTime());
+	}
+
+	public Board(long seed) {
+		this(NUMBER_COLUMNS, NUMBER_ROWS, seed);
+	}
+
+	public Board(int columns, int rows, long seed) {
+		random = new Random(seed);
+		storage = new BoardStorage(columns, rows);
+		snapshots = new BoardSnapshots(storage);
+	}
+
+	// Returns the number of columns on the board.
+	public int getColumns() {
+		return storage.getColumns();
+	}
+
+	// Returns the number of rows on the board.
+	public int getRows() {
+		return storage.getRows();
+	}
+
+	// Replaces the board with an empty one of the given size. Only for boards mirroring a remote game state,
+	// before they apply a full game state of a server running another size.
+	protected void resize(int columns, int rows) {
+		storage = new BoardStorage(columns, rows);
+		snapshots = new BoardSnapshots(storage);
 	}
 
 	// Returns the cell at given coordinates.
 	public Cell getCell(BoardPosition coordinates) {
-		return cells[coordinates.x][coordinates.y];
+		BoardStorage storage = this.storage;
+		return new Cell(this, storage, coordinates.x * storage.getRows() + coordinates.y);
+	}
+
+	// Returns the cell at the given index, x * rows + y.
+	public Cell getCell(int index) {
+		return new Cell(this, storage, index);
 	}
 
-	// Returns the 2D array of cells.
+	// Returns a 2D array of all the cells. Allocates a cell per position, so only meant for small boards;
+	// prefer getCell and the accessors by index.
 	public Cell[][] getCells() {
+		BoardStorage storage = this.storage;
+		Cell[][] cells = new Cell[storage.getColumns()][storage.getRows()];
+		for (int x = 0; x < storage.getColumns(); x++) {
+			for (int y = 0; y < storage.getRows(); y++) {
+				cells[x][y] = new Cell(this, storage, x * storage.getRows() + y);
+			}
+		}
 		return cells;
 	}
 
-	// Generates a random position within the board's bounds.
-	protected BoardPosition getRandomPosition() {
-		return new BoardPosition((int) (Math.random() * NUMBER_COLUMNS),(int) (Math.random() * NUMBER_ROWS));
+	// Checks if the cell at the given index holds an obstacle.
+	public boolean isObstacleAt(int index) {
+		return storage.getElementType(index) == BoardStorage.ELEMENT_OBSTACLE;
+	}
+
+	// Checks if the cell at the given index holds a goal.
+	public boolean isGoalAt(int index) {
+		return storage.getElementType(index) == BoardStorage.ELEMENT_GOAL;
+	}
+
+	// Returns the remaining moves of the obstacle or the value of the goal at the given index, as of when it was placed.
+	public int getElementValue(int index) {
+		return storage.getElementValue(index);
+	}
+
+	// Returns the source of random choices of the game. Each snake seeds its own source from it when created.
+	public Random getRandom() {
+		return random;
 	}
 
 	// Returns a list of neighboring positions around a given cell.
@@ -46,38 +105,60 @@ public abstract class Board extends Observable {
 		BoardPosition position = cell.getPosition();
 		if(position.x > 0)
 			possibleCells.add(position.getCellLeft());
-		if(position.x < NUMBER_COLUMNS-1)
+		if(position.x < getColumns()-1)
 			possibleCells.add(position.getCellRight());
 		if(position.y > 0)
 			possibleCells.add(position.getCellAbove());
-		if(position.y < NUMBER_ROWS-1)
+		if(position.y < getRows()-1)
 			possibleCells.add(position.getCellBelow());
 		return possibleCells;
 	}
 
-	// Returns the current position of the goal.
-	public BoardPosition getGoalPosition() {
-		return goalPosition;
+	// Returns the points the body of a snake is drawn through, tail first, in cell coordinates.
+	public List<Point2D.Double> getRenderedPath(Snake snake) {
+		List<Point2D.Double> path = new ArrayList<>();
+		for (BoardPosition position : snake.getPath()) {
+			path.add(new Point2D.Double(position.x, position.y));
+		}
+		return path;
+	}
+
+	// Returns the position of the goal fewest moves away from a position, ignoring obstacles and snakes, or null
+	// if there is no goal. Found from the index of the goals by looking at the cells around the position.
+	public BoardPosition getNearestGoal(BoardPosition position) {
+		BoardStorage storage = this.storage;
+		int index = storage.nearestGoal(position.x * storage.getRows() + position.y);
+		return index >= 0 ? getCell(index).getPosition() : null;
+	}
+
+	// Returns the number of goals on the board.
+	public int getGoalCount() {
+		return storage.goalCount();
 	}
 
-	// Sets the goal's position.
-	public void setGoalPosition(BoardPosition goalPosition) {
-		this.goalPosition = goalPosition;
+	// Returns the number of moves from a position to the nearest goal it can reach going around obstacles, or -1
+	// if every goal is walled off from it or there is no goal. Repaired around the cells whose goal or obstacle
+	// changed since the last query.
+	public int getGoalDistance(BoardPosition position) {
+		BoardStorage storage = this.storage;
+		return goalDistances.get(storage, position.x * storage.getRows() + position.y);
 	}
 
 	// Adds a game element (like a goal or obstacle) to the board at a random unoccupied position.
-	public void addGameElement(GameElement gameElement) {
-		boolean placed = false;
-		while(!placed) {
-			BoardPosition position = getRandomPosition();
-			if(!getCell(position).isOccupied() && !getCell(position).isOccupiedByGoal()) {
-				getCell(position).setGameElement(gameElement);
-				gameElement.setCurrentPosition(position);
+	// Returns false, leaving the element off the board, if the board is full.
+	public boolean addGameElement(GameElement gameElement) {
+		while(true) {
+			BoardPosition position = getUnoccupiedPosition();
+			if (position == null) {
+				System.err.println("Board full: cannot place " + gameElement.getClass().getSimpleName() + ".");
+				return false;
+			}
+			// Another thread may take the cell first; then pick another one.
+			if (getCell(position).trySetGameElement(gameElement)) {
 				if(gameElement instanceof Goal) {
-					setGoalPosition(position);
 					System.out.println("Goal " + ((Goal)gameElement).getValue() + " placed at position " + position + " .");
 				}
-				placed = true;
+				return true;
 			}
 		}
 	}
@@ -96,7 +177,7 @@ public abstract class Board extends Observable {
 		getObstacles().clear();
 		while(numberObstacles > 0) {
 			Obstacle obstacle = new Obstacle(id++,this);
-			addGameElement(obstacle);
+			if (!addGameElement(obstacle)) break;
 			getObstacles().add(obstacle);
 			numberObstacles--;
 		}
@@ -112,16 +193,58 @@ public abstract class Board extends Observable {
 		return snakes;
 	}
 
-	// Adds a snake to the board.
+	// Adds a snake to the board. The list is copied rather than changed, so that threads iterating over it
+	// (the broadcast encoders, the GUI) never see it change under them.
 	public void addSnake(Snake snake) {
-		snakes.add(snake);
+		snakesLock.lock();
+		try {
+			LinkedList<Snake> updated = new LinkedList<>(snakes);
+			updated.add(snake);
+			snakes = updated;
+		} finally {
+			snakesLock.unlock();
+		}
+	}
+
+	// Removes a snake from the board, copying the list like addSnake.
+	public void removeSnake(Snake snake) {
+		snakesLock.lock();
+		try {
+			LinkedList<Snake> updated = new LinkedList<>(snakes);
+			updated.remove(snake);
+			snakes = updated;
+		} finally {
+			snakesLock.unlock();
+		}
+	}
+
+	// Forgets a snake that left the board, once its cells are released, so that nothing keeps it reachable.
+	public void forgetSnake(Snake snake) {
+		storage.unregister(snake);
+	}
+
+	// Publishes changes of the board, a mask of BoardEvents, to its consumers. Never blocks: the consumers read
+	// them on their own threads.
+	public void publish(int events) {
+		this.events.publish(events);
+	}
+
+	// Builds a snapshot of the board as it is now from the previous one, at a cost proportional to the changes
+	// since, publishes it for getSnapshot() and returns it.
+	public BoardSnapshot updateSnapshot() {
+		return snapshots.update(snakes, isFinished);
+	}
+
+	// Returns the latest snapshot of the board with a single volatile read, building the first one if needed.
+	// It may lag the board by the moves made since it was built.
+	public BoardSnapshot getSnapshot() {
+		BoardSnapshot snapshot = snapshots.get();
+		return snapshot != null ? snapshot : updateSnapshot();
 	}
 
-	// Marks the observable object as changed and notifies observers.
-	@Override
-	public void setChanged() {
-		super.setChanged();
-		notifyObservers();
+	// Returns the bus the changes of the board are published on, to subscribe to them.
+	public BoardEvents getEvents() {
+		return events;
 	}
 
 	// Initializes the board. To be implemented in subclasses.
@@ -132,22 +255,48 @@ public abstract class Board extends Observable {
 		return isFinished;
 	}
 
-	// Attempts to find an unoccupied position on the board, starting with random locations.
+	// Returns a uniformly random position without snake, obstacle or goal, or null if the board is full. Taken
+	// from the index of free cells in constant time; the cell may be taken by another thread before it is used.
 	public BoardPosition getUnoccupiedPosition() {
-		// Continuously searches for an unoccupied position on the board.
-		while(true) {
-			BoardPosition position = getRandomPosition();
-			if(!getCell(position).isOccupied() && !getCell(position).isOccupiedByGoal()) {
-				return position;
-			}
-		}
+		int index = storage.randomFreeCell(random);
+		return index >= 0 ? getCell(index).getPosition() : null;
+	}
+
+	// Returns a uniformly random free position of a column, like getUnoccupiedPosition, or null if the column is full.
+	public BoardPosition getUnoccupiedPositionInColumn(int x) {
+		int index = storage.randomFreeCellInColumn(x, random);
+		return index >= 0 ? getCell(index).getPosition() : null;
+	}
+
+	// Returns the number of positions without snake, obstacle or goal.
+	public int getFreeCellCount() {
+		return storage.freeCellCount();
+	}
+
+	// Checks if a snake waiting for a cell would wait forever and must give up its move: the cell holds an obstacle
+	// without moves left or a stopped snake, or the snake closes a cycle of snakes waiting for each other's cells,
+	// of which only one is told to give way.
+	public boolean shouldGiveWay(Snake snake, Cell cell) {
+		return storage.shouldGiveWay(snake, cell.getIndex());
+	}
+
+	// Returns how long snakes waited for cells in all, and how often they gave way not to wait forever.
+	public String getBlockingStatistics() {
+		BoardStorage storage = this.storage;
+		return "Snakes waited " + storage.getBlockedNanos() / 1_000_000 + " ms for cells and gave way "
+				+ storage.getWaysGiven() + " times.";
+	}
+
+	// Checks if no position is left without snake, obstacle or goal.
+	public boolean isFull() {
+		return getFreeCellCount() == 0;
 	}
 
 	// Checks if a given position is within the bounds of the board.
 	public boolean isWithinBounds(BoardPosition position) {
 		int x = position.x;
 		int y = position.y;
-		return (x >= 0 && x < NUMBER_COLUMNS && y >= 0 && y < NUMBER_ROWS);
+		return (x >= 0 && x < getColumns() && y >= 0 && y < getRows());
 	}
 
 	// Handles key press events. To be implemented in subclasses.
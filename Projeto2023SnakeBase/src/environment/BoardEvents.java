@@ -0,0 +1,128 @@
+package environment;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import game.ExecutionMode;
+
+/** Bus carrying the changes of a board to its consumers (the GUI, a recorder...), replacing the observers that
+ * were notified on the thread of every move. An event is a bit of an int mask, and each subscriber keeps the mask
+ * of the events published since it last read them: publishing sets bits with a compare-and-set per subscriber and
+ * allocates nothing, and a burst of moves while a consumer is busy is read as one mask. A subscriber either reads
+ * its mask at its own pace with poll(), or has a listener called on a thread of its own, woken when its mask
+ * goes from empty to not empty.
+ */
+public class BoardEvents {
+	public static final int CELL_CHANGED = 1; // The contents of some cells changed.
+	public static final int SNAKE_MOVED = 2; // A snake moved, joined or left.
+	public static final int GOAL_MOVED = 4; // A goal was captured and moved or left the board.
+	public static final int GAME_OVER = 8; // The game finished.
+	public static final int ALL = CELL_CHANGED | SNAKE_MOVED | GOAL_MOVED | GAME_OVER; // Every event.
+	private volatile Subscriber[] subscribers = new Subscriber[0]; // Current subscribers, replaced on every change.
+
+	// Publishes events to every subscriber. Never blocks and allocates nothing.
+	public void publish(int events) {
+		for (Subscriber subscriber : subscribers) {
+			subscriber.add(events);
+		}
+	}
+
+	// Subscribes a consumer reading its events with poll().
+	public Subscriber subscribe() {
+		Subscriber subscriber = new Subscriber(null);
+		add(subscriber);
+		return subscriber;
+	}
+
+	// Subscribes a listener called with the events published since its previous call, on a thread of its own
+	// with the given name.
+	public Subscriber subscribe(String name, Listener listener) {
+		Subscriber subscriber = new Subscriber(listener);
+		subscriber.thread = ExecutionMode.PLATFORM.newThread(subscriber::deliver, name);
+		subscriber.thread.setDaemon(true);
+		add(subscriber);
+		subscriber.thread.start();
+		return subscriber;
+	}
+
+	// Stops publishing to a subscriber, and stops its thread if it has one.
+	public synchronized void unsubscribe(Subscriber subscriber) {
+		Subscriber[] current = subscribers;
+		for (int i = 0; i < current.length; i++) {
+			if (current[i] == subscriber) {
+				Subscriber[] remaining = Arrays.copyOf(current, current.length - 1);
+				System.arraycopy(current, i + 1, remaining, i, current.length - i - 1);
+				subscribers = remaining;
+				break;
+			}
+		}
+		subscriber.isCancelled = true;
+		if (subscriber.thread != null) LockSupport.unpark(subscriber.thread);
+	}
+
+	// Appends a subscriber to the array.
+	private synchronized void add(Subscriber subscriber) {
+		Subscriber[] current = subscribers;
+		Subscriber[] added = Arrays.copyOf(current, current.length + 1);
+		added[current.length] = subscriber;
+		subscribers = added;
+	}
+
+	// Consumer of the events of a board.
+	public interface Listener {
+		// Handles the events published since the previous call, as a mask of at least one event.
+		void onEvents(int events);
+	}
+
+	// Events waiting for one consumer.
+	public static class Subscriber {
+		private final AtomicInteger pending = new AtomicInteger(); // Events published and not read yet.
+		private final Listener listener; // Listener called with the events, null for a consumer calling poll().
+		private volatile Thread thread; // Thread calling the listener, null without listener.
+		private volatile boolean isCancelled = false; // Whether the subscriber was removed.
+		private long deliveries = 0; // Number of masks read, written by the consumer only.
+
+		private Subscriber(Listener listener) {
+			this.listener = listener;
+		}
+
+		// Returns the events published since the previous call, 0 if there were none, and clears them.
+		public int poll() {
+			int events = pending.getAndSet(0);
+			if (events != 0) deliveries++;
+			return events;
+		}
+
+		// Returns how many times the consumer read events, fewer than the events published when they were coalesced.
+		public long getDeliveries() {
+			return deliveries;
+		}
+
+		// Adds events to the mask, waking the thread of the listener if the mask was empty.
+		private void add(int events) {
+			int current;
+			do {
+				current = pending.get();
+				if ((current | events) == current) return; // Already pending.
+			} while (!pending.compareAndSet(current, current | events));
+			if (current == 0 && thread != null) LockSupport.unpark(thread);
+		}
+
+		// Calls the listener with the events published, parking while there are none.
+		private void deliver() {
+			while (!isCancelled) {
+				int events = poll();
+				if (events == 0) {
+					LockSupport.park(this); // An event published meanwhile left a permit: no wakeup is lost.
+					continue;
+				}
+				try {
+					listener.onEvents(events);
+				} catch (RuntimeException e) {
+					System.err.println(Thread.currentThread().getName() + ": Exception handling board events: " + e + ".");
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,123 @@
+package environment;
+
+import game.GameElement;
+import game.Snake;
+
+import java.lang.ref.Reference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/** Measures the heap taken per cell: by the board storage alone (packed state words and free cell index), by a
+ * whole board once it took a snapshot and searched its goal distance field, as a running game does, and by the
+ * cells the storage replaced, each an object with its position, a ReentrantLock and a Condition. The heap in
+ * use is read after collecting the garbage, before and after building each structure, so the figures include
+ * object headers and padding. The former cells are measured on a smaller board: they would not fit the default
+ * heap at the size of the others.
+ *
+ * Options: --size=4096x4096 --former-size=512x512
+ */
+public class BoardMemoryBenchmark {
+	private static final int COLLECTIONS = 5; // Garbage collections run before reading the heap in use.
+
+	// Prints the bytes per cell of each structure for the given board sizes.
+	public static void run(int columns, int rows, int formerColumns, int formerRows) throws InterruptedException {
+		System.out.println("Board memory benchmark, bytes per cell:");
+		report("Board storage", columns, rows, () -> new BoardStorage(columns, rows));
+		report("Board, snapshot and distance field", columns, rows, () -> {
+			MemoryBoard board = new MemoryBoard(columns, rows);
+			board.updateSnapshot();
+			board.getGoalDistance(new BoardPosition(0, 0));
+			return board;
+		});
+		report("Former cells", formerColumns, formerRows, () -> FormerCell.create(formerColumns, formerRows));
+	}
+
+	// Builds a structure and prints the heap it takes per cell of a board of the given size.
+	private static void report(String structure, int columns, int rows, Supplier<Object> builder) throws InterruptedException {
+		long before = usedMemory();
+		Object built = builder.get();
+		long after = usedMemory();
+		Reference.reachabilityFence(built); // Kept until measured.
+		long cells = (long) columns * rows;
+		System.out.printf("%-36s %5dx%-5d %7.1f MB %6.1f B/cell%n", structure + ":", columns, rows,
+				(after - before) / (1024.0 * 1024), (after - before) / (double) cells);
+	}
+
+	// Returns the heap in use once the garbage is collected.
+	private static long usedMemory() throws InterruptedException {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < COLLECTIONS; i++) {
+			System.gc();
+			Thread.sleep(50);
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	// Cell as it was before the packed storage: an object per cell with its position, occupant, game element,
+	// lock and condition, in an array per column.
+	private static class FormerCell {
+		private final BoardPosition position; // The position of this cell on the board.
+		private Snake occupyingSnake = null; // The snake currently occupying this cell, if any.
+		private GameElement gameElement = null; // Any game element present in this cell.
+		private final Lock lock = new ReentrantLock(); // Lock for handling concurrent access to the cell.
+		private final Condition notOccupied = lock.newCondition(); // Signaled when the cell becomes unoccupied.
+
+		private FormerCell(BoardPosition position) {
+			this.position = position;
+		}
+
+		// Creates the cells of a board of the given size.
+		private static FormerCell[][] create(int columns, int rows) {
+			FormerCell[][] cells = new FormerCell[columns][rows];
+			for (int x = 0; x < columns; x++) {
+				for (int y = 0; y < rows; y++) {
+					cells[x][y] = new FormerCell(new BoardPosition(x, y));
+				}
+			}
+			return cells;
+		}
+	}
+
+	// Board without snakes, obstacles or goals, only holding its storage, snapshot and indexes.
+	private static class MemoryBoard extends Board {
+		private MemoryBoard(int columns, int rows) {
+			super(columns, rows, 0);
+		}
+
+		@Override
+		public void init() {
+			// Nothing runs on this board.
+		}
+
+		@Override
+		public void handleKeyPress(int keyCode) {
+			// No keys on this board.
+		}
+
+		@Override
+		public void handleKeyRelease() {
+			// No keys on this board.
+		}
+	}
+
+	// Main method for running the benchmark, see the class comment for the options.
+	public static void main(String[] args) throws InterruptedException {
+		String size = getOption(args, "--size=", "4096x4096");
+		String formerSize = getOption(args, "--former-size=", "512x512");
+		run(Integer.parseInt(size.substring(0, size.indexOf('x'))), Integer.parseInt(size.substring(size.indexOf('x') + 1)),
+				Integer.parseInt(formerSize.substring(0, formerSize.indexOf('x'))),
+				Integer.parseInt(formerSize.substring(formerSize.indexOf('x') + 1)));
+	}
+
+	// Returns the value of an option given as prefix followed by the value, or the default if it was not given.
+	private static String getOption(String[] args, String prefix, String defaultValue) {
+		for (String arg : args) {
+			if (arg.startsWith(prefix)) {
+				return arg.substring(prefix.length());
+			}
+		}
+		return defaultValue;
+	}
+}
@@ -0,0 +1,120 @@
+package environment;
+
+/** Immutable copy of a board at one moment, for the threads that only read it (the GUI, the broadcasters)
+ * while the snakes keep moving. Cells only hold their obstacle or goal, one byte each, in chunks of
+ * {@link #CHUNK} cells; snakes are copies of their bodies, tail first. A snapshot is built from the previous one
+ * and shares with it every chunk and body that did not change, so it costs the changes rather than the size of
+ * the board. Snapshots are numbered by epoch, one more for every snapshot of the board.
+ */
+public final class BoardSnapshot {
+	static final int CHUNK_BITS = 8; // Bits of a cell index giving its slot in its chunk.
+	public static final int CHUNK = 1 << CHUNK_BITS; // Number of cells of a chunk.
+	private static final int TYPE_SHIFT = 6; // Bits 6-7 of a cell: type of its game element, bits 0-5: its value.
+	private final long epoch; // Number of the snapshot, one more than the previous one.
+	private final int columns; // Number of columns of the board.
+	private final int rows; // Number of rows of the board.
+	private final boolean isFinished; // Whether the game was finished.
+	final byte[][] chunks; // Element of each cell, type and value, by chunk. Never written once published.
+	final int[] snakeIds; // Identification of each snake.
+	final boolean[] isHuman; // Whether each snake is played by a remote player.
+	final int[][] bodies; // Cell indices of each snake, tail first. Never written once published.
+
+	BoardSnapshot(long epoch, int columns, int rows, boolean isFinished, byte[][] chunks, int[] snakeIds,
+			boolean[] isHuman, int[][] bodies) {
+		this.epoch = epoch;
+		this.columns = columns;
+		this.rows = rows;
+		this.isFinished = isFinished;
+		this.chunks = chunks;
+		this.snakeIds = snakeIds;
+		this.isHuman = isHuman;
+		this.bodies = bodies;
+	}
+
+	// Packs the element of a cell into the byte a chunk keeps for it.
+	static byte cell(byte type, int value) {
+		return (byte) ((type << TYPE_SHIFT) | (value & ((1 << TYPE_SHIFT) - 1)));
+	}
+
+	// Returns the number of the snapshot.
+	public long getEpoch() {
+		return epoch;
+	}
+
+	// Returns the number of columns.
+	public int getColumns() {
+		return columns;
+	}
+
+	// Returns the number of rows.
+	public int getRows() {
+		return rows;
+	}
+
+	// Checks if the game was finished.
+	public boolean isFinished() {
+		return isFinished;
+	}
+
+	// Checks if an obstacle is on the cell at the given index.
+	public boolean isObstacleAt(int index) {
+		return type(index) == BoardStorage.ELEMENT_OBSTACLE;
+	}
+
+	// Checks if a goal is on the cell at the given index.
+	public boolean isGoalAt(int index) {
+		return type(index) == BoardStorage.ELEMENT_GOAL;
+	}
+
+	// Returns the remaining moves of the obstacle or the value of the goal on a cell.
+	public int getElementValue(int index) {
+		return chunks[index >>> CHUNK_BITS][index & (CHUNK - 1)] & ((1 << TYPE_SHIFT) - 1);
+	}
+
+	// Returns the number of chunks of cells.
+	public int getChunkCount() {
+		return chunks.length;
+	}
+
+	// Checks if a chunk of cells is the same as in another snapshot of the board, shared as none of its cells
+	// changed in between. A chunk that is not shared may still hold the same cells.
+	public boolean isSameChunk(BoardSnapshot other, int chunk) {
+		return other != null && other.chunks[chunk] == chunks[chunk];
+	}
+
+	// Checks if the body of a snake is the same as the body of a snake of another snapshot, shared as the snake
+	// did not move in between.
+	public boolean isSameBody(int snake, BoardSnapshot other, int otherSnake) {
+		return other.bodies[otherSnake] == bodies[snake];
+	}
+
+	// Returns the number of snakes.
+	public int getSnakeCount() {
+		return snakeIds.length;
+	}
+
+	// Returns the identification of a snake.
+	public int getSnakeId(int snake) {
+		return snakeIds[snake];
+	}
+
+	// Checks if a snake is played by a remote player.
+	public boolean isHuman(int snake) {
+		return isHuman[snake];
+	}
+
+	// Returns the number of segments of a snake.
+	public int getLength(int snake) {
+		return bodies[snake].length;
+	}
+
+	// Returns the cell index of a segment of a snake, 0 being the tail.
+	public int getIndex(int snake, int segment) {
+		return bodies[snake][segment];
+	}
+
+	// Returns the type of the element on a cell.
+	private int type(int index) {
+		return (chunks[index >>> CHUNK_BITS][index & (CHUNK - 1)] & 0xFF) >>> TYPE_SHIFT;
+	}
+}
@@ -0,0 +1,106 @@
+package environment;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import game.HumanSnake;
+import game.Snake;
+import game.SnakeBody;
+
+/** Builds the snapshots of a board, each from the previous one, and keeps the latest for the readers. The
+ * storage marks the chunks whose elements changed, and a new snapshot copies only those chunks and the bodies
+ * of the snakes whose version changed, sharing everything else. Readers take the latest snapshot with a single
+ * volatile read; builds are serialized, and may be asked for by any thread.
+ */
+class BoardSnapshots {
+	private final BoardStorage storage; // Cells the snapshots are copied from.
+	private volatile BoardSnapshot latest; // Latest snapshot built, null before the first one.
+	private SnakeBody[] bodies = new SnakeBody[0]; // Body of each snake of the latest snapshot.
+	private int[] versions = new int[0]; // Version of each of those bodies when it was copied.
+
+	BoardSnapshots(BoardStorage storage) {
+		this.storage = storage;
+	}
+
+	// Returns the latest snapshot, null if none was built yet.
+	BoardSnapshot get() {
+		return latest;
+	}
+
+	// Builds a snapshot of the current cells and of the given snakes from the latest one, publishes it and
+	// returns it.
+	synchronized BoardSnapshot update(List<Snake> snakes, boolean isFinished) {
+		BoardSnapshot previous = latest;
+		int size = storage.size();
+		byte[][] chunks;
+		if (previous == null) {
+			chunks = new byte[(size + BoardSnapshot.CHUNK - 1) >>> BoardSnapshot.CHUNK_BITS][];
+			for (int word = 0; word < storage.dirtyChunkWords(); word++) {
+				storage.takeDirtyChunks(word); // Every chunk is copied anyway.
+			}
+			for (int chunk = 0; chunk < chunks.length; chunk++) {
+				chunks[chunk] = copyChunk(chunk, size);
+			}
+		} else {
+			chunks = previous.chunks.clone();
+			for (int word = 0; word < storage.dirtyChunkWords(); word++) {
+				// Taken before the cells are read: a change made meanwhile is marked again for the next snapshot.
+				long dirty = storage.takeDirtyChunks(word);
+				while (dirty != 0) {
+					int chunk = word * 64 + Long.numberOfTrailingZeros(dirty);
+					chunks[chunk] = copyChunk(chunk, size);
+					dirty &= dirty - 1;
+				}
+			}
+		}
+
+		int count = snakes.size();
+		int[] snakeIds = new int[count];
+		boolean[] isHuman = new boolean[count];
+		int[][] snakeBodies = new int[count][];
+		SnakeBody[] newBodies = new SnakeBody[count];
+		int[] newVersions = new int[count];
+		Map<SnakeBody, Integer> slots = null; // Slots of the previous bodies, only built if the snakes changed order.
+		int snake = 0;
+		for (Snake current : snakes) {
+			if (snake == count) break; // The list grew while being read, before the game ran.
+			SnakeBody body = current.getBody();
+			int version = body.getVersion();
+			int slot = snake < bodies.length && bodies[snake] == body ? snake : -1;
+			if (slot < 0 && previous != null) {
+				if (slots == null) {
+					slots = new IdentityHashMap<>();
+					for (int i = 0; i < bodies.length; i++) {
+						slots.put(bodies[i], i);
+					}
+				}
+				slot = slots.getOrDefault(body, -1);
+			}
+			snakeIds[snake] = current.getIdentification();
+			isHuman[snake] = current instanceof HumanSnake;
+			snakeBodies[snake] = slot >= 0 && versions[slot] == version ? previous.bodies[slot] : body.copyIndices();
+			newBodies[snake] = body;
+			newVersions[snake] = version; // Read before the copy: at worst the body is copied again next time.
+			snake++;
+		}
+		bodies = newBodies;
+		versions = newVersions;
+
+		BoardSnapshot snapshot = new BoardSnapshot(previous == null ? 0 : previous.getEpoch() + 1, storage.getColumns(),
+				storage.getRows(), isFinished, chunks, snakeIds, isHuman, snakeBodies);
+		latest = snapshot;
+		return snapshot;
+	}
+
+	// Copies the elements of the cells of a chunk.
+	private byte[] copyChunk(int chunk, int size) {
+		byte[] cells = new byte[BoardSnapshot.CHUNK];
+		int first = chunk << BoardSnapshot.CHUNK_BITS;
+		for (int i = 0; i < BoardSnapshot.CHUNK && first + i < size; i++) {
+			int index = first + i;
+			cells[i] = BoardSnapshot.cell(storage.getElementType(index), storage.getElementValue(index));
+		}
+		return cells;
+	}
+}
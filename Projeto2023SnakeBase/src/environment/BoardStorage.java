@@ -0,0 +1,554 @@
+package environment;
+
+import game.GameElement;
+import game.Goal;
+import game.Obstacle;
+import game.Snake;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntConsumer;
+
+/** Contents of every cell of a board, kept in one packed state word per cell, indexed by {@code x * rows + y},
+ * so that a cell costs a few bytes instead of an object with its own lock. A word holds the identification of
+ * the snake on the cell, the type and value (remaining moves of an obstacle, value of a goal) of its game
+ * element and the number of threads waiting for the cell; the few element objects are kept aside, by index.
+ * Cells are claimed and released with compare-and-set on their word. Threads only park when a cell is taken,
+ * after counting themselves in the word, so releasing a cell nobody waits for never looks for waiters. A snake
+ * waiting for a cell is recorded with it, making a wait-for graph (snake, cell, snake on the cell) in which
+ * cycles of snakes waiting for each other are found, and the time spent waiting is added up. Every
+ * change marks the cell for the free cell index, and every obstacle or goal placed or removed is synced
+ * with the goal index, logged for the goal distance field and counted in the element version. Every element
+ * written also marks its chunk of cells for the next board snapshot.
+ */
+class BoardStorage {
+	static final int FREE = -1; // Occupant of a cell no snake is on.
+	static final byte ELEMENT_NONE = 0; // Type of a cell without game element.
+	static final byte ELEMENT_OBSTACLE = 1; // Type of a cell holding an obstacle.
+	static final byte ELEMENT_GOAL = 2; // Type of a cell holding a goal.
+	private static final long OCCUPANT_MASK = 0xFFFF_FFFFL; // Bits 0-31: identification of the snake, FREE if none.
+	private static final int VALUE_SHIFT = 32; // Bits 32-39: remaining moves of the obstacle or value of the goal.
+	private static final int TYPE_SHIFT = 40; // Bits 40-47: type of the game element.
+	private static final int WAITERS_SHIFT = 48; // Bits 48-63: number of threads waiting for the cell.
+	private static final long ELEMENT_MASK = 0xFFFFL << VALUE_SHIFT; // Type and value of the game element.
+	private static final long WAITER = 1L << WAITERS_SHIFT; // One waiting thread.
+	private static final long EMPTY = OCCUPANT_MASK & FREE; // Word of a cell without snake, element or waiters.
+	private final int columns; // Number of columns of the board.
+	private final int rows; // Number of rows of the board.
+	private final AtomicLongArray states; // Packed state word of each cell.
+	private final Map<Integer, GameElement> elements = new ConcurrentHashMap<>(); // Game elements by cell index.
+	private final Map<Integer, Snake> snakes = new ConcurrentHashMap<>(); // Snakes by identification, to resolve occupants.
+	private final FreeCellIndex freeCells; // Cells without snake, obstacle or goal, following the states when queried.
+	private final GoalIndex goals; // Cells holding a goal, kept in sync with the states.
+	static final int ELEMENT_LOG_OVERFLOW = -1; // Cell reported by drainElementChanges when changes were dropped.
+	private final Lock elementLock = new ReentrantLock(); // Guards the log of element changes and the version.
+	private final int elementLogCapacity; // Changes logged before the log is dropped, for a full recomputation.
+	private int[] elementLog = new int[16]; // Cells whose obstacle or goal was placed or removed since the last drain.
+	private int elementLogSize = 0; // Number of cells in the log.
+	private boolean isElementLogOverflowed = false; // Whether changes were dropped since the last drain.
+	private volatile long elementVersion = 0; // Number of obstacles and goals placed or removed so far.
+	private final AtomicLongArray dirtyChunks; // Bit of each snapshot chunk whose elements changed since it was last taken.
+	// Threads parked on each cell, a lock-free stack per cell, created on the first contention. Never replace parking
+	// with synchronized: a virtual thread waiting on a monitor pins its carrier thread, while a parked one releases it.
+	private volatile AtomicReferenceArray<WaitNode> waiters;
+	private final Lock waitersLock = new ReentrantLock(); // Guards the creation of the waiter stacks.
+	private final Map<Integer, Integer> blockedSnakes = new ConcurrentHashMap<>(); // Cell each waiting snake waits for, by identification.
+	private final LongAdder blockedNanos = new LongAdder(); // Time snakes spent waiting for cells, in nanoseconds.
+	private final LongAdder waysGiven = new LongAdder(); // Number of moves snakes gave up not to wait forever.
+
+	BoardStorage(int columns, int rows) {
+		this.columns = columns;
+		this.rows = rows;
+		int size = columns * rows;
+		states = new AtomicLongArray(size);
+		for (int index = 0; index < size; index++) {
+			states.set(index, EMPTY);
+		}
+		freeCells = new FreeCellIndex(this, columns, rows);
+		goals = new GoalIndex(columns, rows);
+		dirtyChunks = new AtomicLongArray((((size + BoardSnapshot.CHUNK - 1) >>> BoardSnapshot.CHUNK_BITS) + 63) >>> 6);
+		elementLogCapacity = Math.max(64, size / 64); // Past this many changes, repairing costs more than a full search.
+	}
+
+	// Returns the number of columns.
+	int getColumns() {
+		return columns;
+	}
+
+	// Returns the number of rows.
+	int getRows() {
+		return rows;
+	}
+
+	// Returns the number of cells.
+	int size() {
+		return states.length();
+	}
+
+	// Returns the snake on a cell, or null if none.
+	Snake getSnake(int index) {
+		int id = occupant(states.get(index));
+		return id == FREE ? null : snakes.get(id);
+	}
+
+	// Checks if a snake is on a cell.
+	boolean hasSnake(int index) {
+		return occupant(states.get(index)) != FREE;
+	}
+
+	// Checks if a snake or an obstacle is on a cell.
+	boolean isOccupied(int index) {
+		return isOccupied(states.get(index));
+	}
+
+	// Checks if neither a snake nor a game element is on a cell.
+	boolean isFree(int index) {
+		long state = states.get(index);
+		return occupant(state) == FREE && type(state) == ELEMENT_NONE;
+	}
+
+	// Returns a uniformly random free cell, or -1 if the board is full. The cell may be taken by the time it is used.
+	int randomFreeCell(Random random) {
+		return freeCells.random(random);
+	}
+
+	// Returns a uniformly random free cell of a column, or -1 if the column is full.
+	int randomFreeCellInColumn(int x, Random random) {
+		return freeCells.randomInColumn(x, random);
+	}
+
+	// Returns the number of free cells.
+	int freeCellCount() {
+		return freeCells.count();
+	}
+
+	// Returns the cell of the goal fewest moves away from a cell, ignoring what lies between, or -1 if there is none.
+	int nearestGoal(int index) {
+		return goals.nearest(index);
+	}
+
+	// Returns the number of goals on the board.
+	int goalCount() {
+		return goals.count();
+	}
+
+	// Returns the number of obstacles and goals placed on or removed from cells so far. Counted after the cell
+	// changed, so a reader that sees a version also sees the elements it counts.
+	long getElementVersion() {
+		return elementVersion;
+	}
+
+	// Passes every cell whose obstacle or goal was placed or removed since the last call to the consumer, or only
+	// ELEMENT_LOG_OVERFLOW if too many changed, clears the log and returns the element version it covers. The
+	// consumer is called under the lock of the log, so it must only record the cells.
+	long drainElementChanges(IntConsumer consumer) {
+		elementLock.lock();
+		try {
+			if (isElementLogOverflowed) {
+				consumer.accept(ELEMENT_LOG_OVERFLOW);
+			} else {
+				for (int i = 0; i < elementLogSize; i++) {
+					consumer.accept(elementLog[i]);
+				}
+			}
+			elementLogSize = 0;
+			isElementLogOverflowed = false;
+			return elementVersion;
+		} finally {
+			elementLock.unlock();
+		}
+	}
+
+	// Returns the number of words of the bitset of dirty snapshot chunks.
+	int dirtyChunkWords() {
+		return dirtyChunks.length();
+	}
+
+	// Returns the bits of the snapshot chunks whose elements changed since the last call, in a word of the bitset,
+	// and clears them.
+	long takeDirtyChunks(int word) {
+		return dirtyChunks.get(word) == 0 ? 0 : dirtyChunks.getAndSet(word, 0);
+	}
+
+	// Returns the type of the game element on a cell.
+	byte getElementType(int index) {
+		return type(states.get(index));
+	}
+
+	// Returns the remaining moves of the obstacle or the value of the goal on a cell, as of when it was placed.
+	int getElementValue(int index) {
+		return (byte) (states.get(index) >>> VALUE_SHIFT);
+	}
+
+	// Returns the game element on a cell, or null if none.
+	GameElement getElement(int index) {
+		return getElementType(index) == ELEMENT_NONE ? null : elements.get(index);
+	}
+
+	// Puts a snake on a cell, blocking until no snake or obstacle is on it.
+	void claim(int index, Snake snake) throws InterruptedException {
+		tryClaim(index, snake, Long.MAX_VALUE);
+	}
+
+	// Puts a snake on a cell if no snake and no obstacle is on it. Never blocks.
+	boolean tryClaim(int index, Snake snake) {
+		register(snake);
+		while (true) {
+			long state = states.get(index);
+			if (isOccupied(state)) return false;
+			if (states.compareAndSet(index, state, withOccupant(state, snake.getIdentification()))) {
+				freeCells.markChanged(index);
+				return true;
+			}
+		}
+	}
+
+	// Puts a snake on a cell, waiting at most the given time for no snake or obstacle to be on it. Returns whether
+	// it did. While it waits, the snake is recorded in the wait-for graph.
+	boolean tryClaim(int index, Snake snake, long timeoutNanos) throws InterruptedException {
+		register(snake);
+		int id = snake.getIdentification();
+		boolean isBlocked = false;
+		long start = 0;
+		try {
+			while (true) {
+				long state = states.get(index);
+				if (isOccupied(state)) {
+					if (!isBlocked) {
+						isBlocked = true;
+						start = System.nanoTime();
+						blockedSnakes.put(id, index);
+					}
+					long remaining = timeoutNanos == Long.MAX_VALUE ? Long.MAX_VALUE : timeoutNanos - (System.nanoTime() - start);
+					if (remaining <= 0) return false;
+					await(index, state, remaining);
+				} else if (states.compareAndSet(index, state, withOccupant(state, id))) {
+					freeCells.markChanged(index);
+					return true;
+				}
+			}
+		} finally {
+			if (isBlocked) {
+				blockedSnakes.remove(id, index);
+				blockedNanos.add(System.nanoTime() - start);
+			}
+		}
+	}
+
+	// Checks if a snake trying to get a cell would wait for it forever, and then gives way: when the cell holds an
+	// obstacle without moves left or a snake that stopped moving, or when the snake closes a cycle of snakes each
+	// waiting for a cell of the next one and is the one of the cycle with the highest identification. The graph
+	// changes while it is followed, so a cycle that just broke may still be seen: giving way then only costs the
+	// snake its move. A snake between two waits is missing from the graph, so a cycle may be missed once and seen
+	// on the next check.
+	boolean shouldGiveWay(Snake snake, int index) {
+		long target = states.get(index);
+		Snake holder = occupant(target) == FREE ? null : snakes.get(occupant(target));
+		if ((type(target) == ELEMENT_OBSTACLE && (byte) (target >>> VALUE_SHIFT) == 0)
+				|| (holder != null && holder != snake && !holder.isAlive())) {
+			waysGiven.increment();
+			return true;
+		}
+		int id = snake.getIdentification();
+		for (int steps = 0; steps <= blockedSnakes.size(); steps++) {
+			int occupant = occupant(states.get(index));
+			if (occupant == FREE) return false; // Waiting for an obstacle, or the cell was just released.
+			if (occupant == id) {
+				waysGiven.increment();
+				return true;
+			}
+			if (occupant > id) return false; // Another snake of the cycle gives way.
+			Integer next = blockedSnakes.get(occupant);
+			if (next == null) return false; // The chain ends with a snake that is moving.
+			index = next;
+		}
+		return false; // A cycle the snake waits for without being part of it.
+	}
+
+	// Returns the time snakes spent waiting for cells, in nanoseconds.
+	long getBlockedNanos() {
+		return blockedNanos.sum();
+	}
+
+	// Returns the number of moves snakes gave up not to wait forever.
+	long getWaysGiven() {
+		return waysGiven.sum();
+	}
+
+	// Takes a snake off a cell, waking the threads waiting for it, if any.
+	void release(int index) {
+		long state = states.getAndUpdate(index, current -> withOccupant(current, FREE));
+		freeCells.markChanged(index);
+		if (waiterCount(state) > 0) {
+			signal(index);
+		}
+	}
+
+	// Puts a game element on a cell, blocking until no snake or obstacle is on it.
+	void place(int index, GameElement element) throws InterruptedException {
+		while (true) {
+			long state = states.get(index);
+			if (isOccupied(state)) {
+				await(index, state, Long.MAX_VALUE);
+			} else if (tryPlace(index, element, state)) {
+				return;
+			}
+		}
+	}
+
+	// Puts a game element on a cell if no snake and no other element is on it. Never blocks.
+	boolean tryPlace(int index, GameElement element) {
+		while (true) {
+			long state = states.get(index);
+			if (occupant(state) != FREE || type(state) != ELEMENT_NONE) return false;
+			if (tryPlace(index, element, state)) return true;
+		}
+	}
+
+	// Takes the game element of the given type off a cell and returns it, or null if the cell holds none. Waiting
+	// threads are only woken when an obstacle leaves, as a goal does not occupy its cell.
+	GameElement remove(int index, byte type) {
+		while (true) {
+			long state = states.get(index);
+			if (type(state) != type) return null;
+			GameElement element = elements.get(index); // Read before the cell is cleared and can take another element.
+			if (states.compareAndSet(index, state, state & ~ELEMENT_MASK)) {
+				if (element != null) elements.remove(index, element);
+				freeCells.markChanged(index);
+				markDirty(index);
+				if (type != ELEMENT_NONE) elementChanged(index);
+				if (type == ELEMENT_OBSTACLE && waiterCount(state) > 0) signal(index);
+				return element;
+			}
+		}
+	}
+
+	// Puts a snake on a cell, or clears it if the snake is null, without checking the cell. Only for boards
+	// mirroring a remote game state and for boards driven by a tick engine.
+	void setSnake(int index, Snake snake) {
+		if (snake == null) {
+			release(index);
+			return;
+		}
+		register(snake);
+		states.getAndUpdate(index, current -> withOccupant(current, snake.getIdentification()));
+		freeCells.markChanged(index);
+	}
+
+	// Puts a game element on a cell, or clears it if the element is null, without checking the cell. Only for
+	// boards mirroring a remote game state and for boards driven by a tick engine.
+	void setElement(int index, GameElement element) {
+		if (element == null) {
+			long state = states.getAndUpdate(index, current -> current & ~ELEMENT_MASK);
+			elements.remove(index);
+			freeCells.markChanged(index);
+			markDirty(index);
+			if (type(state) != ELEMENT_NONE) elementChanged(index);
+			if (type(state) == ELEMENT_OBSTACLE && waiterCount(state) > 0) signal(index);
+			return;
+		}
+		elements.put(index, element);
+		long bits = elementBits(element);
+		long state = states.getAndUpdate(index, current -> (current & ~ELEMENT_MASK) | bits);
+		freeCells.markChanged(index);
+		markDirty(index);
+		if (type(state) != type(bits)) {
+			elementChanged(index);
+		}
+	}
+
+	// Syncs the goal index with a cell whose obstacle or goal was placed or removed, then logs the cell and counts
+	// it in the version, after the cell changed. A log nobody drains stops growing at its capacity and is then
+	// dropped as a whole.
+	private void elementChanged(int index) {
+		goals.sync(index, this);
+		elementLock.lock();
+		try {
+			if (elementLogSize == elementLogCapacity) {
+				elementLogSize = 0;
+				isElementLogOverflowed = true;
+			}
+			if (!isElementLogOverflowed) {
+				if (elementLogSize == elementLog.length) elementLog = Arrays.copyOf(elementLog, elementLogSize * 2);
+				elementLog[elementLogSize++] = index;
+			}
+			elementVersion++;
+		} finally {
+			elementLock.unlock();
+		}
+	}
+
+	// Marks the snapshot chunk of a cell whose element was written, after the write. Only writes the bitset when
+	// the bit is not set yet.
+	private void markDirty(int index) {
+		int chunk = index >>> BoardSnapshot.CHUNK_BITS;
+		long bit = 1L << chunk;
+		if ((dirtyChunks.get(chunk >>> 6) & bit) == 0) {
+			dirtyChunks.getAndAccumulate(chunk >>> 6, bit, (bits, added) -> bits | added);
+		}
+	}
+
+	// Makes a snake resolvable from its identification. Only writes the map when the snake is not there yet.
+	private void register(Snake snake) {
+		if (snakes.get(snake.getIdentification()) != snake) {
+			snakes.put(snake.getIdentification(), snake);
+		}
+	}
+
+	// Forgets a snake that left the board once its cells are released, so that it can be collected. A newer snake
+	// with the same identification stays.
+	void unregister(Snake snake) {
+		snakes.remove(snake.getIdentification(), snake);
+	}
+
+	// Places an element on a cell whose word was read as the given state, failing if the word changed since.
+	private boolean tryPlace(int index, GameElement element, long state) {
+		elements.put(index, element); // Before the type is published, so that readers of the type find it.
+		long bits = elementBits(element);
+		if (states.compareAndSet(index, state, (state & ~ELEMENT_MASK) | bits)) {
+			freeCells.markChanged(index);
+			markDirty(index);
+			if (type(state) != type(bits)) elementChanged(index);
+			return true;
+		}
+		if (type(state) == ELEMENT_NONE) elements.remove(index, element);
+		return false;
+	}
+
+	// Parks the current thread until the cell read as the given occupied state may be free, or at most the given
+	// time, Long.MAX_VALUE for no limit. Returns at once, without parking, if the state changed before the thread
+	// was counted as waiting.
+	private void await(int index, long state, long timeoutNanos) throws InterruptedException {
+		AtomicReferenceArray<WaitNode> waiters = getWaiters();
+		WaitNode node = new WaitNode(Thread.currentThread());
+		push(waiters, index, node);
+		try {
+			// Counted only while the cell is still taken: a release after this sees the count and wakes the thread.
+			if (!states.compareAndSet(index, state, state + WAITER)) return;
+			try {
+				long deadline = System.nanoTime() + timeoutNanos;
+				while (isOccupied(states.get(index))) {
+					if (timeoutNanos == Long.MAX_VALUE) {
+						LockSupport.park(this);
+					} else {
+						long remaining = deadline - System.nanoTime();
+						if (remaining <= 0) return;
+						LockSupport.parkNanos(this, remaining);
+					}
+					if (Thread.interrupted()) throw new InterruptedException();
+					if (node.isSignaled) {
+						// Taken off the stack by the release: back on it before the cell is checked again.
+						node.isSignaled = false;
+						push(waiters, index, node);
+					}
+				}
+			} finally {
+				states.getAndAdd(index, -WAITER);
+			}
+		} finally {
+			node.thread = null; // Skipped by the releases and dropped from the stack by the next push or release.
+			waiters.compareAndSet(index, node, node.next);
+		}
+	}
+
+	// Returns the stacks of waiting threads, creating them on the first contention.
+	private AtomicReferenceArray<WaitNode> getWaiters() {
+		AtomicReferenceArray<WaitNode> waiters = this.waiters;
+		if (waiters != null) return waiters;
+		waitersLock.lock();
+		try {
+			if (this.waiters == null) this.waiters = new AtomicReferenceArray<>(size());
+			return this.waiters;
+		} finally {
+			waitersLock.unlock();
+		}
+	}
+
+	// Pushes a waiting thread on the stack of a cell, dropping the threads on top that stopped waiting.
+	private static void push(AtomicReferenceArray<WaitNode> waiters, int index, WaitNode node) {
+		while (true) {
+			WaitNode head = waiters.get(index);
+			WaitNode next = head;
+			while (next != null && next.thread == null) {
+				next = next.next;
+			}
+			node.next = next;
+			if (waiters.compareAndSet(index, head, node)) return;
+		}
+	}
+
+	// Wakes every thread parked on a cell, each of them checking it again. The stack is emptied: the threads that
+	// find the cell taken again push themselves back.
+	private void signal(int index) {
+		AtomicReferenceArray<WaitNode> waiters = this.waiters;
+		if (waiters == null) return; // Only counted waiters are signaled, and they created the stacks first.
+		WaitNode node = waiters.getAndSet(index, null);
+		while (node != null) {
+			WaitNode next = node.next; // Read first: once signaled, the node may be pushed again with another next.
+			Thread thread = node.thread;
+			if (thread != null) {
+				node.isSignaled = true;
+				LockSupport.unpark(thread);
+			}
+			node = next;
+		}
+	}
+
+	// Returns the identification of the snake in a state word, FREE if none.
+	private static int occupant(long state) {
+		return (int) (state & OCCUPANT_MASK);
+	}
+
+	// Returns the type of the game element in a state word.
+	private static byte type(long state) {
+		return (byte) (state >>> TYPE_SHIFT);
+	}
+
+	// Returns the number of threads waiting in a state word.
+	private static int waiterCount(long state) {
+		return (int) (state >>> WAITERS_SHIFT);
+	}
+
+	// Checks if a state word has a snake or an obstacle.
+	private static boolean isOccupied(long state) {
+		return occupant(state) != FREE || type(state) == ELEMENT_OBSTACLE;
+	}
+
+	// Returns a state word with another occupant.
+	private static long withOccupant(long state, int id) {
+		return (state & ~OCCUPANT_MASK) | (id & OCCUPANT_MASK);
+	}
+
+	// Returns the type and value bits of a game element.
+	private static long elementBits(GameElement element) {
+		int value = 0;
+		byte type = ELEMENT_NONE;
+		if (element instanceof Obstacle) {
+			value = ((Obstacle) element).getRemainingMoves();
+			type = ELEMENT_OBSTACLE;
+		} else if (element instanceof Goal) {
+			value = ((Goal) element).getValue();
+			type = ELEMENT_GOAL;
+		}
+		return ((long) type << TYPE_SHIFT) | ((long) (value & 0xFF) << VALUE_SHIFT);
+	}
+
+	// Thread parked on a cell, in the stack of the cell.
+	private static class WaitNode {
+		private volatile Thread thread; // Parked thread, null once it stopped waiting.
+		private volatile boolean isSignaled = false; // Whether a release took the node off the stack.
+		private WaitNode next; // Node pushed before this one.
+
+		private WaitNode(Thread thread) {
+			this.thread = thread;
+		}
+	}
+}
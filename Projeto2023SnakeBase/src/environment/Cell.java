@@ -1,14 +1,13 @@
 package environment;
 
 import java.io.Serializable;
-
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.TimeUnit;
 
 import game.*;
 
 /** Main class for game representation.
+ * A cell is a view of one index of the storage of its board: it holds no state of its own, so cells are
+ * created on demand and two cells are equal when they view the same index.
  * 
  * @author luismota
  *
@@ -16,227 +15,233 @@ import game.*;
 
 public class Cell implements Serializable {
 	private final BoardPosition position; // The position of this cell on the board.
-	private Snake occupyingSnake = null; // The snake currently occupying this cell, if any.
-	private GameElement gameElement = null; // Any game element (like goals or obstacles) present in this cell.
-	private final Lock lock = new ReentrantLock(); // Lock for handling concurrent access to the cell.
-	private final Condition notOccupied = lock.newCondition(); // Condition for signaling when the cell becomes unoccupied.
+	private transient final Board board; // Board owning this cell.
+	private transient final BoardStorage storage; // Storage holding the contents of the cell.
+	private final int index; // Index of the cell in the storage, x * rows + y.
 
-	public GameElement getGameElement() {
-		return gameElement;
+	Cell(Board board, BoardStorage storage, int index) {
+		super();
+		this.board = board;
+		this.storage = storage;
+		this.index = index;
+		this.position = new BoardPosition(index / storage.getRows(), index % storage.getRows());
 	}
 
-	public Cell(BoardPosition position) {
-		super();
-		this.position = position;
+	public GameElement getGameElement() {
+		return storage.getElement(index);
 	}
 
 	public BoardPosition getPosition() {
 		return position;
 	}
 
-	public Lock getLock() {
-		return lock;
+	// Returns the index of this cell in its board, x * rows + y.
+	public int getIndex() {
+		return index;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof Cell && ((Cell) obj).index == index && ((Cell) obj).storage == storage;
 	}
 
-	// Requests access to this cell for a snake, blocking until it is not occupied.
+	@Override
+	public int hashCode() {
+		return index;
+	}
+
+	// Requests access to this cell for a snake, blocking until it is not occupied. The cell is claimed with a
+	// compare-and-set; the thread only parks while another snake or an obstacle holds it.
 	public void request(Snake snake) throws InterruptedException {
-		// TODO coordination and mutual exclusion.
-		lock.lock();
-		try {
-			while (isOccupied()) {
-				notOccupied.await();
-			}
-			occupyingSnake = snake;
-		} finally {
-			lock.unlock();
-		}
+		storage.claim(index, snake);
+	}
+
+	// Requests access to this cell for a snake, waiting at most the given time for it not to be occupied. Returns
+	// whether the snake got the cell.
+	public boolean tryRequest(Snake snake, long timeout, TimeUnit unit) throws InterruptedException {
+		return storage.tryClaim(index, snake, unit.toNanos(timeout));
 	}
 
-	// Releases this cell from being occupied by a snake, signaling any waiting threads.
+	// Requests access to this cell for a snake without waiting. Returns whether the snake got the cell.
+	public boolean tryRequest(Snake snake) {
+		return storage.tryClaim(index, snake);
+	}
+
+	// Releases this cell from being occupied by a snake, waking the waiting threads if there are any.
 	public void release() {
-		// TODO
-		lock.lock();
-		try {
-			occupyingSnake = null;
-			notOccupied.signalAll();
-		} finally {
-			lock.unlock();
-		}
+		storage.release(index);
 	}
 
 	// Check if the cell is occupied by a snake.
 	public boolean isOccupiedBySnake() {
-		return occupyingSnake != null;
+		return storage.hasSnake(index);
 	}
 
 	// Sets a game element to this cell if it's not already occupied. Waits if the cell is occupied.
 	public void setGameElement(GameElement element) {
-		// TODO coordination and mutual exclusion.
-		lock.lock();
+		element.setCurrentPosition(position);
 		try {
-			while (isOccupied()) {
-				notOccupied.await();
-			}
-			gameElement = element;
-			gameElement.setCurrentPosition(position);
+			storage.place(index, element);
 		} catch (InterruptedException e) {
 			Thread.currentThread().interrupt();
 			System.out.println("Thread was interrupted while setting a game element.");
-		} finally {
-			lock.unlock();
 		}
 	}
 
+	// Sets a game element to this cell if neither a snake nor another element is on it, without waiting.
+	// Returns whether it was set.
+	public boolean trySetGameElement(GameElement element) {
+		BoardPosition previous = element.getCurrentPosition();
+		element.setCurrentPosition(position);
+		if (!storage.tryPlace(index, element)) {
+			element.setCurrentPosition(previous);
+			return false;
+		}
+		return true;
+	}
+
+	// Sets the occupying snake without any coordination. Only for boards mirroring a remote game state and for
+	// boards driven by a tick engine, where a single thread changes the cells.
+	public void setOccupyingSnake(Snake snake) {
+		storage.setSnake(index, snake);
+	}
+
+	// Replaces the game element without waiting. Only for boards mirroring a remote game state and for boards
+	// driven by a tick engine.
+	public void replaceGameElement(GameElement element) {
+		if (element != null) {
+			element.setCurrentPosition(position);
+		}
+		storage.setElement(index, element);
+	}
+
 	// Check if the cell is occupied by either a snake or an obstacle.
 	public boolean isOccupied() {
-		return isOccupiedBySnake() || (gameElement != null && gameElement instanceof Obstacle);
+		return storage.isOccupied(index);
 	}
 
 	// Returns the snake occupying the cell, if any.
 	public Snake getOccupyingSnake() {
-		return occupyingSnake;
+		return storage.getSnake(index);
 	}
 
-	// Removes the goal from this cell and signals any waiting threads.
+	// Removes the goal from this cell. A goal does not occupy the cell, so no waiting thread needs waking.
 	public Goal removeGoal() {
-		// TODO
-		lock.lock();
-		try {
-			if (gameElement instanceof Goal) {
-				Goal goal = (Goal)gameElement;
-				gameElement = null;
-				notOccupied.signalAll();
-				return goal;
-			}
-			return null;
-		} finally {
-			lock.unlock();
-		}
+		return (Goal) storage.remove(index, BoardStorage.ELEMENT_GOAL);
 	}
 
-	// Removes an obstacle from this cell and signals any waiting threads.
+	// Removes an obstacle from this cell, waking the waiting threads if there are any.
 	public void removeObstacle() {
-		// TODO
-		lock.lock();
-		try {
-			if (gameElement instanceof Obstacle) {
-				gameElement = null;
-				notOccupied.signalAll();
-			}
-		} finally {
-			lock.unlock();
-		}
+		storage.remove(index, BoardStorage.ELEMENT_OBSTACLE);
 	}
 
 	// Return the goal if it is present in the cell.
 	public Goal getGoal() {
-		return (Goal)gameElement;
+		return (Goal) storage.getElement(index);
 	}
 
 	// Check if the cell is occupied by a goal.
 	public boolean isOccupiedByGoal() {
-		return (gameElement != null && gameElement instanceof Goal);
+		return storage.getElementType(index) == BoardStorage.ELEMENT_GOAL;
+	}
+
+	// Check if the cell is occupied by an obstacle.
+	public boolean isOccupiedByObstacle() {
+		return storage.getElementType(index) == BoardStorage.ELEMENT_OBSTACLE;
+	}
+
+	// Returns the remaining moves of the obstacle or the value of the goal in the cell, as of when it was placed,
+	// without touching the element itself.
+	public int getElementValue() {
+		return storage.getElementValue(index);
+	}
+
+	// Moves the goal captured on a cell to another cell in a thread-safe manner, without locks: the goal is first
+	// set on its new cell with a compare-and-set, which fails if a snake or an obstacle took the cell in the
+	// meantime, and only then removed from the old one. The goal index of the board follows both changes in place.
+	// A goal reaching its maximum value leaves the board, and the game ends when no goal is left.
+	public static void goalCaptureAndMoveHandler(Cell currentCell) {
+		Board board = currentCell.board;
+		Goal goal = currentCell.getGoal();
+		if (goal == null) return; // Already moved.
+		// Increment the goal's value and check for game termination.
+		goal.incrementValue();
+		if (goal.getValue() == Goal.MAX_VALUE) {
+			currentCell.removeGoal();
+			board.publish(BoardEvents.GOAL_MOVED);
+			if (board.getGoalCount() == 0 && !board.isFinished()) ((LocalBoard) board).endGame();
+			return;
+		}
+		// Set the goal on a new unoccupied position, trying another one if the cell was taken meanwhile.
+		BoardPosition nextPosition;
+		do {
+			nextPosition = board.getUnoccupiedPosition();
+			if (nextPosition == null) {
+				goal.setValue(goal.getValue() - 1); // The capture does not count while the goal cannot move.
+				System.err.println("Board full: goal stays at position " + currentCell.getPosition() + " .");
+				return;
+			}
+		} while (!board.getCell(nextPosition).trySetGameElement(goal));
+		currentCell.removeGoal();
+		board.publish(BoardEvents.GOAL_MOVED);
+		System.out.println("Goal " + goal.getValue() + " placed at position " + goal.getCurrentPosition() + " .");
+	}
+
+	// Moves the goal captured on a cell to a random unoccupied cell like goalCaptureAndMoveHandler, without any
+	// locking. Only for boards driven by a tick engine, whose thread is the only one changing the cells.
+	public static void goalCaptureAndMoveWithoutLocking(Cell currentCell) {
+		Board board = currentCell.board;
+		Goal goal = currentCell.getGoal();
+		currentCell.replaceGameElement(null);
+		goal.incrementValue();
+		if (goal.getValue() == Goal.MAX_VALUE) {
+			board.publish(BoardEvents.GOAL_MOVED);
+			if (board.getGoalCount() == 0) ((LocalBoard) board).endGame();
+			return;
+		}
+		BoardPosition nextPosition = board.getUnoccupiedPosition();
+		if (nextPosition == null) {
+			goal.setValue(goal.getValue() - 1); // The capture does not count while the goal cannot move.
+			currentCell.replaceGameElement(goal);
+			System.err.println("Board full: goal stays at position " + currentCell.getPosition() + " .");
+			return;
+		}
+		board.getCell(nextPosition).replaceGameElement(goal);
+		board.publish(BoardEvents.GOAL_MOVED);
+		System.out.println("Goal " + goal.getValue() + " placed at position " + goal.getCurrentPosition() + " .");
 	}
 
-	// Moves the goal from one cell to another in a thread-safe manner.
-	public static void goalCaptureAndMoveHandler(Board board) {
-		Lock firstLock, secondLock;
-
-		// Retrieve the current position of the goal.
-		BoardPosition currentPosition = board.getGoalPosition();
-		// Obtain the cell object for the current position.
-		Cell currentCell = board.getCell(currentPosition);
-		// Find a new unoccupied position for the goal.
+	// Moves an obstacle to a random unoccupied cell like obstacleMoveHandler, without any locking.
+	// Only for boards driven by a tick engine.
+	public static void obstacleMoveWithoutLocking(Obstacle obstacle) {
+		Board board = obstacle.getBoard();
 		BoardPosition nextPosition = board.getUnoccupiedPosition();
-		// Obtain the cell object for the next position.
+		if (nextPosition == null) return; // Board full, the obstacle stays.
+		Cell currentCell = board.getCell(obstacle.getCurrentPosition());
 		Cell nextCell = board.getCell(nextPosition);
-
-		// Determine the order of locks based on the positions of the cells to avoid deadlocks.
-		// Locks are always acquired in a consistent global order.
-		if (currentCell.getPosition().compareTo(nextCell.getPosition()) < 0) {
-			firstLock = currentCell.getLock();
-			secondLock = nextCell.getLock();
-		} else {
-			firstLock = nextCell.getLock();
-			secondLock = currentCell.getLock();
-		}
-
-		try {
-			// Acquire the first lock.
-			firstLock.lock();
-			try {
-				// Acquire the second lock.
-				secondLock.lock();
-				if (!nextCell.isOccupied()) {
-					// Remove the goal from the current cell.
-					Goal goal = currentCell.removeGoal();
-					// Increment the goal's value and check for game termination.
-					goal.incrementValue();
-					if (goal.getValue() == Goal.MAX_VALUE) {
-						((LocalBoard) board).endGame();
-						return;
-					}
-					// Set the goal in its new position and update the board's goal position.
-					nextCell.setGameElement(goal);
-					board.setGoalPosition(nextPosition);
-					System.out.println("Goal " + goal.getValue() + " placed at position " + goal.getCurrentPosition() + " .");
-				}
-			} finally {
-				// Release the second lock.
-				secondLock.unlock();
-			}
-		} finally {
-			// Release the first lock.
-			firstLock.unlock();
-		}
+		currentCell.replaceGameElement(null);
+		obstacle.decrementRemainingMoves(); // Before placing it, so that the cell stores the new count.
+		nextCell.replaceGameElement(obstacle);
 	}
 
-	// Moves an obstacle from one cell to another in a thread-safe manner.
+	// Moves an obstacle from one cell to another in a thread-safe manner, without locks: the obstacle is set on
+	// its new cell with a compare-and-set, and the move is skipped if the cell was taken in the meantime.
 	public static void obstacleMoveHandler(Obstacle obstacle) {
-		Lock firstLock, secondLock;
-
 		// Get the board context for the obstacle.
 		Board board = obstacle.getBoard();
-		// Retrieve the current position of the obstacle.
-		BoardPosition currentPosition = obstacle.getCurrentPosition();
-		// Find a new position for the obstacle that is currently unoccupied.
+		// Find a new position for the obstacle that is currently unoccupied; on a full board the obstacle stays.
 		BoardPosition nextPosition = board.getUnoccupiedPosition();
+		if (nextPosition == null) return;
 		// Obtain the cell objects for both the current and next positions.
-		Cell currentCell = board.getCell(currentPosition);
+		Cell currentCell = board.getCell(obstacle.getCurrentPosition());
 		Cell nextCell = board.getCell(nextPosition);
-
-		// Determine the order of locks based on the positions of the cells to avoid deadlocks.
-		// Locks are always acquired in a consistent global order.
-		if (currentCell.getPosition().compareTo(nextCell.getPosition()) < 0) {
-			firstLock = currentCell.getLock();
-			secondLock = nextCell.getLock();
+		// Decrement its remaining moves count before placing it, so that the cell stores the new count.
+		obstacle.decrementRemainingMoves();
+		if (nextCell.trySetGameElement(obstacle)) {
+			// Remove obstacle from the previous cell, waking the snakes waiting for it.
+			currentCell.removeObstacle();
 		} else {
-			firstLock = nextCell.getLock();
-			secondLock = currentCell.getLock();
-		}
-
-		try {
-			// Acquire the first lock.
-			firstLock.lock();
-			try {
-				// Acquire the second lock.
-				secondLock.lock();
-				// Check if the next cell is suitable for the move.
-				if (!nextCell.isOccupied()) {
-					// Remove obstacle from the current cell.
-					currentCell.removeObstacle();
-					// Place the obstacle in the destination cell.
-					nextCell.setGameElement(obstacle);
-					// Once the obstacle has been moved, decrement its remaining moves count.
-					obstacle.decrementRemainingMoves();
-				}
-			} finally {
-				// Ensure the second lock is released.
-				secondLock.unlock();
-			}
-		} finally {
-			// Ensure the first lock is released.
-			firstLock.unlock();
+			obstacle.setRemainingMoves(obstacle.getRemainingMoves() + 1); // The move did not happen.
 		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,206 @@
+package environment;
+
+import game.HumanSnake;
+import game.Snake;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/** Benchmark of cell occupancy: cells claimed and released with compare-and-set on the packed state words of
+ * the board storage, against the cells they replaced, each guarding its occupant with a ReentrantLock and
+ * waiting on a Condition. Each scenario runs a few rounds to warm up, then the best of the measured rounds is
+ * reported in nanoseconds per request and release: one thread, every thread on a cell of its own, and every
+ * thread on the same cell, so that they wait for each other. Scaling with threads needs as many cores.
+ *
+ * Options: --threads=4 --operations=1000000 (per thread and round) --rounds=5
+ */
+public class CellBenchmark {
+	private static final int WARMUP_ROUNDS = 3; // Rounds of each scenario run before measuring.
+	private final int threads; // Threads claiming cells at once.
+	private final int operations; // Requests and releases made by each thread in a round.
+	private final int rounds; // Measured rounds of each scenario.
+	private final BenchmarkBoard board; // Empty board whose storage the compare-and-set cells use.
+	private final Snake[] snakes; // Snake of each thread.
+
+	public CellBenchmark(int threads, int operations, int rounds) {
+		this.threads = threads;
+		this.operations = operations;
+		this.rounds = rounds;
+		board = new BenchmarkBoard(Math.max(1, threads), 1);
+		snakes = new Snake[threads];
+		for (int i = 0; i < threads; i++) {
+			snakes[i] = new HumanSnake(i, board); // Never started: only claims the cells it is given.
+		}
+	}
+
+	// Runs every scenario on both kinds of cells and prints the results.
+	public void run() throws InterruptedException {
+		Occupancy locking = new Occupancy() {
+			private final LockingCell[] cells = LockingCell.create(threads);
+
+			@Override
+			public void request(int cell, Snake snake) throws InterruptedException {
+				cells[cell].request(snake);
+			}
+
+			@Override
+			public void release(int cell) {
+				cells[cell].release();
+			}
+		};
+		Occupancy compareAndSet = new Occupancy() {
+			@Override
+			public void request(int cell, Snake snake) throws InterruptedException {
+				board.getCell(cell).request(snake);
+			}
+
+			@Override
+			public void release(int cell) {
+				board.getCell(cell).release();
+			}
+		};
+		System.out.println("Cell benchmark: " + threads + " threads, " + operations + " operations per thread, best of "
+				+ rounds + " rounds, " + Runtime.getRuntime().availableProcessors() + " cores.");
+		report("One thread", 1, false, locking, compareAndSet);
+		report(threads + " threads, own cells", threads, false, locking, compareAndSet);
+		report(threads + " threads, one cell", threads, true, locking, compareAndSet);
+	}
+
+	// Measures a scenario on both kinds of cells and prints their times.
+	private void report(String scenario, int threadCount, boolean isShared, Occupancy locking, Occupancy compareAndSet)
+			throws InterruptedException {
+		double lockingTime = best(locking, threadCount, isShared);
+		double compareAndSetTime = best(compareAndSet, threadCount, isShared);
+		System.out.printf("%-24s lock and condition %7.1f ns/op, compare-and-set %7.1f ns/op (%.2fx)%n", scenario + ":",
+				lockingTime, compareAndSetTime, lockingTime / compareAndSetTime);
+	}
+
+	// Returns the shortest time per operation of the measured rounds of a scenario, after the warm up rounds.
+	private double best(Occupancy occupancy, int threadCount, boolean isShared) throws InterruptedException {
+		double best = Double.MAX_VALUE;
+		for (int round = 0; round < WARMUP_ROUNDS + rounds; round++) {
+			double time = measure(occupancy, threadCount, isShared);
+			if (round >= WARMUP_ROUNDS) best = Math.min(best, time);
+		}
+		return best;
+	}
+
+	// Runs one round, each thread requesting and releasing its cell or the shared one, and returns the time per
+	// operation in nanoseconds.
+	private double measure(Occupancy occupancy, int threadCount, boolean isShared) throws InterruptedException {
+		CountDownLatch start = new CountDownLatch(1);
+		Thread[] workers = new Thread[threadCount];
+		for (int i = 0; i < threadCount; i++) {
+			int cell = isShared ? 0 : i;
+			Snake snake = snakes[i];
+			workers[i] = new Thread(() -> {
+				try {
+					start.await();
+					for (int operation = 0; operation < operations; operation++) {
+						occupancy.request(cell, snake);
+						occupancy.release(cell);
+					}
+				} catch (InterruptedException e) {
+					System.out.println(Thread.currentThread().getName() + ": Interrupted.");
+				}
+			}, "Cell benchmark " + i);
+			workers[i].start();
+		}
+		long begin = System.nanoTime();
+		start.countDown();
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		return (System.nanoTime() - begin) / ((double) threadCount * operations);
+	}
+
+	// Cells of one of the implementations, by index.
+	private interface Occupancy {
+		// Requests a cell for a snake, waiting while another snake holds it.
+		void request(int cell, Snake snake) throws InterruptedException;
+
+		// Releases a cell, waking the snakes waiting for it.
+		void release(int cell);
+	}
+
+	// Cell as it was before the packed storage: its occupant guarded by a lock, with a condition to wait on.
+	private static class LockingCell {
+		private final Lock lock = new ReentrantLock(); // Lock for handling concurrent access to the cell.
+		private final Condition notOccupied = lock.newCondition(); // Signaled when the cell becomes unoccupied.
+		private Snake occupyingSnake = null; // Snake occupying the cell, if any.
+
+		// Creates the given number of cells.
+		private static LockingCell[] create(int count) {
+			LockingCell[] cells = new LockingCell[count];
+			for (int i = 0; i < count; i++) {
+				cells[i] = new LockingCell();
+			}
+			return cells;
+		}
+
+		// Requests the cell for a snake, blocking until it is not occupied.
+		private void request(Snake snake) throws InterruptedException {
+			lock.lock();
+			try {
+				while (occupyingSnake != null) {
+					notOccupied.await();
+				}
+				occupyingSnake = snake;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		// Releases the cell, signaling any waiting threads.
+		private void release() {
+			lock.lock();
+			try {
+				occupyingSnake = null;
+				notOccupied.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	// Board without snakes, obstacles or goals, only holding the cells under test.
+	private static class BenchmarkBoard extends Board {
+		private BenchmarkBoard(int columns, int rows) {
+			super(columns, rows, 0);
+		}
+
+		@Override
+		public void init() {
+			// Nothing runs on this board.
+		}
+
+		@Override
+		public void handleKeyPress(int keyCode) {
+			// No keys on this board.
+		}
+
+		@Override
+		public void handleKeyRelease() {
+			// No keys on this board.
+		}
+	}
+
+	// Main method for running the benchmark, see the class comment for the options.
+	public static void main(String[] args) throws InterruptedException {
+		new CellBenchmark(Integer.parseInt(getOption(args, "--threads=", "4")),
+				Integer.parseInt(getOption(args, "--operations=", "1000000")),
+				Integer.parseInt(getOption(args, "--rounds=", "5"))).run();
+	}
+
+	// Returns the value of an option given as prefix followed by the value, or the default if it was not given.
+	private static String getOption(String[] args, String prefix, String defaultValue) {
+		for (String arg : args) {
+			if (arg.startsWith(prefix)) {
+				return arg.substring(prefix.length());
+			}
+		}
+		return defaultValue;
+	}
+}
@@ -0,0 +1,151 @@
+package environment;
+
+import game.Goal;
+import game.Obstacle;
+
+import java.util.Random;
+
+/** Benchmark of the goal distance field on a large board with many moving obstacles: the field repaired around
+ * the cells that changed, against a breadth-first search of the whole board from every goal after each batch of
+ * moves, as the field did before. Every batch moves obstacles to random free cells, the way the obstacle movers
+ * do, then asks the distances of random cells. Both answers are compared, and the mean time of a batch is
+ * reported for each number of moves, in milliseconds, after a few batches to warm up.
+ *
+ * Options: --size=1000 (columns and rows) --obstacles=100000 --goals=1 --moves=10,1000,5000,10000 (per batch)
+ * --queries=4000 (per batch) --batches=20 --seed=1
+ */
+public class DistanceFieldBenchmark {
+	private static final int WARMUP_BATCHES = 5; // Batches run for each number of moves before measuring.
+	private final BoardStorage storage; // Board of the obstacles and goals.
+	private final Random random; // Picks the obstacles, their destinations and the queried cells.
+	private final int[] obstacles; // Cell of each obstacle.
+	private final int queries; // Distances asked after each batch of moves.
+	private final int batches; // Measured batches for each number of moves.
+	private final GoalDistanceField field = new GoalDistanceField(); // Field repaired as the obstacles move.
+	private final int[] distances; // Distances found by the full search.
+	private final int[] queue; // Cells left to visit by the full search.
+
+	public DistanceFieldBenchmark(int size, int obstacleCount, int goalCount, int queries, int batches, long seed) {
+		this.queries = queries;
+		this.batches = batches;
+		storage = new BoardStorage(size, size);
+		random = new Random(seed);
+		int placed = 0;
+		while (placed < goalCount) {
+			if (storage.tryPlace(random.nextInt(storage.size()), new Goal(null))) placed++;
+		}
+		obstacles = new int[obstacleCount];
+		placed = 0;
+		while (placed < obstacleCount) {
+			int index = random.nextInt(storage.size());
+			if (storage.tryPlace(index, new Obstacle(placed, null))) obstacles[placed++] = index;
+		}
+		distances = new int[storage.size()];
+		queue = new int[storage.size()];
+	}
+
+	// Runs the batches of each number of moves and prints the results.
+	public void run(int[] moveCounts) {
+		System.out.println("Distance field benchmark: " + storage.getColumns() + "x" + storage.getRows() + " board, "
+				+ obstacles.length + " obstacles, " + storage.goalCount() + " goals, " + queries + " queries per batch, mean of "
+				+ batches + " batches.");
+		field.get(storage, 0); // The first query searches the whole board, later ones repair.
+		for (int moves : moveCounts) {
+			long searchNanos = 0;
+			long repairNanos = 0;
+			int mismatches = 0;
+			int[] cells = new int[queries];
+			int[] answers = new int[queries];
+			for (int batch = 0; batch < WARMUP_BATCHES + batches; batch++) {
+				moveObstacles(moves);
+				for (int q = 0; q < queries; q++) {
+					cells[q] = random.nextInt(storage.size());
+				}
+				long begin = System.nanoTime();
+				for (int q = 0; q < queries; q++) {
+					answers[q] = field.get(storage, cells[q]);
+				}
+				long repaired = System.nanoTime();
+				search();
+				for (int q = 0; q < queries; q++) {
+					if (answers[q] != distances[cells[q]]) mismatches++;
+				}
+				long searched = System.nanoTime();
+				if (batch >= WARMUP_BATCHES) {
+					repairNanos += repaired - begin;
+					searchNanos += searched - repaired;
+				}
+			}
+			double searchTime = searchNanos / (batches * 1e6);
+			double repairTime = repairNanos / (batches * 1e6);
+			System.out.printf("%6d moves per batch: full search %7.2f ms, local repair %7.2f ms (%.1fx), %d mismatches%n",
+					moves, searchTime, repairTime, searchTime / repairTime, mismatches);
+		}
+	}
+
+	// Moves the given number of random obstacles to random free cells.
+	private void moveObstacles(int moves) {
+		for (int move = 0; move < moves; move++) {
+			int obstacle = random.nextInt(obstacles.length);
+			int index;
+			do {
+				index = random.nextInt(storage.size());
+			} while (!storage.tryPlace(index, new Obstacle(obstacle, null)));
+			storage.remove(obstacles[obstacle], BoardStorage.ELEMENT_OBSTACLE);
+			obstacles[obstacle] = index;
+		}
+	}
+
+	// Searches the whole board breadth first from every goal, never entering a cell holding an obstacle.
+	private void search() {
+		int rows = storage.getRows();
+		int size = storage.size();
+		int tail = 0;
+		for (int index = 0; index < size; index++) {
+			byte type = storage.getElementType(index);
+			distances[index] = type == BoardStorage.ELEMENT_GOAL ? 0 : GoalDistanceField.UNREACHABLE;
+			if (type == BoardStorage.ELEMENT_GOAL) queue[tail++] = index;
+		}
+		int head = 0;
+		while (head < tail) {
+			int index = queue[head++];
+			int next = distances[index] + 1;
+			int y = index % rows;
+			if (index >= rows && isOpen(index - rows)) distances[queue[tail++] = index - rows] = next;
+			if (index + rows < size && isOpen(index + rows)) distances[queue[tail++] = index + rows] = next;
+			if (y > 0 && isOpen(index - 1)) distances[queue[tail++] = index - 1] = next;
+			if (y < rows - 1 && isOpen(index + 1)) distances[queue[tail++] = index + 1] = next;
+		}
+	}
+
+	// Checks if the full search has yet to reach a cell and can enter it.
+	private boolean isOpen(int index) {
+		return distances[index] == GoalDistanceField.UNREACHABLE
+				&& storage.getElementType(index) != BoardStorage.ELEMENT_OBSTACLE;
+	}
+
+	// Main method for running the benchmark, see the class comment for the options.
+	public static void main(String[] args) {
+		int size = Integer.parseInt(getOption(args, "--size=", "1000"));
+		String[] moves = getOption(args, "--moves=", "10,1000,5000,10000").split(",");
+		int[] moveCounts = new int[moves.length];
+		for (int i = 0; i < moves.length; i++) {
+			moveCounts[i] = Integer.parseInt(moves[i].trim());
+		}
+		new DistanceFieldBenchmark(size, Integer.parseInt(getOption(args, "--obstacles=", "100000")),
+				Integer.parseInt(getOption(args, "--goals=", "1")),
+				Integer.parseInt(getOption(args, "--queries=", "4000")),
+				Integer.parseInt(getOption(args, "--batches=", "20")),
+				Long.parseLong(getOption(args, "--seed=", "1"))).run(moveCounts);
+	}
+
+	// Returns the value of an option given as prefix followed by the value, or the default if it was not given.
+	private static String getOption(String[] args, String prefix, String defaultValue) {
+		for (String arg : args) {
+			if (arg.startsWith(prefix)) {
+				return arg.substring(prefix.length());
+			}
+		}
+		return defaultValue;
+	}
+}
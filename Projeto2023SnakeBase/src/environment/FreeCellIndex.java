@@ -0,0 +1,151 @@
+package environment;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/** Index of the free cells of a board, those without snake, obstacle or goal, so that a uniformly random free
+ * cell is found in constant time however full the board is. Free cells are kept in a dense list, and once more
+ * in a dense list per column; a cell leaves a list by swapping the last one into its slot. The storage marks a
+ * cell after every change, which only sets its bit in a bitset, so moving snakes never take a lock; the lists
+ * follow the marked cells when a placement asks for a free cell, reading the state each cell has at that moment
+ * under the lock of the lists. A bit is cleared before the state is read, so a change racing with the catching
+ * up marks its cell again for the next query. A summary bitset of the words holding marked cells keeps queries
+ * on large boards from scanning the whole bitset. A cell picked from the index may be taken by the time it is
+ * used, so callers claim it with a compare-and-set and pick again if that fails.
+ */
+class FreeCellIndex {
+	private static final int ABSENT = -1; // Slot of a cell that is not free.
+	private final BoardStorage storage; // Cells whose states the lists follow.
+	private final int rows; // Number of rows, the size of the list of each column.
+	private final int[] cells; // Free cells, in slots 0 to count - 1.
+	private final int[] slots; // Slot of each cell in cells, ABSENT if the cell is not free.
+	private final int[] columnCells; // Free cells of column x, in slots x * rows to x * rows + columnCounts[x] - 1.
+	private final int[] columnSlots; // Slot of each cell in columnCells, ABSENT if the cell is not free.
+	private final int[] columnCounts; // Number of free cells of each column.
+	private int count; // Number of free cells.
+	private final AtomicLongArray changed; // Bit of each cell changed since the lists last followed it.
+	private final AtomicLongArray changedWords; // Bit of each word of changed that may have a bit set.
+	private final Lock lock = new ReentrantLock(); // Guards the lists, only taken by placements.
+
+	// Creates the index of an empty board, where every cell is free.
+	FreeCellIndex(BoardStorage storage, int columns, int rows) {
+		this.storage = storage;
+		this.rows = rows;
+		int size = columns * rows;
+		cells = new int[size];
+		slots = new int[size];
+		columnCells = new int[size];
+		columnSlots = new int[size];
+		columnCounts = new int[columns];
+		for (int index = 0; index < size; index++) {
+			cells[index] = index;
+			slots[index] = index;
+			columnCells[index] = index; // Cells of a column are consecutive, so their slots match their indices.
+			columnSlots[index] = index;
+		}
+		Arrays.fill(columnCounts, rows);
+		count = size;
+		changed = new AtomicLongArray((size + 63) >>> 6);
+		changedWords = new AtomicLongArray((changed.length() + 63) >>> 6);
+	}
+
+	// Marks a cell whose state changed, for the lists to follow it before the next query. Called after every
+	// change of the cell; never blocks, and only writes shared memory when the cell is not marked yet.
+	void markChanged(int index) {
+		int word = index >>> 6;
+		long bit = 1L << index;
+		if ((changed.get(word) & bit) != 0) return; // Still to be followed: the next query reads the latest state.
+		changed.getAndAccumulate(word, bit, (bits, added) -> bits | added);
+		long wordBit = 1L << word;
+		if ((changedWords.get(word >>> 6) & wordBit) == 0) {
+			changedWords.getAndAccumulate(word >>> 6, wordBit, (bits, added) -> bits | added);
+		}
+	}
+
+	// Returns a uniformly random free cell, or -1 if the board is full.
+	int random(Random random) {
+		lock.lock();
+		try {
+			catchUp();
+			return count == 0 ? -1 : cells[random.nextInt(count)];
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// Returns a uniformly random free cell of a column, or -1 if the column is full.
+	int randomInColumn(int x, Random random) {
+		lock.lock();
+		try {
+			catchUp();
+			int columnCount = columnCounts[x];
+			return columnCount == 0 ? -1 : columnCells[x * rows + random.nextInt(columnCount)];
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// Returns the number of free cells.
+	int count() {
+		lock.lock();
+		try {
+			catchUp();
+			return count;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// Adds or removes every marked cell according to whether it is free now. Called under the lock.
+	private void catchUp() {
+		for (int summary = 0; summary < changedWords.length(); summary++) {
+			if (changedWords.get(summary) == 0) continue;
+			long words = changedWords.getAndSet(summary, 0); // Cleared first: a word marked meanwhile is marked again.
+			while (words != 0) {
+				int word = summary * 64 + Long.numberOfTrailingZeros(words);
+				long bits = changed.getAndSet(word, 0);
+				while (bits != 0) {
+					follow(word * 64 + Long.numberOfTrailingZeros(bits));
+					bits &= bits - 1;
+				}
+				words &= words - 1;
+			}
+		}
+	}
+
+	// Adds or removes a cell according to whether it is free now.
+	private void follow(int index) {
+		boolean isFree = storage.isFree(index);
+		if (isFree && slots[index] == ABSENT) {
+			add(index);
+		} else if (!isFree && slots[index] != ABSENT) {
+			remove(index);
+		}
+	}
+
+	// Appends a cell to the list of free cells and to the list of its column.
+	private void add(int index) {
+		cells[count] = index;
+		slots[index] = count++;
+		int x = index / rows;
+		int slot = x * rows + columnCounts[x]++;
+		columnCells[slot] = index;
+		columnSlots[index] = slot;
+	}
+
+	// Removes a cell from both lists, moving the last cell of each list into its slot.
+	private void remove(int index) {
+		int last = cells[--count];
+		cells[slots[index]] = last;
+		slots[last] = slots[index];
+		slots[index] = ABSENT;
+		int x = index / rows;
+		int lastInColumn = columnCells[x * rows + --columnCounts[x]];
+		columnCells[columnSlots[index]] = lastInColumn;
+		columnSlots[lastInColumn] = columnSlots[index];
+		columnSlots[index] = ABSENT;
+	}
+}
@@ -7,19 +7,28 @@ import java.io.Serializable;
 import java.util.LinkedList;
 
 public class GameState implements Serializable {
-    private Cell[][] cells; // Two-dimensional array representing the cells of the game board.
+    private transient Board board; // Board whose cells make up the game state.
     private LinkedList<Snake> snakes; // List of all snakes currently in the game.
     private boolean isFinished;
+    private long sequence; // Broadcast sequence number, deltas with the following numbers apply on top of this state.
+    private transient BoardSnapshot snapshot; // Cells and snake bodies of the state, null until a snapshot was taken.
 
-    public GameState(Cell[][] cells, LinkedList<Snake> snakes, boolean isFinished) {
-        this.cells = cells;
+    public GameState(Board board, LinkedList<Snake> snakes, boolean isFinished) {
+        this.board = board;
         this.snakes = snakes;
         this.isFinished = isFinished;
     }
 
-    // Returns the current state of the cells on the board.
-    public Cell[][] getCells() {
-        return cells;
+    // Creates the state of a board as of a snapshot, to be encoded while the snakes keep moving.
+    public GameState(Board board, LinkedList<Snake> snakes, BoardSnapshot snapshot, long sequence) {
+        this(board, snakes, snapshot.isFinished());
+        this.snapshot = snapshot;
+        this.sequence = sequence;
+    }
+
+    // Returns the board holding the current state of the cells.
+    public Board getBoard() {
+        return board;
     }
 
     // Returns the list of snakes currently in the game.
@@ -32,10 +41,20 @@ public class GameState implements Serializable {
         return isFinished;
     }
 
-    // Updates the game state with new cell configurations and snake positions.
-    public void update(Cell[][] cells, LinkedList<Snake> snakes, boolean isFinished) {
-        this.cells = cells;
+    // Returns the snapshot of the cells and snake bodies of this state, null if none was taken.
+    public BoardSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    // Returns the broadcast sequence number of this state.
+    public long getSequence() {
+        return sequence;
+    }
+
+    // Updates the game state with the snakes and a snapshot of the board.
+    public void update(LinkedList<Snake> snakes, BoardSnapshot snapshot) {
         this.snakes = snakes;
-        this.isFinished = isFinished;
+        this.snapshot = snapshot;
+        this.isFinished = snapshot.isFinished();
     }
 }
@@ -0,0 +1,100 @@
+package environment;
+
+import java.util.Arrays;
+
+// Changes to the game state since the previous broadcast, found by comparing the snapshot of that broadcast with
+// the snapshot of this one. Only valid on top of the state with the preceding sequence number.
+public class GameStateDelta {
+    private final long sequence; // Broadcast sequence number of the state obtained by applying this delta.
+    private final BoardSnapshot snapshot; // State obtained by applying this delta, the changes are read from.
+    private final int[] cells; // Indices of the cells whose contents changed.
+    private final int[] snakes; // Snakes of the snapshot that were added or moved.
+    private final int[] removedSnakes; // Identifications of the snakes that left the game.
+
+    // Builds the changes turning a snapshot into a later one of the same board. Chunks of cells and bodies of
+    // snakes the two share did not change and are skipped at once. Without a previous snapshot, every game
+    // element and every snake is a change.
+    public GameStateDelta(long sequence, BoardSnapshot previous, BoardSnapshot snapshot) {
+        this.sequence = sequence;
+        this.snapshot = snapshot;
+        int size = snapshot.getColumns() * snapshot.getRows();
+        int[] changedCells = new int[16];
+        int cellCount = 0;
+        for (int chunk = 0; chunk < snapshot.getChunkCount(); chunk++) {
+            if (snapshot.isSameChunk(previous, chunk)) continue;
+            byte[] cells = snapshot.chunks[chunk];
+            byte[] previousCells = previous != null ? previous.chunks[chunk] : null;
+            int first = chunk << BoardSnapshot.CHUNK_BITS;
+            for (int i = 0; i < BoardSnapshot.CHUNK && first + i < size; i++) {
+                if (previousCells != null ? cells[i] == previousCells[i]
+                        : !snapshot.isObstacleAt(first + i) && !snapshot.isGoalAt(first + i)) continue;
+                if (cellCount == changedCells.length) changedCells = Arrays.copyOf(changedCells, cellCount * 2);
+                changedCells[cellCount++] = first + i;
+            }
+        }
+        this.cells = Arrays.copyOf(changedCells, cellCount);
+
+        int previousCount = previous != null ? previous.getSnakeCount() : 0;
+        boolean[] isPresent = new boolean[previousCount];
+        int[] changedSnakes = new int[snapshot.getSnakeCount()];
+        int snakeCount = 0;
+        int expected = 0; // Slot following the last snake found: snakes keep their order as others join and leave.
+        for (int snake = 0; snake < snapshot.getSnakeCount(); snake++) {
+            int slot = findSnake(previous, snapshot.getSnakeId(snake), expected);
+            if (slot >= 0) {
+                expected = slot + 1;
+                isPresent[slot] = true;
+                if (snapshot.isSameBody(snake, previous, slot)) continue;
+            }
+            changedSnakes[snakeCount++] = snake;
+        }
+        this.snakes = Arrays.copyOf(changedSnakes, snakeCount);
+
+        int[] removed = new int[previousCount];
+        int removedCount = 0;
+        for (int slot = 0; slot < previousCount; slot++) {
+            if (!isPresent[slot]) removed[removedCount++] = previous.getSnakeId(slot);
+        }
+        this.removedSnakes = Arrays.copyOf(removed, removedCount);
+    }
+
+    // Returns the slot of a snake in a snapshot, trying the given slot first, or -1 if it is not there.
+    private static int findSnake(BoardSnapshot snapshot, int id, int slot) {
+        if (snapshot == null) return -1;
+        if (slot < snapshot.getSnakeCount() && snapshot.getSnakeId(slot) == id) return slot;
+        for (int other = 0; other < snapshot.getSnakeCount(); other++) {
+            if (snapshot.getSnakeId(other) == id) return other;
+        }
+        return -1;
+    }
+
+    // Returns the broadcast sequence number of the state obtained by applying this delta.
+    public long getSequence() {
+        return sequence;
+    }
+
+    // Returns the snapshot of the state obtained by applying this delta, holding the new contents of the changes.
+    public BoardSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    // Returns the indices of the cells whose contents changed.
+    public int[] getCells() {
+        return cells;
+    }
+
+    // Returns the snakes that were added or moved, as their numbers in the snapshot.
+    public int[] getSnakes() {
+        return snakes;
+    }
+
+    // Returns the identifications of the removed snakes.
+    public int[] getRemovedSnakes() {
+        return removedSnakes;
+    }
+
+    // Checks if the game has finished.
+    public boolean isFinished() {
+        return snapshot.isFinished();
+    }
+}
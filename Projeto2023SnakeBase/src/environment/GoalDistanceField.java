@@ -0,0 +1,295 @@
+package environment;
+
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntConsumer;
+
+/** Number of moves from every cell of a board to the nearest goal it can reach, going around obstacles. Snakes
+ * are ignored: they move every step. The field is searched breadth first from all the goals at once on the first
+ * query and when many goals are taken away together, and otherwise repaired around the cells whose obstacle or
+ * goal changed, read from the log of the storage on the first query after a change: a freed cell or a new goal
+ * spreads the distances it shortens, and a blocked cell or a goal taken away only recomputes the cells whose
+ * every shortest path went through it, from the cells around them, nearest first. Repairs change the shared
+ * array in place, so queries check the applied version before and after reading, like a sequence lock, and
+ * wait for the repair when it changed.
+ */
+class GoalDistanceField {
+	static final int UNREACHABLE = -1; // Distance of obstacles and of the cells walled off from every goal.
+	private static final int BLOCKED = -2; // Distance kept for the cells holding an obstacle.
+	private static final long CHANGING = -1; // Applied version while the field is being changed.
+	private final Lock lock = new ReentrantLock(); // Makes a single thread change the field.
+	private final IntConsumer logReader = this::addChange; // Records the cells drained from the element log.
+	private volatile long appliedVersion = CHANGING; // Element version of the storage the field reflects.
+	private BoardStorage storage; // Storage the field was computed on, null before the first computation.
+	private int[] distances = new int[0]; // Moves from each cell to the nearest goal, UNREACHABLE or BLOCKED if none.
+	private int[] queue = new int[0]; // Cells left to visit by a search or a repair.
+	private int[] marks = new int[0]; // Repair that queued each cell, negated if the cell lost its distance.
+	private int repair = 0; // Number of the current repair, to tell its marks from those of the previous ones.
+	private int[] changes = new int[16]; // Cells drained from the element log, to be repaired.
+	private int changeCount = 0; // Number of cells in changes.
+	private long[] heap = new long[16]; // Cells being settled by a repair, nearest first, distance in the high half.
+	private int heapSize = 0; // Number of entries in the heap.
+
+	// Returns the number of moves from a cell to the nearest goal it can reach, or UNREACHABLE.
+	int get(BoardStorage storage, int index) {
+		long version = appliedVersion;
+		if (version == storage.getElementVersion() && this.storage == storage) {
+			int distance = distances[index];
+			VarHandle.acquireFence(); // The distance is read before the version is checked again.
+			if (appliedVersion == version) return Math.max(distance, UNREACHABLE);
+		}
+		lock.lock();
+		try {
+			update(storage);
+			return Math.max(distances[index], UNREACHABLE);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// Brings the field up to date with the storage. Called under the lock.
+	private void update(BoardStorage storage) {
+		if (appliedVersion == storage.getElementVersion() && this.storage == storage) return;
+		appliedVersion = CHANGING;
+		VarHandle.releaseFence(); // Readers see the version change before any distance does.
+		changeCount = 0;
+		long version = storage.drainElementChanges(logReader);
+		boolean isOverflowed = changeCount > 0 && changes[0] == BoardStorage.ELEMENT_LOG_OVERFLOW;
+		if (this.storage != storage || isOverflowed || isCheaperToCompute(storage)) {
+			this.storage = storage;
+			compute();
+		} else {
+			for (int i = 0; i < changeCount; i++) {
+				int index = changes[i];
+				byte type = storage.getElementType(index);
+				if (type == BoardStorage.ELEMENT_OBSTACLE && distances[index] != BLOCKED) {
+					block(index);
+				} else if (type == BoardStorage.ELEMENT_GOAL && distances[index] != 0) {
+					distances[index] = 0;
+					spread(index);
+				} else if (type == BoardStorage.ELEMENT_NONE && distances[index] == 0) {
+					block(index); // The goal left: its cell loses its distance like a blocked one, then takes another.
+					free(index);
+				} else if (type == BoardStorage.ELEMENT_NONE && distances[index] == BLOCKED) {
+					free(index);
+				}
+			}
+		}
+		appliedVersion = version;
+	}
+
+	// Checks if the drained changes take away a quarter of the goals or more. Every cell that was nearest to a goal
+	// taken away is settled again through the heap, a few times the cost of a search per cell, so a full search
+	// is cheaper then, as with a single goal moving.
+	private boolean isCheaperToCompute(BoardStorage storage) {
+		int removedGoals = 0;
+		for (int i = 0; i < changeCount; i++) {
+			int index = changes[i];
+			if (distances[index] == 0 && storage.getElementType(index) != BoardStorage.ELEMENT_GOAL) removedGoals++;
+		}
+		return removedGoals > 0 && removedGoals * 4 >= storage.goalCount();
+	}
+
+	// Appends a cell drained from the element log.
+	private void addChange(int index) {
+		if (changeCount == changes.length) changes = Arrays.copyOf(changes, changeCount * 2);
+		changes[changeCount++] = index;
+	}
+
+	// Searches the whole board breadth first from every goal, never entering a cell holding an obstacle.
+	private void compute() {
+		int size = storage.size();
+		if (distances.length != size) {
+			distances = new int[size];
+			queue = new int[size];
+			marks = new int[size];
+			repair = 0;
+		}
+		int goals = 0;
+		for (int index = 0; index < size; index++) {
+			byte type = storage.getElementType(index);
+			distances[index] = type == BoardStorage.ELEMENT_OBSTACLE ? BLOCKED : type == BoardStorage.ELEMENT_GOAL ? 0 : UNREACHABLE;
+			if (type == BoardStorage.ELEMENT_GOAL) queue[goals++] = index;
+		}
+		spreadQueued(goals);
+	}
+
+	// Spreads the distance of a cell to the cells it shortens the path of, breadth first.
+	private void spread(int start) {
+		queue[0] = start;
+		spreadQueued(1);
+	}
+
+	// Spreads the distances of the given number of cells at the start of the queue, all at the same distance, to
+	// the cells they shorten the path of, breadth first.
+	private void spreadQueued(int starts) {
+		int rows = storage.getRows();
+		int size = distances.length;
+		int head = 0;
+		int tail = starts;
+		while (head < tail) {
+			int index = queue[head++];
+			int next = distances[index] + 1;
+			int y = index % rows;
+			if (index >= rows && shortens(index - rows, next)) queue[tail++] = index - rows;
+			if (index + rows < size && shortens(index + rows, next)) queue[tail++] = index + rows;
+			if (y > 0 && shortens(index - 1, next)) queue[tail++] = index - 1;
+			if (y < rows - 1 && shortens(index + 1, next)) queue[tail++] = index + 1;
+		}
+	}
+
+	// Gives a cell the given distance if it is open and farther, returning whether it did.
+	private boolean shortens(int index, int distance) {
+		int current = distances[index];
+		if (current == BLOCKED || (current != UNREACHABLE && current <= distance)) return false;
+		distances[index] = distance;
+		return true;
+	}
+
+	// Opens a cell whose obstacle left: it takes the distance of its nearest neighbor and spreads it.
+	private void free(int index) {
+		distances[index] = UNREACHABLE;
+		int nearest = nearestNeighbor(index);
+		if (nearest == UNREACHABLE) return; // Walled off from every goal, like its neighbors.
+		distances[index] = nearest + 1;
+		spread(index);
+	}
+
+	// Closes a cell an obstacle moved onto. The cells that depended on it are found in order of distance: a cell
+	// depends on it when no neighbor one move closer to a goal kept its distance. They are then settled again
+	// from the cells around them, nearest first.
+	private void block(int index) {
+		int old = distances[index];
+		distances[index] = BLOCKED;
+		if (old == UNREACHABLE) return; // No path went through it.
+		if (++repair == Integer.MAX_VALUE) {
+			Arrays.fill(marks, 0);
+			repair = 1;
+		}
+		int head = 0;
+		int tail = enqueueNeighbors(index, old + 1, 0);
+		int lost = 0; // Cells that lost their distance, moved to the start of the queue as they are found.
+		while (head < tail) {
+			int cell = queue[head++];
+			if (hasCloserNeighbor(cell)) continue;
+			marks[cell] = -repair;
+			queue[lost++] = cell; // Behind head, so never overwriting a cell still to be checked.
+			tail = enqueueNeighbors(cell, distances[cell] + 1, tail);
+		}
+		for (int i = 0; i < lost; i++) {
+			distances[queue[i]] = UNREACHABLE;
+		}
+		heapSize = 0;
+		for (int i = 0; i < lost; i++) {
+			int cell = queue[i];
+			int nearest = nearestNeighbor(cell);
+			if (nearest != UNREACHABLE) {
+				distances[cell] = nearest + 1;
+				push(nearest + 1, cell);
+			}
+		}
+		int rows = storage.getRows();
+		while (heapSize > 0) {
+			long entry = pop();
+			int distance = (int) (entry >>> 32);
+			int cell = (int) entry;
+			if (distances[cell] != distance) continue; // Settled nearer since it was pushed.
+			int y = cell % rows;
+			if (cell >= rows) settle(cell - rows, distance + 1);
+			if (cell + rows < distances.length) settle(cell + rows, distance + 1);
+			if (y > 0) settle(cell - 1, distance + 1);
+			if (y < rows - 1) settle(cell + 1, distance + 1);
+		}
+	}
+
+	// Returns the smallest distance among the neighbors of a cell, or UNREACHABLE if none has one.
+	private int nearestNeighbor(int index) {
+		int rows = storage.getRows();
+		int y = index % rows;
+		int nearest = UNREACHABLE;
+		if (index >= rows) nearest = nearer(nearest, distances[index - rows]);
+		if (index + rows < distances.length) nearest = nearer(nearest, distances[index + rows]);
+		if (y > 0) nearest = nearer(nearest, distances[index - 1]);
+		if (y < rows - 1) nearest = nearer(nearest, distances[index + 1]);
+		return nearest;
+	}
+
+	// Returns the smaller of a nearest distance and a neighbor's one, ignoring cells without distance.
+	private static int nearer(int nearest, int distance) {
+		return distance >= 0 && (nearest == UNREACHABLE || distance < nearest) ? distance : nearest;
+	}
+
+	// Queues the neighbors of a cell at the given distance, once per repair, and returns the new end of the queue.
+	private int enqueueNeighbors(int index, int distance, int tail) {
+		int rows = storage.getRows();
+		int y = index % rows;
+		if (index >= rows) tail = enqueue(index - rows, distance, tail);
+		if (index + rows < distances.length) tail = enqueue(index + rows, distance, tail);
+		if (y > 0) tail = enqueue(index - 1, distance, tail);
+		if (y < rows - 1) tail = enqueue(index + 1, distance, tail);
+		return tail;
+	}
+
+	// Queues a cell at the given distance not queued yet by this repair.
+	private int enqueue(int index, int distance, int tail) {
+		if (distances[index] != distance || Math.abs(marks[index]) == repair) return tail;
+		marks[index] = repair;
+		queue[tail] = index;
+		return tail + 1;
+	}
+
+	// Checks if a neighbor one move closer to a goal kept its distance in the current repair.
+	private boolean hasCloserNeighbor(int index) {
+		int rows = storage.getRows();
+		int closer = distances[index] - 1;
+		int y = index % rows;
+		return (index >= rows && isKept(index - rows, closer))
+				|| (index + rows < distances.length && isKept(index + rows, closer))
+				|| (y > 0 && isKept(index - 1, closer))
+				|| (y < rows - 1 && isKept(index + 1, closer));
+	}
+
+	// Checks if a cell has the given distance and did not lose it in the current repair.
+	private boolean isKept(int index, int distance) {
+		return distances[index] == distance && marks[index] != -repair;
+	}
+
+	// Lowers the distance of a cell that lost it in the current repair, queueing it to settle its neighbors.
+	private void settle(int index, int distance) {
+		if (marks[index] != -repair) return; // Kept its distance, which closing a cell cannot shorten.
+		int current = distances[index];
+		if (current != UNREACHABLE && current <= distance) return;
+		distances[index] = distance;
+		push(distance, index);
+	}
+
+	// Adds a cell to the heap.
+	private void push(int distance, int index) {
+		if (heapSize == heap.length) heap = Arrays.copyOf(heap, heapSize * 2);
+		long entry = ((long) distance << 32) | index;
+		int slot = heapSize++;
+		while (slot > 0 && heap[(slot - 1) / 2] > entry) {
+			heap[slot] = heap[(slot - 1) / 2];
+			slot = (slot - 1) / 2;
+		}
+		heap[slot] = entry;
+	}
+
+	// Removes and returns the nearest entry of the heap.
+	private long pop() {
+		long first = heap[0];
+		long last = heap[--heapSize];
+		int slot = 0;
+		while (2 * slot + 1 < heapSize) {
+			int child = 2 * slot + 1;
+			if (child + 1 < heapSize && heap[child + 1] < heap[child]) child++;
+			if (heap[child] >= last) break;
+			heap[slot] = heap[child];
+			slot = child;
+		}
+		heap[slot] = last;
+		return first;
+	}
+}
@@ -0,0 +1,164 @@
+package environment;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/** Index of the goals on a board, kept in a grid of square buckets, so that the goal nearest to a cell is found by
+ * looking at the buckets around it, ring by ring, and stopping as soon as no farther ring can hold a nearer goal.
+ * The buckets are sized for about one goal each and rebuilt when the number of goals doubles or drops to a
+ * quarter, so a query looks at a few buckets whatever the number of goals, and rebuilds take constant time per
+ * change on average. The storage calls sync() after every goal placed or removed, and the index then follows
+ * the state the cell has at that moment: a goal moving only leaves its old bucket and joins its new one. Goals
+ * change rarely, so unlike the free cell index it is kept up to date under its lock on every change.
+ */
+class GoalIndex {
+	private static final int ABSENT = -1; // Slot of a cell without goal.
+	private final int columns; // Number of columns of the board.
+	private final int rows; // Number of rows of the board.
+	private final int[] slots; // Slot of each cell in goals, ABSENT if the cell holds no goal.
+	private int[] goals = new int[4]; // Cells holding a goal, in slots 0 to count - 1.
+	private int count = 0; // Number of goals.
+	private int bucketSize; // Side of a bucket, in cells.
+	private int bucketColumns; // Number of buckets across the board.
+	private int bucketRows; // Number of buckets down the board.
+	private int[][] buckets; // Cells holding a goal in each bucket, x * bucketRows + y, in slots 0 to its count - 1.
+	private int[] bucketCounts; // Number of goals in each bucket.
+	private int sizedFor; // Number of goals the buckets were sized for.
+	private final Lock lock = new ReentrantLock(); // Guards the lists, changed by every thread capturing a goal.
+
+	// Creates the index of a board without goals.
+	GoalIndex(int columns, int rows) {
+		this.columns = columns;
+		this.rows = rows;
+		slots = new int[columns * rows];
+		Arrays.fill(slots, ABSENT);
+		resize(1);
+	}
+
+	// Adds or removes a cell according to whether it holds a goal now. Called after every goal placed or removed;
+	// the state is read under the lock, so the last sync of a cell sees its latest state.
+	void sync(int index, BoardStorage storage) {
+		lock.lock();
+		try {
+			boolean isGoal = storage.getElementType(index) == BoardStorage.ELEMENT_GOAL;
+			if (isGoal && slots[index] == ABSENT) {
+				add(index);
+			} else if (!isGoal && slots[index] != ABSENT) {
+				remove(index);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// Returns the cell of the goal fewest moves away from the given cell, going through anything, or -1 if there
+	// is no goal.
+	int nearest(int index) {
+		lock.lock();
+		try {
+			if (count == 0) return -1;
+			int x = index / rows;
+			int y = index % rows;
+			int bucketX = x / bucketSize;
+			int bucketY = y / bucketSize;
+			int rings = Math.max(Math.max(bucketX, bucketColumns - 1 - bucketX), Math.max(bucketY, bucketRows - 1 - bucketY));
+			int nearest = -1;
+			int nearestDistance = Integer.MAX_VALUE;
+			for (int ring = 0; ring <= rings; ring++) {
+				// Every cell of a bucket ring buckets away is at least (ring - 1) * bucketSize + 1 moves away.
+				if (ring > 0 && (ring - 1) * bucketSize + 1 > nearestDistance) break;
+				for (int i = -ring; i <= ring; i++) {
+					// Top and bottom rows of the ring, then its sides without their corners.
+					for (int j = -ring; j <= ring; j += (i == -ring || i == ring) ? 1 : 2 * Math.max(ring, 1)) {
+						int column = bucketX + i;
+						int row = bucketY + j;
+						if (column < 0 || column >= bucketColumns || row < 0 || row >= bucketRows) continue;
+						int bucket = column * bucketRows + row;
+						for (int slot = 0; slot < bucketCounts[bucket]; slot++) {
+							int goal = buckets[bucket][slot];
+							int distance = Math.abs(goal / rows - x) + Math.abs(goal % rows - y);
+							if (distance < nearestDistance || (distance == nearestDistance && goal < nearest)) {
+								nearest = goal;
+								nearestDistance = distance;
+							}
+						}
+					}
+				}
+			}
+			return nearest;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// Returns the number of goals.
+	int count() {
+		lock.lock();
+		try {
+			return count;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// Appends a goal to the list and to its bucket, sizing the buckets again when the goals doubled.
+	private void add(int index) {
+		if (count == goals.length) goals = Arrays.copyOf(goals, count * 2);
+		goals[count] = index;
+		slots[index] = count++;
+		if (count > 2 * sizedFor) {
+			resize(count);
+		} else {
+			addToBucket(index);
+		}
+	}
+
+	// Removes a goal from the list, moving the last goal into its slot, and from its bucket, sizing the buckets
+	// again when the goals dropped to a quarter.
+	private void remove(int index) {
+		int last = goals[--count];
+		goals[slots[index]] = last;
+		slots[last] = slots[index];
+		slots[index] = ABSENT;
+		int bucket = getBucket(index);
+		int[] bucketGoals = buckets[bucket];
+		for (int slot = 0; slot < bucketCounts[bucket]; slot++) {
+			if (bucketGoals[slot] == index) {
+				bucketGoals[slot] = bucketGoals[--bucketCounts[bucket]];
+				break;
+			}
+		}
+		if (count < sizedFor / 4) resize(Math.max(count, 1));
+	}
+
+	// Splits the board into about as many buckets as the given number of goals and puts every goal in its bucket.
+	private void resize(int goalCount) {
+		sizedFor = goalCount;
+		bucketSize = Math.max(1, (int) Math.ceil(Math.sqrt((double) columns * rows / goalCount)));
+		bucketColumns = (columns + bucketSize - 1) / bucketSize;
+		bucketRows = (rows + bucketSize - 1) / bucketSize;
+		buckets = new int[bucketColumns * bucketRows][];
+		bucketCounts = new int[bucketColumns * bucketRows];
+		for (int slot = 0; slot < count; slot++) {
+			addToBucket(goals[slot]);
+		}
+	}
+
+	// Appends a goal to the list of its bucket.
+	private void addToBucket(int index) {
+		int bucket = getBucket(index);
+		int[] bucketGoals = buckets[bucket];
+		if (bucketGoals == null) {
+			bucketGoals = buckets[bucket] = new int[2];
+		} else if (bucketCounts[bucket] == bucketGoals.length) {
+			bucketGoals = buckets[bucket] = Arrays.copyOf(bucketGoals, bucketGoals.length * 2);
+		}
+		bucketGoals[bucketCounts[bucket]++] = index;
+	}
+
+	// Returns the bucket holding a cell.
+	private int getBucket(int index) {
+		return index / rows / bucketSize * bucketRows + index % rows / bucketSize;
+	}
+}
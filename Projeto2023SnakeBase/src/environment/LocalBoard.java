@@ -2,6 +2,8 @@ package environment;
 
 import game.*;
 
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -16,25 +18,80 @@ public class LocalBoard extends Board {
 	private static final int NUM_SNAKES = 2; // Number of snakes in the game.
 	private static final int NUM_OBSTACLES = 25; // Number of obstacles on the board.
 	public static final int NUM_SIMULTANEOUS_MOVING_OBSTACLES = 3; // Number of obstacles that can move simultaneously.
-	private transient final ExecutorService obstacleMoverThreadPool; // ExecutorService to manage ObstacleMover threads.
+	private transient final ExecutorService obstacleMoverThreadPool; // ExecutorService to manage ObstacleMover threads, null with a timing wheel.
 	private GameState gameState; // Current state of the game, including all game elements.
+	private final TickEngine tickEngine; // Engine moving every snake and obstacle on a single thread, null to use a thread each.
+	private final TimingWheel timingWheel; // Wheel running the steps of every snake and obstacle on a small pool, null to use a thread each.
+	private final Queue<ObstacleMover> waitingObstacleMovers = new ConcurrentLinkedQueue<>(); // Movers not yet on the timing wheel.
+	private BoardSnapshot deltaSnapshot; // Snapshot the previous delta led to, null before the first delta.
 
 	public LocalBoard() {
-		// Initialize the thread pool with the fixed number of threads for moving obstacles.
-		obstacleMoverThreadPool = Executors.newFixedThreadPool(NUM_SIMULTANEOUS_MOVING_OBSTACLES);
+		this(System.nanoTime(), false);
+	}
+
+	// Creates a board whose random choices all come from the given seed. A tick-driven board is advanced by a
+	// single tick engine instead of a thread per snake and a pool of obstacle movers.
+	public LocalBoard(long seed, boolean isTickDriven) {
+		this(NUMBER_COLUMNS, NUMBER_ROWS, seed, isTickDriven);
+	}
+
+	// Creates a board of the given size.
+	public LocalBoard(int columns, int rows, long seed, boolean isTickDriven) {
+		this(columns, rows, seed, isTickDriven, 1);
+	}
+
+	// Creates a board whose tick engine splits it into the given number of regions, whose snakes are moved in
+	// parallel. Ignored unless the board is tick-driven.
+	public LocalBoard(int columns, int rows, long seed, boolean isTickDriven, int regions) {
+		this(columns, rows, seed, isTickDriven, regions, 1);
+	}
+
+	// Creates a board with the given number of goals on it at once. Each goal moves when captured and leaves the
+	// board once it reaches its maximum value; the game ends when the last one leaves.
+	public LocalBoard(int columns, int rows, long seed, boolean isTickDriven, int regions, int goals) {
+		super(columns, rows, seed);
+		tickEngine = isTickDriven ? new TickEngine(this, regions) : null;
+		// In the scheduled execution mode snakes and obstacles run as steps of a timing wheel instead of threads.
+		timingWheel = !isTickDriven && ExecutionMode.current() == ExecutionMode.SCHEDULED
+				? new TimingWheel(Runtime.getRuntime().availableProcessors()) : null;
+		// Initialize the thread pool with the fixed number of threads for moving obstacles, of the current execution mode.
+		obstacleMoverThreadPool = timingWheel != null ? null : Executors.newFixedThreadPool(NUM_SIMULTANEOUS_MOVING_OBSTACLES,
+				ExecutionMode.current().threadFactory("Obstacle mover"));
 		// Initialize snakes and obstacles on the board.
 		for (int i = 0; i < NUM_SNAKES; i++) {
 			AutomaticSnake snake = new AutomaticSnake(i, this);
 			snakes.add(snake);
 		}
 		addObstacles(NUM_OBSTACLES); // Add obstacles to the board.
-		Goal goal = addGoal(); // Add a goal to the board.
+		for (int i = 0; i < goals; i++) {
+			addGoal(); // Add the goals to the board.
+		}
 		System.out.println("All game elements placed.");
 	}
 
 	// Initializes the game by starting all snake threads and scheduling obstacle movers.
 	public void init() {
-		gameState = new GameState(cells, snakes, isFinished); // Initialize the game state.
+		gameState = new GameState(this, snakes, isFinished); // Initialize the game state.
+		if (tickEngine != null) {
+			for (Snake snake : snakes) {
+				snake.start(); // Only marks the snake as tick-driven.
+			}
+			tickEngine.start();
+			return;
+		}
+		if (timingWheel != null) {
+			timingWheel.start();
+			for (Snake snake : snakes) {
+				snake.start(); // Places the snake and schedules its steps.
+			}
+			for (Obstacle obstacle : getObstacles()) {
+				waitingObstacleMovers.add(new ObstacleMover(obstacle, this));
+			}
+			for (int i = 0; i < NUM_SIMULTANEOUS_MOVING_OBSTACLES; i++) {
+				startNextObstacleMover();
+			}
+			return;
+		}
 		for(Snake snake: snakes) {
 			snake.start();
 		}
@@ -45,10 +102,18 @@ public class LocalBoard extends Board {
 		}
 	}
 
-	@Override
-	public void setChanged() {
-		super.setChanged();
-		gameState.update(cells, snakes, isFinished);
+	// Schedules the moves of the next waiting obstacle on the timing wheel, once every move interval, after the
+	// delay for the remote players to connect if no snake moved yet. As with the pool of movers, only a few
+	// obstacles move at once: the next one starts when an obstacle runs out of moves.
+	private void startNextObstacleMover() {
+		ObstacleMover obstacleMover = waitingObstacleMovers.poll();
+		if (obstacleMover == null || isFinished) return;
+		long delay = areAllSnakesIdle() ? REMOTE_CONNECTION_SETUP_DELAY : 0;
+		timingWheel.schedule(() -> {
+			if (obstacleMover.step()) return true;
+			startNextObstacleMover();
+			return false;
+		}, delay + Obstacle.OBSTACLE_MOVE_INTERVAL, Obstacle.OBSTACLE_MOVE_INTERVAL);
 	}
 
 	// Marks the game as finished, triggering a graceful shutdown process. This method should be called when the game is to be concluded.
@@ -60,13 +125,21 @@ public class LocalBoard extends Board {
 				snake.interrupt(); // Stop all snakes.
 			}
 		}
-		shutdownNow(); // Stop all obstacle movers.
-		gameState.update(cells, snakes, isFinished);
+		if (timingWheel != null) {
+			timingWheel.shutdown(); // Cancel the steps of every snake and obstacle.
+			System.out.println(timingWheel.getStatistics());
+		} else {
+			shutdownNow(); // Stop all obstacle movers.
+		}
+		System.out.println(getBlockingStatistics());
+		if (tickEngine != null) updateSnapshot(); // The finished game, for the readers of the tick engine's snapshots.
+		publish(BoardEvents.GAME_OVER);
 	}
 
 	// Shuts down the thread pool immediately and interrupts all running tasks.
 	// This method should be called to ensure all obstacle movers stop when the game ends.
 	public void shutdownNow() {
+		if (obstacleMoverThreadPool == null) return;
 		obstacleMoverThreadPool.shutdownNow();
 		try {
 			if (!obstacleMoverThreadPool.awaitTermination(800, TimeUnit.MILLISECONDS)) {
@@ -79,14 +152,57 @@ public class LocalBoard extends Board {
 
 	// Initiate an orderly shutdown by preventing submission of new tasks, but allowing existing tasks to complete.
 	public void shutdown() {
-		obstacleMoverThreadPool.shutdown();
+		if (obstacleMoverThreadPool != null) obstacleMoverThreadPool.shutdown();
+	}
+
+	// Returns the engine advancing this board, or null if every snake and obstacle runs on its own thread.
+	public TickEngine getTickEngine() {
+		return tickEngine;
+	}
+
+	// Builds a snapshot of the board for a reader that was told of changes, unless the tick engine builds one
+	// after each tick, whose latest is then up to date and consistent across snakes.
+	public BoardSnapshot refreshSnapshot() {
+		return tickEngine != null ? getSnapshot() : updateSnapshot();
+	}
+
+	// Returns the wheel running the steps of this board, or null if its snakes and obstacles run otherwise.
+	public TimingWheel getTimingWheel() {
+		return timingWheel;
 	}
 
-	// Returns the current game state.
+	// Removes a snake whose player left and frees its cells. On a tick-driven board the engine does it before
+	// its next tick, and with a timing wheel the snake does it on its next step, so that its cells are only ever
+	// changed by the thread moving it.
+	public void releaseSnake(Snake snake) {
+		if (tickEngine != null) {
+			tickEngine.removeSnake(snake);
+			return;
+		}
+		if (timingWheel != null) {
+			snake.leave();
+			return;
+		}
+		removeSnake(snake); // Remove the snake from the board.
+		snake.releaseCells(); // Release the cells occupied by the snake.
+		forgetSnake(snake);
+	}
+
+	// Returns the current game state, as of the latest snapshot of the board, brought up to date when asked for
+	// rather than on every move.
 	public GameState getGameState() {
+		if (gameState != null) gameState.update(snakes, getSnapshot());
 		return gameState;
 	}
 
+	// Builds a delta with the cells and snakes changed between the snapshot of the previous call and the given
+	// one, which the next call then starts from. Only called by the thread broadcasting the game.
+	public GameStateDelta createDelta(long sequence, BoardSnapshot snapshot) {
+		GameStateDelta delta = new GameStateDelta(sequence, deltaSnapshot, snapshot);
+		deltaSnapshot = snapshot;
+		return delta;
+	}
+
 	// Checks if all automatic snakes on the board are idle.
 	public boolean areAllSnakesIdle() {
 		for (Snake snake : getSnakes()) {
@@ -7,7 +7,6 @@ import environment.LocalBoard;
 
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Random;
 
 public class AutomaticSnake extends Snake {
 	private Boolean isInterruptedByUser = false; // Flag to determine if the snake's direction was manually set.
@@ -20,7 +19,7 @@ public class AutomaticSnake extends Snake {
 	@Override
 	public void run() {
 		doInitialPositioning(); // Determine the initial position of the snake on the board.
-		System.out.println("initial size:" + cells.size());
+		System.out.println("initial size:" + body.getLength());
 		// TODO: automatic movement.
 		System.out.println(Thread.currentThread().getName() + ": Started.");
 
@@ -86,18 +85,45 @@ public class AutomaticSnake extends Snake {
 		System.out.println(Thread.currentThread().getName() + ": Exiting run method.");
 	}
 
-	// Chooses the neighboring position that is closest to the goal.
+	// Takes a random free neighbor on the next move, as after an interruption, to get out of the way.
+	@Override
+	protected void onDeadlock() {
+		isInterruptedByUser = true;
+	}
+
+	// Chooses the cell to move to on the next tick: towards the nearest reachable goal, or a random free neighbor
+	// after an interruption. Returns null while the snake is trapped.
+	@Override
+	protected Cell getTickTarget() {
+		if (isTrapped()) return null;
+		BoardPosition nextPosition = takeInterruptRequest() ? getRandomPosition() : getNextPositionTowardsGoal();
+		return getBoard().getCell(nextPosition);
+	}
+
+	// Chooses the neighboring position with the fewest moves to the nearest reachable goal around the obstacles,
+	// from the distance field the board shares between the snakes. Falls back to the closest one in a straight
+	// line to the nearest goal when every goal is walled off from every neighbor.
 	private BoardPosition getNextPositionTowardsGoal() {
 		List<BoardPosition> neighboringPositions = getBoard().getNeighboringPositions(getHead());
 		BoardPosition nextPosition =  getHead().getPosition();
+		int minimumMovesToGoal = Integer.MAX_VALUE;
 		double minimumDistanceToGoal = Double.MAX_VALUE;
+		BoardPosition nearestGoal = null; // Looked up only when falling back.
 
 		for (BoardPosition neighbor : neighboringPositions) {
 			if (!isPositionOccupiedBySnake(neighbor)) {
-				double distance = neighbor.distanceTo(getBoard().getGoalPosition());
-				if (distance < minimumDistanceToGoal) {
-					minimumDistanceToGoal = distance;
+				int moves = getBoard().getGoalDistance(neighbor);
+				if (moves >= 0 && moves < minimumMovesToGoal) {
+					minimumMovesToGoal = moves;
 					nextPosition = neighbor;
+				} else if (minimumMovesToGoal == Integer.MAX_VALUE) {
+					if (nearestGoal == null) nearestGoal = getBoard().getNearestGoal(getHead().getPosition());
+					if (nearestGoal == null) continue; // No goal at all.
+					double distance = neighbor.distanceTo(nearestGoal);
+					if (distance < minimumDistanceToGoal) {
+						minimumDistanceToGoal = distance;
+						nextPosition = neighbor;
+					}
 				}
 			}
 		}
@@ -112,7 +138,7 @@ public class AutomaticSnake extends Snake {
 		if (neighboringPositions.isEmpty()) {
 			return getHead().getPosition();
 		}
-		return neighboringPositions.get(new Random().nextInt(neighboringPositions.size()));
+		return neighboringPositions.get(getRandom().nextInt(neighboringPositions.size()));
 	}
 
 	// Check if all neighboring positions are occupied by the snake or an immovable obstacle.
@@ -128,8 +154,8 @@ public class AutomaticSnake extends Snake {
 		return true;
 	}
 
-	// Checks if the given position is currently occupied by a segment of the snake.
+	// Checks if the given position is currently occupied by a segment of the snake, in constant time.
 	private boolean isPositionOccupiedBySnake(BoardPosition position) {
-		return getPath().contains(position);
+		return body.contains(position.x * getBoard().getRows() + position.y);
 	}
 }
\ No newline at end of file
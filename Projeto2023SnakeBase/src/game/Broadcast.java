@@ -0,0 +1,92 @@
+package game;
+
+import environment.Board;
+import environment.BoardSnapshot;
+import environment.GameState;
+import environment.LocalBoard;
+import remote.FrameEncoder;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Game state of one refresh interval. Each frame type is encoded at most once, into a read-only direct
+ * buffer that every connection writes through its own view, so the encoding cost does not depend on
+ * the number of connected clients. A keyframe every client gets is encoded by the broadcast thread when
+ * the broadcast is built; one only some clients need is encoded by the first of them to ask, outside any
+ * send queue lock.
+ */
+class Broadcast {
+    private final long sequence; // Sequence number of this broadcast.
+    private final GameState gameState; // Game state the keyframe is encoded from.
+    private final ByteBuffer delta; // Encoded changes since the previous broadcast, null when not in delta mode.
+    private final boolean isKeyframe; // Whether every client gets the full game state.
+    private volatile ByteBuffer keyframe; // Encoded full game state, built the first time a connection needs it.
+    private final Lock keyframeLock = new ReentrantLock(); // Makes a single connection encode the keyframe.
+
+    private Broadcast(long sequence, GameState gameState, ByteBuffer delta, boolean isKeyframe) {
+        this.sequence = sequence;
+        this.gameState = gameState;
+        this.delta = delta;
+        this.isKeyframe = isKeyframe;
+    }
+
+    // Builds the broadcast of one refresh interval. The delta is encoded right away, and so is the keyframe if
+    // every client gets it; otherwise it is encoded on first use. Only called by the broadcast thread, the only
+    // user of both encoders.
+    public static Broadcast create(LocalBoard board, long sequence, boolean isDeltaBroadcast,
+                                   FrameEncoder deltaEncoder, FrameEncoder keyframeEncoder) {
+        // The delta and the keyframe are both taken from this snapshot, built after a whole tick on a tick-driven
+        // board, so that a client applying either gets the same state.
+        BoardSnapshot snapshot = board.refreshSnapshot();
+        ByteBuffer delta = null;
+        if (isDeltaBroadcast) {
+            delta = share(deltaEncoder.encode(board.createDelta(sequence, snapshot)));
+        }
+        GameState gameState = new GameState(board, board.getSnakes(), snapshot, sequence);
+        Broadcast broadcast = new Broadcast(sequence, gameState, delta, delta == null || sequence % Board.KEYFRAME_INTERVAL == 0);
+        if (broadcast.isKeyframe) {
+            broadcast.keyframe = share(keyframeEncoder.encode(gameState));
+        }
+        return broadcast;
+    }
+
+    // Returns the sequence number of this broadcast.
+    public long getSequence() {
+        return sequence;
+    }
+
+    // Checks if a connection gets the full game state from this broadcast.
+    public boolean sendsKeyframe(boolean needsKeyframe) {
+        return isKeyframe || needsKeyframe;
+    }
+
+    // Returns a view of the frame a connection should get. Views share the encoded bytes but have their own position.
+    public ByteBuffer frameFor(boolean needsKeyframe) {
+        return sendsKeyframe(needsKeyframe) ? getKeyframe().duplicate() : delta.duplicate();
+    }
+
+    // Encodes the keyframe the first time it is needed, with an encoder of its own: the connections asking for
+    // it run on other threads than the broadcast thread.
+    private ByteBuffer getKeyframe() {
+        ByteBuffer keyframe = this.keyframe;
+        if (keyframe != null) return keyframe;
+        keyframeLock.lock();
+        try {
+            if (this.keyframe == null) {
+                this.keyframe = share(new FrameEncoder().encode(gameState));
+            }
+            return this.keyframe;
+        } finally {
+            keyframeLock.unlock();
+        }
+    }
+
+    // Copies an encoded frame into a read-only direct buffer, so that socket writes need no further copies.
+    private static ByteBuffer share(ByteBuffer frame) {
+        ByteBuffer direct = ByteBuffer.allocateDirect(frame.remaining());
+        direct.put(frame).flip();
+        return direct.asReadOnlyBuffer();
+    }
+}
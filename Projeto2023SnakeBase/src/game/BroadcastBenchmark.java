@@ -0,0 +1,144 @@
+package game;
+
+import environment.LocalBoard;
+import remote.Protocol;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Benchmark of the broadcast fan-out against the number of connected clients. Starts a server on a board of
+ * its own in this process, connects more and more clients that only read their frames, and for each number of
+ * clients measures the CPU time of the broadcast thread, which encodes each broadcast once and queues it for
+ * every connection. The snakes and obstacles are not started, so the game cannot end during the sweep; every
+ * broadcast still encodes the whole board. The server's log is discarded while the benchmark runs.
+ *
+ * Options: --clients=1,10,50,100,200 --size=200x200 --duration=10 (seconds per step) --delta
+ */
+public class BroadcastBenchmark {
+    private static final long SETTLE_TIME = 2000; // Time in milliseconds new clients get to receive their first frames.
+    private final LocalBoard board; // Board of the server, never started.
+    private final Server server; // Server whose broadcast thread is measured.
+    private final int duration; // Seconds each number of clients is measured for.
+    private final PrintStream out; // Standard output, the server's log being discarded.
+    private final List<Socket> sockets = new ArrayList<>(); // Connections opened so far.
+    private final AtomicLong firstClientFrames = new AtomicLong(); // Game states received by the first client.
+    private final AtomicLong bytes = new AtomicLong(); // Bytes received by all clients.
+
+    public BroadcastBenchmark(int columns, int rows, boolean isDeltaBroadcast, int duration) {
+        out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        board = new LocalBoard(columns, rows, 1, false);
+        server = new Server(board, isDeltaBroadcast);
+        this.duration = duration;
+    }
+
+    // Starts the server, then measures the broadcast thread for each number of clients in turn.
+    public void run(int[] clientCounts) throws IOException, InterruptedException {
+        Thread serverThread = new Thread(server::runServer, "Benchmark server");
+        serverThread.setDaemon(true);
+        serverThread.start();
+        Thread broadcastThread = waitForBroadcastThread();
+        if (broadcastThread == null) {
+            System.err.println("The server did not start broadcasting.");
+            return;
+        }
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        out.println("Broadcast benchmark: " + board.getColumns() + "x" + board.getRows() + " board, " + duration
+                + " s per step, " + Runtime.getRuntime().availableProcessors() + " cores.");
+        for (int clientCount : clientCounts) {
+            while (sockets.size() < clientCount) {
+                connect();
+            }
+            Thread.sleep(SETTLE_TIME);
+            long cpuStart = threads.getThreadCpuTime(broadcastThread.getId());
+            long framesStart = firstClientFrames.get();
+            long bytesStart = bytes.get();
+            Thread.sleep(duration * 1000L);
+            long cpu = threads.getThreadCpuTime(broadcastThread.getId()) - cpuStart;
+            long frames = Math.max(1, firstClientFrames.get() - framesStart);
+            long received = bytes.get() - bytesStart;
+            out.printf("%5d clients: %5d broadcasts, broadcast thread %7.1f us of CPU per broadcast (%5.2f us per client),"
+                    + " %8.1f KB/s sent%n", sockets.size(), frames, cpu / 1000.0 / frames,
+                    cpu / 1000.0 / frames / sockets.size(), received / 1024.0 / duration);
+        }
+    }
+
+    // Returns the broadcast thread of the server once it runs, or null if it did not start in time.
+    private static Thread waitForBroadcastThread() throws InterruptedException {
+        for (int attempt = 0; attempt < 100; attempt++) {
+            for (Thread thread : Thread.getAllStackTraces().keySet()) {
+                if (thread.getName().equals("BroadcastThread")) return thread;
+            }
+            Thread.sleep(50);
+        }
+        return null;
+    }
+
+    // Opens a connection to the server and starts a thread reading its frames.
+    private void connect() throws IOException {
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), Server.PORT);
+        boolean isFirst = sockets.isEmpty();
+        sockets.add(socket);
+        Thread reader = new Thread(() -> readFrames(socket, isFirst), "Benchmark client " + sockets.size());
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    // Reads the frames of a connection until it closes, counting the bytes and, for the first client, the game states.
+    private void readFrames(Socket socket, boolean isFirst) {
+        byte[] header = new byte[Protocol.HEADER_SIZE];
+        byte[] payload = new byte[8192];
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            while (true) {
+                in.readFully(header);
+                int length = ByteBuffer.wrap(header).getInt(Protocol.HEADER_SIZE - 4);
+                for (int left = length; left > 0; left -= payload.length) {
+                    in.readFully(payload, 0, Math.min(left, payload.length));
+                }
+                bytes.addAndGet(Protocol.HEADER_SIZE + length);
+                if (isFirst && (header[3] == Protocol.FRAME_KEYFRAME || header[3] == Protocol.FRAME_DELTA)) {
+                    firstClientFrames.incrementAndGet();
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Benchmark client disconnected: " + e.getMessage() + ".");
+        }
+    }
+
+    // Main method for running the benchmark, see the class comment for the options.
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String size = getOption(args, "--size=", "200x200");
+        String[] clients = getOption(args, "--clients=", "1,10,50,100,200").split(",");
+        int[] clientCounts = new int[clients.length];
+        for (int i = 0; i < clients.length; i++) {
+            clientCounts[i] = Integer.parseInt(clients[i].trim());
+        }
+        new BroadcastBenchmark(Integer.parseInt(size.substring(0, size.indexOf('x'))),
+                Integer.parseInt(size.substring(size.indexOf('x') + 1)), List.of(args).contains("--delta"),
+                Integer.parseInt(getOption(args, "--duration=", "10"))).run(clientCounts);
+        System.exit(0); // The server has no way to stop.
+    }
+
+    // Returns the value of an option given as prefix followed by the value, or the default if it was not given.
+    private static String getOption(String[] args, String prefix, String defaultValue) {
+        for (String arg : args) {
+            if (arg.startsWith(prefix)) {
+                return arg.substring(prefix.length());
+            }
+        }
+        return defaultValue;
+    }
+}
@@ -0,0 +1,83 @@
+package game;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Kind of threads the per-entity loops (snakes, obstacle movers and connection handlers) run on.
+ * Virtual threads are created through reflection, so the project still builds on JDKs without them;
+ * when the running JVM does not support them, platform threads are used instead.
+ */
+public enum ExecutionMode {
+    PLATFORM, // One platform thread per entity.
+    VIRTUAL, // One virtual thread per entity, all sharing a small pool of carrier threads.
+    SCHEDULED; // No thread per snake or obstacle: they run as steps of the board's timing wheel, connection handlers on platform threads.
+
+    private static volatile ExecutionMode current = PLATFORM; // Mode used for the threads created from now on.
+    private static final Method OF_VIRTUAL = findMethod(Thread.class, "ofVirtual"); // Thread.ofVirtual(), if available.
+    private static final Method UNSTARTED = findMethod(findClass("java.lang.Thread$Builder"), "unstarted", Runnable.class);
+
+    // Returns the mode used for the threads created from now on.
+    public static ExecutionMode current() {
+        return current;
+    }
+
+    // Sets the mode used for the threads created from now on. Falls back to platform threads if virtual ones are not supported.
+    public static void set(ExecutionMode mode) {
+        if (mode == VIRTUAL && !isVirtualSupported()) {
+            System.err.println("Virtual threads are not supported by this JVM, using platform threads.");
+            mode = PLATFORM;
+        }
+        current = mode;
+    }
+
+    // Creates an unstarted thread that runs the task. A virtual thread that cannot be created is replaced by a
+    // platform one, as when the mode is set on a JVM without virtual threads.
+    public Thread newThread(Runnable task, String name) {
+        Thread thread = this == VIRTUAL ? newVirtualThread(task) : null;
+        if (thread == null) thread = new Thread(task);
+        thread.setName(name);
+        return thread;
+    }
+
+    // Returns a factory creating threads of this mode, named with the given prefix and a counter.
+    public ThreadFactory threadFactory(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return task -> newThread(task, prefix + " " + counter.getAndIncrement());
+    }
+
+    // Checks if the running JVM can create virtual threads.
+    private static boolean isVirtualSupported() {
+        return newVirtualThread(() -> { }) != null;
+    }
+
+    // Creates an unstarted virtual thread through Thread.ofVirtual().unstarted(task), or returns null if the
+    // running JVM cannot create one.
+    private static Thread newVirtualThread(Runnable task) {
+        if (OF_VIRTUAL == null || UNSTARTED == null) return null;
+        try {
+            return (Thread) UNSTARTED.invoke(OF_VIRTUAL.invoke(null), task);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null; // Thread.ofVirtual() exists but is disabled, as a preview feature not enabled.
+        }
+    }
+
+    // Looks up a public method, returning null if it does not exist in the running JVM.
+    private static Method findMethod(Class<?> type, String name, Class<?>... parameters) {
+        try {
+            return type == null ? null : type.getMethod(name, parameters);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    // Looks up a class, returning null if it does not exist in the running JVM.
+    private static Class<?> findClass(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package game;
+
+/**
+ * Ring of the most recent broadcasts, written once per refresh interval by the broadcast thread and read by
+ * any number of spectators, each following it with its own cursor. Readers never block the writer: a reader
+ * that falls more than a ring behind finds its slot overwritten and has to skip ahead.
+ */
+class FrameRing {
+    public static final int CAPACITY = 64; // Number of broadcasts kept.
+    private final Broadcast[] slots = new Broadcast[CAPACITY]; // Broadcasts indexed by sequence number modulo the capacity.
+    private volatile long head = 0; // Sequence number of the last broadcast written, 0 before the first one.
+
+    // Adds a broadcast, overwriting the oldest one. Only called by the broadcast thread.
+    public void publish(Broadcast broadcast) {
+        slots[(int) (broadcast.getSequence() % CAPACITY)] = broadcast;
+        head = broadcast.getSequence(); // Publishes the slot to the readers.
+    }
+
+    // Returns the sequence number of the last broadcast written.
+    public long getHead() {
+        return head;
+    }
+
+    // Returns the broadcast with the given sequence number, or null if it was overwritten or not written yet.
+    public Broadcast get(long sequence) {
+        if (sequence > head) return null;
+        Broadcast broadcast = slots[(int) (sequence % CAPACITY)];
+        return broadcast != null && broadcast.getSequence() == sequence ? broadcast : null;
+    }
+}
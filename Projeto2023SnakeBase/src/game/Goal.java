@@ -30,6 +30,11 @@ public class Goal extends GameElement  {
 		return value;
 	}
 
+	// Sets the value of the goal. Only for boards mirroring a remote game state.
+	public void setValue(int value) {
+		this.value = value;
+	}
+
 	// Increments the value of the goal by one, up to a maximum value.
 	public void incrementValue() {
 		// TODO
@@ -19,6 +19,9 @@ import java.util.concurrent.locks.ReentrantLock;
 
 public class HumanSnake extends Snake {
     private Direction direction;
+    private Input input; // Latest input received from the client, applied on the next move.
+    private volatile Input appliedInput; // Last input applied, acknowledged to the client by the server.
+    private Input targetInput; // Input leading to the cell chosen for the next tick, applied once the snake gets there.
     private final Lock lock = new ReentrantLock();
     private final Condition newDirectionAvailable = lock.newCondition();
 
@@ -31,11 +34,18 @@ public class HumanSnake extends Snake {
         return direction;
     }
 
-    // Sets the movement direction of the snake.
-    public void setDirection(Direction direction) {
+    // Returns the last input applied to the snake, or null if none has been applied yet.
+    public Input getAppliedInput() {
+        return appliedInput;
+    }
+
+    // Sets the movement direction of the snake from an input received from the client. Inputs received before
+    // the next move replace each other.
+    public void setInput(Input input) {
         lock.lock();
         try {
-            this.direction = direction;
+            this.input = input;
+            this.direction = input.direction;
             newDirectionAvailable.signalAll();
         } finally {
             lock.unlock();
@@ -50,22 +60,74 @@ public class HumanSnake extends Snake {
             while (direction == null) {
                 newDirectionAvailable.await();
             }
-            // Determine the next position based on the current direction.
+            return takeNextCell();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Returns the cell the latest direction leads to without waiting, or null if no direction was received since
+    // the last move. The direction is only consumed once the snake gets there, so a move onto an occupied cell is
+    // tried again on the next tick. Only called by the tick engine and the steps of a timing wheel.
+    @Override
+    protected Cell getTickTarget() {
+        lock.lock();
+        try {
+            if (direction == null) return null;
             BoardPosition nextPosition = getHead().getPosition().directionalPosition(direction);
-            // If the snake is active and the next position is within the board, proceed with the move.
-            if (getBoard().isWithinBounds(nextPosition)) {
-                Cell nextCell = getBoard().getCell(nextPosition);
-                direction = null; // Reset the direction after obtaining the next cell.
-                return nextCell;
-            } else {
+            if (!getBoard().isWithinBounds(nextPosition)) {
+                // The move is dropped without being acknowledged: the client does not predict moves off the board.
+                direction = null;
+                input = null;
+                return null;
+            }
+            targetInput = input;
+            return getBoard().getCell(nextPosition);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Consumes the direction the snake just moved in and marks its input as applied. A direction received since
+    // the cell was chosen stays for the next move.
+    @Override
+    protected void onTickMove() {
+        lock.lock();
+        try {
+            if (input == targetInput) {
                 direction = null;
-                return null; // Return null if the next position is not within the board bounds or if the snake is idle.
+                input = null;
             }
+            markApplied(targetInput);
+            targetInput = null;
         } finally {
             lock.unlock();
         }
     }
 
+    // Consumes the current direction, marking its input as applied, and returns the cell it leads to.
+    // Must be called with the lock held and a direction set.
+    private Cell takeNextCell() {
+        // Determine the next position based on the current direction.
+        BoardPosition nextPosition = getHead().getPosition().directionalPosition(direction);
+        markApplied(input);
+        input = null;
+        direction = null; // Reset the direction after obtaining the next cell.
+        // If the next position is within the board, proceed with the move.
+        if (getBoard().isWithinBounds(nextPosition)) {
+            return getBoard().getCell(nextPosition);
+        }
+        return null; // Return null if the next position is not within the board bounds.
+    }
+
+    // Records an input as the last one applied, for the server to acknowledge. Must be called with the lock held.
+    private void markApplied(Input input) {
+        if (input != null) {
+            input.appliedAt = System.nanoTime();
+            appliedInput = input;
+        }
+    }
+
     // Main execution method for the snake's movement. This method is continuously called during the game's execution.
     @Override
     public void run() {
@@ -94,4 +156,36 @@ public class HumanSnake extends Snake {
 
         System.out.println(Thread.currentThread().getName() + ": Exiting run method.");
     }
-}
\ No newline at end of file
+
+    /** Direction command received from a remote player, see {@link remote.Protocol} for the wire format. */
+    public static class Input {
+        private final Direction direction; // Direction requested by the player.
+        private final int sequence; // Sequence number given by the client.
+        private final long timestamp; // Client clock when the key was pressed, echoed back in the acknowledgement.
+        private final long receivedAt = System.nanoTime(); // Server clock when the input was received.
+        private long appliedAt; // Server clock when the snake applied the input, set before it is published.
+
+        public Input(Direction direction, int sequence, long timestamp) {
+            this.direction = direction;
+            this.sequence = sequence;
+            this.timestamp = timestamp;
+        }
+
+        public Direction getDirection() {
+            return direction;
+        }
+
+        public int getSequence() {
+            return sequence;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        // Returns the time between receiving and applying the input, in microseconds.
+        public int getApplyDelay() {
+            return (int) ((appliedAt - receivedAt) / 1000);
+        }
+    }
+}
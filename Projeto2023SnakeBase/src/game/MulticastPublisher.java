@@ -0,0 +1,60 @@
+package game;
+
+import remote.Protocol;
+
+import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * Publishes every broadcast once to a UDP multicast group, so the cost of sending the game state does not
+ * depend on the number of clients. Frames are split into datagrams, see {@link Protocol}; clients that
+ * detect a loss ask for a full game state over their TCP connection. A unicast address can be used instead
+ * of a group to test on a single machine.
+ */
+class MulticastPublisher {
+    private final DatagramChannel channel; // Channel the datagrams are sent through.
+    private final InetSocketAddress target; // Multicast group, or unicast address, the datagrams are sent to.
+    private final ByteBuffer datagram = ByteBuffer.allocateDirect(Protocol.DATAGRAM_HEADER_SIZE + Protocol.MAX_FRAGMENT_SIZE);
+
+    public MulticastPublisher(InetSocketAddress target) throws IOException {
+        this.target = target;
+        this.channel = DatagramChannel.open(target.getAddress() instanceof Inet6Address
+                ? StandardProtocolFamily.INET6 : StandardProtocolFamily.INET);
+    }
+
+    // Sends the frame every client would get from this broadcast without asking for a full game state.
+    // Only called by the broadcast thread.
+    public void publish(Broadcast broadcast) {
+        ByteBuffer frame = broadcast.frameFor(false);
+        int fragments = Math.max(1, (frame.remaining() + Protocol.MAX_FRAGMENT_SIZE - 1) / Protocol.MAX_FRAGMENT_SIZE);
+        try {
+            for (int index = 0; index < fragments; index++) {
+                ByteBuffer fragment = frame.slice();
+                fragment.limit(Math.min(fragment.remaining(), Protocol.MAX_FRAGMENT_SIZE));
+                frame.position(frame.position() + fragment.remaining());
+                datagram.clear();
+                datagram.putInt((int) broadcast.getSequence());
+                datagram.putShort((short) index);
+                datagram.putShort((short) fragments);
+                datagram.put(fragment);
+                datagram.flip();
+                channel.send(datagram, target);
+            }
+        } catch (IOException e) {
+            System.err.println("Exception on publishing game state " + broadcast.getSequence() + ": " + e.getMessage() + ".");
+        }
+    }
+
+    // Closes the channel.
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Could not close the multicast channel: " + e.getMessage() + ".");
+        }
+    }
+}
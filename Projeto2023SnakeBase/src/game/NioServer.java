@@ -0,0 +1,356 @@
+package game;
+
+import environment.Board;
+import environment.BoardEvents;
+import environment.LocalBoard;
+import remote.FrameEncoder;
+import remote.Protocol;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Non-blocking alternative to {@link Server}. Instead of one thread per client, a small fixed set of
+ * event loops, each owning a {@link Selector}, accepts connections, reads direction input and fans out
+ * the game state to all connected clients. The wire format is the same as the one used by {@link Server}.
+ */
+public class NioServer {
+    public static final int NUM_EVENT_LOOPS = 2; // Number of I/O event-loop threads shared by all clients.
+    private static final int INPUT_BUFFER_SIZE = 32 * Protocol.INPUT_SIZE; // Size of the per-connection buffer for input records.
+    private static final int MAX_GATHERED_FRAMES = 16; // Maximum number of frames written by one gathering write.
+    private final LocalBoard localBoard; // The local board that maintains the game state.
+    private final EventLoop[] eventLoops = new EventLoop[NUM_EVENT_LOOPS]; // Event loops serving the connections.
+    private ServerSocketChannel serverChannel; // Channel listening for incoming connections.
+    private int nextEventLoop = 0; // Round-robin index of the event loop that gets the next connection.
+    private final boolean isDeltaBroadcast; // Whether only the changes since the previous broadcast are sent.
+    private volatile long lagBudget = SendQueue.DEFAULT_LAG_BUDGET; // Time a client may stay behind before being disconnected.
+    private volatile long refreshInterval = Board.REMOTE_REFRESH_INTERVAL; // Time in milliseconds between two broadcasts.
+    private volatile MulticastPublisher multicastPublisher; // Publishes each broadcast once by UDP, null if disabled.
+    private volatile SpectatorServer spectatorServer; // Serves read-only spectators, null if disabled.
+
+    // Thread building the game state once per refresh interval and handing it to every event loop.
+    private final Thread broadcastThread = new Thread(new Runnable() {
+        private final FrameEncoder deltaEncoder = new FrameEncoder(); // Encodes the changes of each broadcast.
+        private final FrameEncoder keyframeEncoder = new FrameEncoder(); // Encodes the full game states.
+
+        @Override
+        public void run() {
+            long sequence = 0;
+            while (!localBoard.isFinished()) {
+                try {
+                    // Delay between broadcasts.
+                    Thread.sleep(refreshInterval);
+                    // Encode the current game state once for all event loops and their clients.
+                    submit(Broadcast.create(localBoard, ++sequence, isDeltaBroadcast, deltaEncoder, keyframeEncoder));
+                } catch (InterruptedException e) {
+                    System.out.println("BroadcastThread interrupted: " + e.getMessage() + ".");
+                }
+            }
+            try {
+                Thread.sleep(Board.REMOTE_REFRESH_INTERVAL);
+                // Broadcast the final game state at the end.
+                submit(Broadcast.create(localBoard, ++sequence, false, deltaEncoder, keyframeEncoder));
+                if (multicastPublisher != null) multicastPublisher.close();
+            } catch (InterruptedException e) {
+                System.out.println("BroadcastThread interrupted: " + e.getMessage() + ".");
+            }
+        }
+
+        // Publishes a broadcast by multicast and to the spectators, if enabled, and hands it over to every event loop.
+        private void submit(Broadcast broadcast) {
+            if (multicastPublisher != null) multicastPublisher.publish(broadcast);
+            if (spectatorServer != null) spectatorServer.publish(broadcast);
+            for (EventLoop eventLoop : eventLoops) {
+                eventLoop.submit(broadcast);
+            }
+        }
+    }, "BroadcastThread");
+
+    public NioServer(LocalBoard localBoard) {
+        this(localBoard, false);
+    }
+
+    public NioServer(LocalBoard localBoard, boolean isDeltaBroadcast) {
+        this.localBoard = localBoard;
+        this.isDeltaBroadcast = isDeltaBroadcast;
+    }
+
+    // Sets the time in milliseconds a client may stay behind before being disconnected.
+    public void setLagBudget(long lagBudget) {
+        this.lagBudget = lagBudget;
+    }
+
+    // Sets the time in milliseconds between two broadcasts. Clients interpolate between the states they
+    // receive, so a longer interval saves bandwidth without making the snakes jump.
+    public void setRefreshInterval(long refreshInterval) {
+        this.refreshInterval = refreshInterval;
+    }
+
+    // Accepts read-only spectators on the given port. They get every broadcast but control no snake.
+    public void setSpectatorPort(int port) {
+        try {
+            SpectatorServer spectatorServer = new SpectatorServer(port);
+            spectatorServer.start();
+            this.spectatorServer = spectatorServer;
+        } catch (IOException e) {
+            System.err.println("Could not accept spectators: " + e.getMessage() + ".");
+        }
+    }
+
+    // Publishes every broadcast once to a UDP multicast group, for the clients that ask for it.
+    public void setMulticast(InetSocketAddress target) {
+        try {
+            multicastPublisher = new MulticastPublisher(target);
+            System.out.println("Publishing the game state to " + target + ".");
+        } catch (IOException e) {
+            System.err.println("Could not open the multicast channel: " + e.getMessage() + ".");
+        }
+    }
+
+    // Starts the server. The first event loop also accepts connections and runs on the calling thread.
+    public void runServer() {
+        try {
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(Server.PORT));
+            serverChannel.configureBlocking(false);
+            for (int i = 0; i < NUM_EVENT_LOOPS; i++) {
+                eventLoops[i] = new EventLoop();
+            }
+            serverChannel.register(eventLoops[0].selector, SelectionKey.OP_ACCEPT);
+            for (int i = 1; i < NUM_EVENT_LOOPS; i++) {
+                new Thread(eventLoops[i], "EventLoop " + i).start();
+            }
+            broadcastThread.start(); // Start multicasting.
+            System.out.println("The server is running (" + NUM_EVENT_LOOPS + " event loops).");
+            eventLoops[0].run();
+        } catch (IOException e) {
+            System.err.println("Could not start server: " + e.getMessage() + ".");
+        } finally {
+            if (serverChannel != null) {
+                try {
+                    serverChannel.close();
+                } catch (IOException e) {
+                    System.err.println("Could not close the server: " + e.getMessage() + ".");
+                }
+            }
+            for (EventLoop eventLoop : eventLoops) {
+                if (eventLoop != null) eventLoop.selector.wakeup();
+            }
+        }
+    }
+
+    // Accepts all pending connections and hands them out to the event loops in round-robin order.
+    private void acceptConnections() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            EventLoop eventLoop = eventLoops[nextEventLoop];
+            nextEventLoop = (nextEventLoop + 1) % NUM_EVENT_LOOPS;
+            eventLoop.register(channel);
+            System.out.println("New connection to client " + channel.socket().getPort() + ". " +
+                    channel.socket().getInetAddress().getHostAddress());
+        }
+    }
+
+    // Single-threaded loop multiplexing a subset of the connections.
+    private class EventLoop implements Runnable {
+        private final Selector selector; // Selector for the channels owned by this event loop.
+        private final Queue<SocketChannel> pendingChannels = new ConcurrentLinkedQueue<>(); // Channels waiting to be registered.
+        private final Queue<Broadcast> pendingBroadcasts = new ConcurrentLinkedQueue<>(); // Game states waiting to be sent.
+        private final List<NioConnection> connections = new ArrayList<>(); // Connections owned by this event loop.
+
+        public EventLoop() throws IOException {
+            this.selector = Selector.open();
+        }
+
+        // Queues a channel to be registered with this event loop. Safe to call from any thread.
+        public void register(SocketChannel channel) {
+            pendingChannels.add(channel);
+            selector.wakeup();
+        }
+
+        // Queues a game state to be sent to the connections of this event loop. Safe to call from any thread.
+        public void submit(Broadcast broadcast) {
+            pendingBroadcasts.add(broadcast);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (serverChannel.isOpen()) {
+                try {
+                    selector.select();
+                    registerPendingChannels();
+                    processSelectedKeys();
+                    Broadcast broadcast;
+                    while ((broadcast = pendingBroadcasts.poll()) != null) {
+                        broadcastGameState(broadcast);
+                    }
+                } catch (IOException e) {
+                    System.err.println("Exception in event loop: " + e.getMessage() + ".");
+                }
+            }
+            for (NioConnection connection : new ArrayList<>(connections)) {
+                connection.closeConnection();
+            }
+        }
+
+        // Registers the channels handed over by the accepting event loop.
+        private void registerPendingChannels() {
+            SocketChannel channel;
+            while ((channel = pendingChannels.poll()) != null) {
+                try {
+                    NioConnection connection = new NioConnection(channel, this);
+                    channel.register(selector, SelectionKey.OP_READ, connection);
+                    connections.add(connection);
+                } catch (IOException e) {
+                    System.err.println("Exception registering client connection: " + e.getMessage() + ".");
+                }
+            }
+        }
+
+        // Dispatches accept, read and write readiness events.
+        private void processSelectedKeys() throws IOException {
+            Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+            while (iterator.hasNext()) {
+                SelectionKey key = iterator.next();
+                iterator.remove();
+                if (!key.isValid()) continue;
+                if (key.isAcceptable()) {
+                    acceptConnections();
+                    continue;
+                }
+                NioConnection connection = (NioConnection) key.attachment();
+                try {
+                    if (key.isReadable()) connection.read();
+                    if (key.isValid() && key.isWritable()) connection.flush();
+                } catch (IOException e) {
+                    System.err.println("Client " + connection.port + " disconnected.");
+                    connection.closeConnection();
+                }
+            }
+        }
+
+        // Sends a game state to every connection owned by this event loop.
+        private void broadcastGameState(Broadcast broadcast) {
+            for (NioConnection connection : new ArrayList<>(connections)) {
+                connection.broadcastGameState(broadcast);
+                if (broadcast.getSequence() % Board.KEYFRAME_INTERVAL == 0 &&
+                        (connection.sendQueue.getDepth() > 1 || connection.sendQueue.getDroppedFrames() > 0)) {
+                    System.out.println("Client " + connection.port + ": " + connection.sendQueue + ".");
+                }
+            }
+        }
+    }
+
+    // State of a single client connection. Only accessed by the event loop that owns it.
+    private class NioConnection {
+        private final SocketChannel channel; // Channel representing the client connection.
+        private final EventLoop eventLoop; // Event loop owning this connection.
+        private final int port; // Remote port, used to identify the client.
+        private final HumanSnake snake; // Represents the snake controlled by the client connected through this connection.
+        private final ByteBuffer input = ByteBuffer.allocate(INPUT_BUFFER_SIZE); // Partially received input records.
+        private final SendQueue sendQueue = new SendQueue(lagBudget); // Frames waiting to be written to the client.
+        private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHERED_FRAMES]; // Frames handed to one gathering write.
+
+        public NioConnection(SocketChannel channel, EventLoop eventLoop) throws IOException {
+            this.channel = channel;
+            this.eventLoop = eventLoop;
+            this.port = channel.socket().getPort();
+            this.snake = new HumanSnake(port, localBoard);
+            // Tell the client which snake it controls before sending any game state.
+            sendQueue.offer(FrameEncoder.encodeHello(snake.getIdentification(), localBoard.getColumns(), localBoard.getRows()));
+            addSnake();
+        }
+
+        // Adds the HumanSnake to the game when a client connection is established.
+        private void addSnake() {
+            localBoard.addSnake(snake); // Add the snake to the local board.
+            snake.start(); // Start the snake's movement and logic.
+            localBoard.publish(BoardEvents.SNAKE_MOVED | BoardEvents.CELL_CHANGED);
+        }
+
+        // Removes the associated HumanSnake from the game.
+        private void removeSnake() {
+            localBoard.releaseSnake(snake); // Remove the snake from the board and release its cells.
+            localBoard.publish(BoardEvents.SNAKE_MOVED | BoardEvents.CELL_CHANGED);
+        }
+
+        // Reads the available bytes and processes every complete input record.
+        private void read() throws IOException {
+            if (channel.read(input) == -1) {
+                System.err.println("Client " + port + " disconnected.");
+                closeConnection();
+                return;
+            }
+            input.flip();
+            while (input.remaining() >= Protocol.INPUT_SIZE) {
+                Server.processInput(input, port, snake, sendQueue);
+            }
+            input.compact();
+        }
+
+        // Queues the frame this client needs and writes as much as the socket accepts without blocking.
+        // A client that stays behind for longer than the lag budget is disconnected.
+        public void broadcastGameState(Broadcast broadcast) {
+            if (sendQueue.isLagging()) {
+                System.err.println("Client " + port + " exceeded the lag budget: " + sendQueue + ".");
+                closeConnection();
+                return;
+            }
+            try {
+                sendQueue.acknowledge(snake.getAppliedInput(), broadcast.getSequence(), localBoard);
+                sendQueue.offer(broadcast);
+                flush();
+            } catch (IOException e) {
+                System.err.println("Exception on sending game state to client " + port + ". " + e.getMessage() + ".");
+                closeConnection();
+            }
+        }
+
+        // Writes queued frames with gathering writes until the socket buffer is full, then waits for write readiness.
+        private void flush() throws IOException {
+            int count;
+            while ((count = sendQueue.gather(gather)) > 0) {
+                channel.write(gather, 0, count);
+                boolean isEmpty = sendQueue.removeWritten();
+                if (gather[count - 1].hasRemaining()) {
+                    interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return;
+                }
+                if (isEmpty) break;
+            }
+            interestOps(SelectionKey.OP_READ);
+        }
+
+        // Updates the readiness events this connection is interested in.
+        private void interestOps(int ops) {
+            SelectionKey key = channel.keyFor(eventLoop.selector);
+            if (key != null && key.isValid() && key.interestOps() != ops) {
+                key.interestOps(ops);
+            }
+        }
+
+        // Closes the client connection and removes the snake from the game.
+        private void closeConnection() {
+            if (!eventLoop.connections.remove(this)) return;
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.err.println("Exception on closing connection: " + e.getMessage() + ".");
+            } finally {
+                removeSnake();
+            }
+        }
+    }
+}
@@ -44,6 +44,11 @@ public class Obstacle extends GameElement {
 		return remainingMoves;
 	}
 
+	// Sets the number of remaining moves. Only for boards mirroring a remote game state.
+	public void setRemainingMoves(int remainingMoves) {
+		this.remainingMoves = remainingMoves;
+	}
+
 	// Decrements the count of remaining moves by one. This is typically called after an obstacle has moved.
 	public void decrementRemainingMoves() {
 		remainingMoves--;
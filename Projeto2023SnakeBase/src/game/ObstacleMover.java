@@ -1,10 +1,11 @@
 package game;
 
 import environment.Board;
+import environment.BoardEvents;
 import environment.Cell;
 import environment.LocalBoard;
 
-public class ObstacleMover extends Thread {
+public class ObstacleMover implements Runnable {
 	private final Obstacle obstacle; // The obstacle to be moved.
 	private final LocalBoard board; // The game board where the obstacle is located.
 
@@ -60,12 +61,19 @@ public class ObstacleMover extends Thread {
 		System.out.println(Thread.currentThread().getName() + ": Exiting run method.");
 	}
 
+	// Moves the obstacle once without waiting, for a board running its obstacles on a timing wheel. Returns whether
+	// the game goes on and the obstacle has moves left.
+	public boolean step() {
+		if (board.isFinished() || obstacle.getRemainingMoves() <= 0) return false;
+		move();
+		return !board.isFinished() && obstacle.getRemainingMoves() > 0;
+	}
+
 	// Handles the movement of the obstacle to a new position.
 	private void move() {
 		// Call the method to handle the actual movement of the obstacle from the current cell to the next cell.
 		Cell.obstacleMoveHandler(obstacle);
-		// Notify the board that a change has occurred. This could be used to update the game state,
-		// refresh the UI, or notify other components that are observing the board.
-		board.setChanged();
+		// Publish the change to the consumers of the board's events, such as the GUI.
+		board.publish(BoardEvents.CELL_CHANGED);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,208 @@
+package game;
+
+import environment.BoardEvents;
+import environment.BoardSnapshot;
+import environment.LocalBoard;
+import remote.Protocol;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/** Records a game into an append-only log file, to be replayed by {@link remote.ReplayPlayer}. The log is a
+ * header followed by fixed-size records, each one change: a cell whose obstacle or goal changed, a snake
+ * joining, moving its head, moving its tail or leaving, or the end of the game. The recorder listens to the
+ * events of the board on a thread of its own and compares each snapshot of the board with the previous one, so
+ * the snakes only pay for the events they publish anyway; unchanged chunks of cells and bodies of snakes that
+ * did not move are shared by the snapshots and skipped at once. Records are written straight into a memory
+ * mapped segment of the file, allocating nothing, and a new segment is mapped when one is full.
+ *
+ * Header, big endian: magic (4 bytes), version (2), record size (2), columns (2), rows (2), start of the game
+ * in milliseconds since the epoch (8), number of records (8), padding (4). The number of records is updated
+ * after every batch of records, so a log cut short still replays up to its last batch.
+ * Record: time since the start in milliseconds (4), kind (1), wire cell type (1), value (1), flags (1),
+ * snake identification (4), cell index (4).
+ */
+public class ReplayRecorder implements BoardEvents.Listener {
+	public static final int MAGIC = 0x534E4B52; // First bytes of a log, "SNKR".
+	public static final short VERSION = 1; // Version of the log format.
+	public static final int HEADER_SIZE = 32; // Bytes of the header.
+	public static final int RECORD_SIZE = 16; // Bytes of a record.
+	public static final int RECORD_COUNT_POSITION = 20; // Position of the number of records in the header.
+	public static final byte RECORD_CELL = 1; // The element of a cell changed to the cell type and value.
+	public static final byte RECORD_JOIN = 2; // A snake joined, with the SNAKE_HUMAN flag for a remote player.
+	public static final byte RECORD_HEAD = 3; // A snake moved its head to the cell.
+	public static final byte RECORD_TAIL = 4; // A snake took its tail off the cell.
+	public static final byte RECORD_LEAVE = 5; // A snake left the game.
+	public static final byte RECORD_GAME_OVER = 6; // The game finished.
+	private static final int SEGMENT_SIZE = RECORD_SIZE << 16; // Bytes of the file mapped at a time, 1 MB.
+	private final LocalBoard board; // Board whose changes are recorded.
+	private final FileChannel channel; // Log file.
+	private final MappedByteBuffer header; // Mapped header of the log.
+	private final long start = System.nanoTime(); // Time the recording started.
+	private MappedByteBuffer segment; // Mapped part of the file the next records go to.
+	private long segmentPosition; // Position of the segment in the file.
+	private long records = 0; // Number of records written.
+	private BoardSnapshot previous; // Snapshot the last records were taken from, null before the first one.
+	private boolean[] isPresent = new boolean[16]; // Scratch flags of the snakes of the previous snapshot still in the game.
+	private BoardEvents.Subscriber subscriber; // Subscription to the events of the board, null once closed.
+
+	// Creates the log file, replacing any file at that path, and writes its header.
+	public ReplayRecorder(LocalBoard board, Path file) throws IOException {
+		this.board = board;
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+		header.putInt(MAGIC).putShort(VERSION).putShort((short) RECORD_SIZE);
+		header.putShort((short) board.getColumns()).putShort((short) board.getRows());
+		header.putLong(System.currentTimeMillis()).putLong(0).putInt(0);
+		segmentPosition = HEADER_SIZE;
+		segment = channel.map(FileChannel.MapMode.READ_WRITE, segmentPosition, SEGMENT_SIZE);
+	}
+
+	// Records the board as it is now and starts recording its changes, until the game ends or close() is called.
+	public synchronized void start() {
+		record(board.refreshSnapshot());
+		subscriber = board.getEvents().subscribe("Replay recorder", this);
+		System.out.println("Recording the game.");
+	}
+
+	// Records the changes of the board since the previous batch, and closes the log once the game is over.
+	@Override
+	public synchronized void onEvents(int events) {
+		if (subscriber == null) return; // Closed.
+		BoardSnapshot snapshot = board.refreshSnapshot();
+		record(snapshot);
+		if (snapshot.isFinished()) close();
+	}
+
+	// Stops recording, writes the last records to the file and closes it.
+	public synchronized void close() {
+		if (subscriber == null) return;
+		board.getEvents().unsubscribe(subscriber);
+		subscriber = null;
+		try {
+			segment.force();
+			header.force();
+			channel.truncate(HEADER_SIZE + records * RECORD_SIZE);
+			channel.close();
+			System.out.println("Recorded " + records + " changes.");
+		} catch (IOException e) {
+			System.err.println("Error closing the replay log: " + e.getMessage());
+		}
+	}
+
+	// Writes the records turning the previous snapshot into the given one.
+	private void record(BoardSnapshot snapshot) {
+		int time = (int) ((System.nanoTime() - start) / 1_000_000);
+		try {
+			recordCells(snapshot, time);
+			recordSnakes(snapshot, time);
+			if (snapshot.isFinished() && (previous == null || !previous.isFinished())) {
+				write(time, RECORD_GAME_OVER, 0, 0, 0, 0, 0);
+			}
+		} catch (IOException e) {
+			System.err.println("Error writing the replay log: " + e.getMessage());
+		}
+		previous = snapshot;
+		header.putLong(RECORD_COUNT_POSITION, records);
+	}
+
+	// Writes a record for every cell whose element changed, skipping the chunks shared with the previous snapshot.
+	private void recordCells(BoardSnapshot snapshot, int time) throws IOException {
+		int size = snapshot.getColumns() * snapshot.getRows();
+		for (int chunk = 0; chunk < snapshot.getChunkCount(); chunk++) {
+			if (snapshot.isSameChunk(previous, chunk)) continue;
+			int end = Math.min(size, (chunk + 1) * BoardSnapshot.CHUNK);
+			for (int index = chunk * BoardSnapshot.CHUNK; index < end; index++) {
+				int type = cellType(snapshot, index);
+				int value = type != Protocol.CELL_EMPTY ? snapshot.getElementValue(index) : 0;
+				if (previous != null && type == cellType(previous, index)
+						&& (type == Protocol.CELL_EMPTY || value == previous.getElementValue(index))) continue;
+				if (previous == null && type == Protocol.CELL_EMPTY) continue;
+				write(time, RECORD_CELL, type, value, 0, 0, index);
+			}
+		}
+	}
+
+	// Writes the records of the snakes that joined, moved or left. A snake that moved is found in the previous
+	// snapshot where its body now starts: the segments before are tails it took off, the ones past the end of
+	// its previous body heads it moved to.
+	private void recordSnakes(BoardSnapshot snapshot, int time) throws IOException {
+		int previousCount = previous == null ? 0 : previous.getSnakeCount();
+		if (isPresent.length < previousCount) isPresent = new boolean[Math.max(previousCount, isPresent.length * 2)];
+		for (int i = 0; i < previousCount; i++) {
+			isPresent[i] = false;
+		}
+		for (int snake = 0; snake < snapshot.getSnakeCount(); snake++) {
+			int id = snapshot.getSnakeId(snake);
+			int slot = findSnake(id, snake, previousCount);
+			if (slot < 0) {
+				write(time, RECORD_JOIN, 0, 0, snapshot.isHuman(snake) ? Protocol.SNAKE_HUMAN : 0, id, 0);
+				writeHeads(snapshot, snake, 0, time);
+				continue;
+			}
+			isPresent[slot] = true;
+			if (snapshot.isSameBody(snake, previous, slot)) continue;
+			int length = snapshot.getLength(snake);
+			int previousLength = previous.getLength(slot);
+			int tails = 0;
+			while (tails < previousLength && (length == 0 || previous.getIndex(slot, tails) != snapshot.getIndex(snake, 0))) {
+				tails++;
+			}
+			int kept = previousLength - tails;
+			for (int segment = 0; segment < kept && kept <= length; segment++) {
+				if (previous.getIndex(slot, tails + segment) != snapshot.getIndex(snake, segment)) {
+					kept = length + 1; // Not the same snake moved ahead: replaced as a whole below.
+				}
+			}
+			if (kept > length) {
+				tails = previousLength;
+				kept = 0;
+			}
+			for (int segment = 0; segment < tails; segment++) {
+				write(time, RECORD_TAIL, 0, 0, 0, id, previous.getIndex(slot, segment));
+			}
+			writeHeads(snapshot, snake, kept, time);
+		}
+		for (int slot = 0; slot < previousCount; slot++) {
+			if (!isPresent[slot]) write(time, RECORD_LEAVE, 0, 0, 0, previous.getSnakeId(slot), 0);
+		}
+	}
+
+	// Returns the slot of a snake in the previous snapshot, trying the same slot first, or -1 if it joined since.
+	private int findSnake(int id, int snake, int previousCount) {
+		if (snake < previousCount && previous.getSnakeId(snake) == id) return snake;
+		for (int slot = 0; slot < previousCount; slot++) {
+			if (previous.getSnakeId(slot) == id) return slot;
+		}
+		return -1;
+	}
+
+	// Writes a head record for each segment of a snake from the given one to its head.
+	private void writeHeads(BoardSnapshot snapshot, int snake, int from, int time) throws IOException {
+		for (int segment = from; segment < snapshot.getLength(snake); segment++) {
+			write(time, RECORD_HEAD, 0, 0, 0, snapshot.getSnakeId(snake), snapshot.getIndex(snake, segment));
+		}
+	}
+
+	// Appends a record, mapping the next segment of the file when the current one is full.
+	private void write(int time, byte kind, int type, int value, int flags, int id, int index) throws IOException {
+		if (segment.remaining() < RECORD_SIZE) {
+			segment.force();
+			segmentPosition += SEGMENT_SIZE;
+			segment = channel.map(FileChannel.MapMode.READ_WRITE, segmentPosition, SEGMENT_SIZE);
+		}
+		segment.putInt(time).put(kind).put((byte) type).put((byte) value).put((byte) flags).putInt(id).putInt(index);
+		records++;
+	}
+
+	// Returns the wire type of a cell of a snapshot.
+	private static int cellType(BoardSnapshot snapshot, int index) {
+		if (snapshot.isObstacleAt(index)) return Protocol.CELL_OBSTACLE;
+		if (snapshot.isGoalAt(index)) return Protocol.CELL_GOAL;
+		return Protocol.CELL_EMPTY;
+	}
+}
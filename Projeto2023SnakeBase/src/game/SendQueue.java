@@ -0,0 +1,243 @@
+package game;
+
+import environment.Board;
+import remote.FrameEncoder;
+import remote.Protocol;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded queue of frames waiting to be written to one client. When a client falls behind and the queue
+ * is full, the broadcast frames not yet started are dropped and replaced by a keyframe of the newest
+ * broadcast, so the client always catches up with the current state instead of replaying old ones. The
+ * frames meant only for this client, its hello and the acknowledgements of its inputs, stay queued.
+ */
+class SendQueue {
+    public static final int CAPACITY = 8; // Maximum number of frames queued for one client.
+    public static final long DEFAULT_LAG_BUDGET = 5000; // Time a client may stay behind before being disconnected.
+    private final ArrayDeque<ByteBuffer> frames = new ArrayDeque<>(CAPACITY); // Frames waiting to be written.
+    private final Lock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition(); // Signaled when a frame is queued.
+    private final long lagBudget; // Time in milliseconds a client may go without completing a write while frames are waiting.
+    private boolean needsKeyframe = true; // Whether the next frame must hold the full game state.
+    private boolean isWriting = false; // Whether a frame taken from the queue is being written.
+    private long lastProgress = System.currentTimeMillis(); // Time the last frame was completely written.
+    private long sentFrames = 0; // Frames completely written to the client.
+    private long droppedFrames = 0; // Frames dropped because the client fell behind.
+    private int maxDepth = 0; // Highest number of frames queued at once.
+    private HumanSnake.Input acknowledgedInput; // Last input of the client whose acknowledgement was queued.
+    private boolean isMulticast = false; // Whether the client receives the game state by multicast instead.
+
+    public SendQueue(long lagBudget) {
+        this.lagBudget = lagBudget;
+    }
+
+    // Queues the frame a broadcast has for this client, dropping the broadcasts not yet started if the queue is full.
+    // Clients receiving the game state by multicast only get the full game states they asked for. The frame is
+    // chosen, and a keyframe encoded if needed, without holding the lock, so that the writer of the client is
+    // never held up by an encoding; a keyframe found needed only once the lock is taken again goes with the next
+    // broadcast.
+    public void offer(Broadcast broadcast) {
+        boolean wantsKeyframe;
+        lock.lock();
+        try {
+            if (isMulticast && !needsKeyframe) {
+                return;
+            }
+            wantsKeyframe = needsKeyframe || frames.size() >= CAPACITY;
+        } finally {
+            lock.unlock();
+        }
+        boolean isKeyframe = broadcast.sendsKeyframe(wantsKeyframe);
+        ByteBuffer frame = broadcast.frameFor(wantsKeyframe);
+        lock.lock();
+        try {
+            if (frames.size() >= CAPACITY) {
+                dropBroadcasts();
+                needsKeyframe = true;
+            }
+            if (needsKeyframe && !isKeyframe) {
+                return; // A delta would not apply on top of what the client has.
+            }
+            frames.add(frame);
+            if (isKeyframe) {
+                needsKeyframe = false;
+            }
+            maxDepth = Math.max(maxDepth, frames.size());
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Drops the queued broadcast frames not yet started. Called under the lock. A frame partly written cannot be
+    // dropped without corrupting the stream, and the frames meant only for this client are not superseded by the
+    // keyframe that follows.
+    private void dropBroadcasts() {
+        Iterator<ByteBuffer> iterator = frames.iterator();
+        while (iterator.hasNext()) {
+            ByteBuffer frame = iterator.next();
+            byte type = frame.get(Protocol.TYPE_OFFSET);
+            if (frame.position() == 0 && (type == Protocol.FRAME_KEYFRAME || type == Protocol.FRAME_DELTA)) {
+                iterator.remove();
+                droppedFrames++;
+            }
+        }
+    }
+
+    // Queues a small frame meant only for this client. Returns false if the queue is full: such frames are
+    // superseded by the next one, so they are never worth dropping broadcasts for.
+    public boolean offer(ByteBuffer frame) {
+        lock.lock();
+        try {
+            if (frames.size() >= CAPACITY) {
+                return false;
+            }
+            frames.add(frame);
+            maxDepth = Math.max(maxDepth, frames.size());
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Queues the acknowledgement of the last input applied for this client, unless it was already acknowledged.
+    // Only called by the thread offering broadcasts, right before offering the next one. The header carries the
+    // size of the given board.
+    public void acknowledge(HumanSnake.Input input, long sequence, Board board) {
+        if (input == null || input == acknowledgedInput) return;
+        ByteBuffer ack = FrameEncoder.encodeAck(sequence, input.getSequence(), input.getTimestamp(), input.getApplyDelay(),
+                board.getColumns(), board.getRows());
+        if (offer(ack)) {
+            acknowledgedInput = input;
+        }
+    }
+
+    // Sets whether the client receives the game state by multicast, leaving only its own frames to this queue.
+    public void setMulticast(boolean isMulticast) {
+        lock.lock();
+        try {
+            this.isMulticast = isMulticast;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Makes the next broadcast queued for the client a full game state.
+    public void requestKeyframe() {
+        lock.lock();
+        try {
+            needsKeyframe = true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Removes the next frame, waiting until there is one. Call markWritten() once it has been written.
+    public ByteBuffer take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (frames.isEmpty()) {
+                notEmpty.await();
+            }
+            isWriting = true;
+            return frames.poll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Records that the frame returned by take() has been completely written.
+    public void markWritten() {
+        lock.lock();
+        try {
+            isWriting = false;
+            sentFrames++;
+            lastProgress = System.currentTimeMillis();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Copies the queued frames, oldest first, into the array for a gathering write and returns how many were copied.
+    public int gather(ByteBuffer[] target) {
+        lock.lock();
+        try {
+            int count = 0;
+            for (ByteBuffer frame : frames) {
+                if (count == target.length) break;
+                target[count++] = frame;
+            }
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Removes the frames completely written by a gathering write. Returns true if the queue is now empty.
+    public boolean removeWritten() {
+        lock.lock();
+        try {
+            while (!frames.isEmpty() && !frames.peek().hasRemaining()) {
+                frames.poll();
+                sentFrames++;
+                lastProgress = System.currentTimeMillis();
+            }
+            return frames.isEmpty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Checks if the client has been behind for longer than the lag budget.
+    public boolean isLagging() {
+        lock.lock();
+        try {
+            if (frames.isEmpty() && !isWriting) {
+                lastProgress = System.currentTimeMillis();
+                return false;
+            }
+            return System.currentTimeMillis() - lastProgress > lagBudget;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Returns the number of frames currently queued.
+    public int getDepth() {
+        lock.lock();
+        try {
+            return frames.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Returns the number of frames dropped because the client fell behind.
+    public long getDroppedFrames() {
+        lock.lock();
+        try {
+            return droppedFrames;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Returns a summary of the queue statistics, used to spot lagging clients.
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            return "queue " + frames.size() + "/" + CAPACITY + " (max " + maxDepth + "), " + sentFrames + " sent, "
+                    + droppedFrames + " dropped";
+        } finally {
+            lock.unlock();
+        }
+    }
+}
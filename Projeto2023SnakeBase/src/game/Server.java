@@ -1,11 +1,17 @@
 package game;
 
 import environment.Board;
-import environment.GameState;
+import environment.BoardEvents;
 import environment.LocalBoard;
 import remote.Direction;
+import remote.FrameEncoder;
+import remote.Protocol;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.net.*;
 import java.net.ServerSocket;
 import java.net.Socket;
@@ -13,28 +19,44 @@ import java.util.*;
 
 public class Server {
     // TODO
+    public static final int PORT = 12345; // Port on which the server listens for client connections.
+    private static final Direction[] DIRECTIONS = Direction.values(); // Directions indexed by their wire code.
     private ServerSocket serverSocket; // ServerSocket to listen for incoming connections.
     private final LocalBoard localBoard; // The local board that maintains the game state.
     private final Map<Integer, ConnectionHandler> connections = new HashMap<>(); // Maps client ports to their respective connection handlers.
+    private final boolean isDeltaBroadcast; // Whether only the changes since the previous broadcast are sent.
+    private long sequence = 0; // Sequence number of the last broadcast.
+    private volatile long lagBudget = SendQueue.DEFAULT_LAG_BUDGET; // Time a client may stay behind before being disconnected.
+    private volatile long refreshInterval = Board.REMOTE_REFRESH_INTERVAL; // Time in milliseconds between two broadcasts.
+    private volatile MulticastPublisher multicastPublisher; // Publishes each broadcast once by UDP, null if disabled.
+    private volatile SpectatorServer spectatorServer; // Serves read-only spectators, null if disabled.
 
     // Thread for broadcasting game state updates to all active clients.
     private final Thread broadcastThread = new Thread(new Runnable() {
+        private final FrameEncoder deltaEncoder = new FrameEncoder(); // Encodes the changes of each broadcast.
+        private final FrameEncoder keyframeEncoder = new FrameEncoder(); // Encodes the full game states.
+
         @Override
         public void run() {
             while (!localBoard.isFinished()) {
                 try {
                     // Delay between broadcasts.
-                    Thread.sleep(Board.REMOTE_REFRESH_INTERVAL);
-                    // Get the current game state for broadcasting.
-                    GameState gameState = new GameState(localBoard.getCells(), localBoard.getSnakes(), localBoard.isFinished());
+                    Thread.sleep(refreshInterval);
+                    // Encode the current game state once for all clients.
+                    Broadcast broadcast = Broadcast.create(localBoard, ++sequence, isDeltaBroadcast, deltaEncoder, keyframeEncoder);
+                    if (multicastPublisher != null) multicastPublisher.publish(broadcast);
+                    if (spectatorServer != null) spectatorServer.publish(broadcast);
                     HashMap<Integer, ConnectionHandler> copyOfConnections = new HashMap<>(connections);
-                    System.out.println("Active connections: " + copyOfConnections.size());
-                    // Broadcast the game state to each client.
+                    // Queue the game state for each client. Clients that have not received a full state yet get one.
                     for (ConnectionHandler connection : copyOfConnections.values()) {
                         if (!connection.socket.isClosed() && connection.isOutputStreamInitialized) {
-                            connection.broadcastGameState(gameState);
+                            connection.broadcastGameState(broadcast);
                         }
                     }
+                    System.out.println("Active connections: " + copyOfConnections.size());
+                    if (broadcast.getSequence() % Board.KEYFRAME_INTERVAL == 0) {
+                        printLaggingClients(copyOfConnections.values());
+                    }
                 } catch (InterruptedException e) {
                     System.out.println("BroadcastThread interrupted: " + e.getMessage() + ".");
                 }
@@ -47,28 +69,79 @@ public class Server {
             }
         }
 
+        // Prints the send queue statistics of the clients that are behind or had frames dropped.
+        private void printLaggingClients(Collection<ConnectionHandler> connections) {
+            for (ConnectionHandler connection : connections) {
+                if (connection.sendQueue.getDepth() > 1 || connection.sendQueue.getDroppedFrames() > 0) {
+                    System.out.println("Client " + connection.socket.getPort() + ": " + connection.sendQueue + ".");
+                }
+            }
+        }
+
         // Broadcasts the final game state to all clients.
         private void broadcastLastGameState() {
             // Get the current game state for broadcasting.
-            GameState gameState = new GameState(localBoard.getCells(), localBoard.getSnakes(), localBoard.isFinished());
+            Broadcast broadcast = Broadcast.create(localBoard, ++sequence, false, deltaEncoder, keyframeEncoder);
+            if (spectatorServer != null) spectatorServer.publish(broadcast);
+            if (multicastPublisher != null) {
+                multicastPublisher.publish(broadcast);
+                multicastPublisher.close();
+            }
             // Broadcast the game state to each client.
             HashMap<Integer, ConnectionHandler> connectionsCopy = new HashMap<>(connections);
             for (ConnectionHandler connection : connectionsCopy.values()) {
                 if (!connection.socket.isClosed() && connection.isOutputStreamInitialized) {
-                    connection.broadcastGameState(gameState);
+                    connection.broadcastGameState(broadcast);
                 }
             }
         }
-    });
+    }, "BroadcastThread");
 
     public Server(LocalBoard localBoard) {
+        this(localBoard, false);
+    }
+
+    public Server(LocalBoard localBoard, boolean isDeltaBroadcast) {
         this.localBoard = localBoard;
+        this.isDeltaBroadcast = isDeltaBroadcast;
+    }
+
+    // Sets the time in milliseconds a client may stay behind before being disconnected.
+    public void setLagBudget(long lagBudget) {
+        this.lagBudget = lagBudget;
+    }
+
+    // Sets the time in milliseconds between two broadcasts. Clients interpolate between the states they
+    // receive, so a longer interval saves bandwidth without making the snakes jump.
+    public void setRefreshInterval(long refreshInterval) {
+        this.refreshInterval = refreshInterval;
+    }
+
+    // Accepts read-only spectators on the given port. They get every broadcast but control no snake.
+    public void setSpectatorPort(int port) {
+        try {
+            SpectatorServer spectatorServer = new SpectatorServer(port);
+            spectatorServer.start();
+            this.spectatorServer = spectatorServer;
+        } catch (IOException e) {
+            System.err.println("Could not accept spectators: " + e.getMessage() + ".");
+        }
+    }
+
+    // Publishes every broadcast once to a UDP multicast group, for the clients that ask for it.
+    public void setMulticast(InetSocketAddress target) {
+        try {
+            multicastPublisher = new MulticastPublisher(target);
+            System.out.println("Publishing the game state to " + target + ".");
+        } catch (IOException e) {
+            System.err.println("Could not open the multicast channel: " + e.getMessage() + ".");
+        }
     }
 
     // Starts the server and listens for incoming client connections.
     public void runServer() {
         try {
-            serverSocket = new ServerSocket(12345); // Create a server socket bound to port 12345.
+            serverSocket = new ServerSocket(PORT); // Create a server socket bound to port 12345.
             broadcastThread.start(); // Start multicasting.
             System.out.println("The server is running.");
             while (!serverSocket.isClosed()) { // Continuously listen for client connections as long as the server is not closed.
@@ -96,22 +169,50 @@ public class Server {
         System.out.println("Waiting for connection.");
         Socket socket = serverSocket.accept(); // Accept the incoming connection.
         ConnectionHandler connectionHandler = new ConnectionHandler(socket);
-        connectionHandler.start(); // Start the thread to process the connection.
+        // Start the thread to process the connection.
+        ExecutionMode.current().newThread(connectionHandler, "ConnectionHandler " + socket.getPort()).start();
         System.out.println("New connection to client " + socket.getPort() + ". " + socket.getInetAddress().getHostAddress());
     }
 
+    // Processes an input record received from a client, see {@link Protocol}: either a direction for its snake
+    // or a command changing how the game state is sent to it.
+    static void processInput(ByteBuffer record, int port, HumanSnake snake, SendQueue sendQueue) {
+        int code = record.get();
+        int sequence = record.getInt();
+        long timestamp = record.getLong();
+        if (code == Protocol.COMMAND_MULTICAST) {
+            System.out.println("Client " + port + " receives the game state by multicast.");
+            sendQueue.setMulticast(true);
+        } else if (code == Protocol.COMMAND_KEYFRAME) {
+            System.out.println("Client " + port + " lost multicast frames, sending a full game state.");
+            sendQueue.requestKeyframe();
+        } else if (code >= 0 && code < DIRECTIONS.length) {
+            System.out.println("Received direction from client " + port + ": " + DIRECTIONS[code] + " (input " + sequence + ").");
+            snake.setInput(new HumanSnake.Input(DIRECTIONS[code], sequence, timestamp));
+        } else {
+            System.err.println("Invalid direction received from client " + port + ".");
+        }
+    }
+
     // Inner class to handle client connections.
-    private class ConnectionHandler extends Thread {
+    private class ConnectionHandler implements Runnable {
         private final Socket socket; // Socket representing the client connection.
-        private ObjectOutputStream out; // Stream for sending data to the client.
-        private Scanner in; // Stream for receiving data from the client.
+        private OutputStream out; // Stream for sending data to the client.
+        private final byte[] chunk = new byte[8192]; // Scratch space frames are copied through on their way to the socket.
+        private DataInputStream in; // Stream for receiving input records from the client.
+        private final byte[] record = new byte[Protocol.INPUT_SIZE]; // Input record being received.
         private final HumanSnake snake; // Represents the snake controlled by the client connected through this handler.
         private volatile boolean isInputStreamInitialized = false;
         private volatile boolean isOutputStreamInitialized = false;
+        private final SendQueue sendQueue = new SendQueue(lagBudget); // Frames waiting to be written to the client.
+        private volatile Thread writerThread; // Drains the send queue to the socket, started once the streams are ready.
+        private boolean isClosed = false; // Whether the connection has already been closed.
 
         public ConnectionHandler(Socket socket) {
             this.socket = socket;
             this.snake = new HumanSnake(socket.getPort(), localBoard);
+            // Tell the client which snake it controls before sending any game state.
+            sendQueue.offer(FrameEncoder.encodeHello(snake.getIdentification(), localBoard.getColumns(), localBoard.getRows()));
             addSnake(snake);
             synchronized (connections) {
                 connections.put(socket.getPort(), this); // Add this connection handler to the map.
@@ -133,7 +234,7 @@ public class Server {
                 localBoard.addSnake(snake); // Add the snake to the local board.
                 snake.start(); // Start the snake's movement and logic.
                 Thread.sleep(Board.REMOTE_REFRESH_INTERVAL);
-                localBoard.setChanged();
+                localBoard.publish(BoardEvents.SNAKE_MOVED | BoardEvents.CELL_CHANGED);
             } catch (InterruptedException e) {
                 System.out.println("Thread interrupted: " + e.getMessage());
             }
@@ -141,9 +242,8 @@ public class Server {
 
         // Removes the associated HumanSnake from the game.
         private void removeSnake() {
-            localBoard.getSnakes().remove(snake); // Remove the snake from the board.
-            snake.getCells().forEach(cell -> cell.release()); // Release the cells occupied by the snake.
-            localBoard.setChanged();
+            localBoard.releaseSnake(snake); // Remove the snake from the board and release its cells.
+            localBoard.publish(BoardEvents.SNAKE_MOVED | BoardEvents.CELL_CHANGED);
         }
 
         @Override
@@ -152,6 +252,8 @@ public class Server {
                 getStreams();
                 isInputStreamInitialized = true;
                 isOutputStreamInitialized = true;
+                writerThread = ExecutionMode.current().newThread(this::writeFrames, "Writer " + socket.getPort());
+                writerThread.start();
                 while (!socket.isClosed()) {
                     processConnection();
                 }
@@ -166,18 +268,20 @@ public class Server {
 
         // Sets up the I/O streams for communication with the client.
         private void getStreams() throws IOException {
-            out = new ObjectOutputStream(socket.getOutputStream()); // Output stream.
-            in = new Scanner(socket.getInputStream()); // Input stream.
+            // The socket stream is used directly: Channels.newChannel() writes while holding a monitor, which would pin
+            // a virtual writer thread to its carrier for as long as the client takes to read.
+            out = socket.getOutputStream(); // Output stream.
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream())); // Input stream.
         }
 
         // Handles communication with the client.
         private void processConnection() throws IOException {
             try {
-                if (in.hasNextLine()) {
-                    processClientInput();
-                }
-            } catch (SocketException e) {
+                in.readFully(record);
+                processClientInput();
+            } catch (EOFException | SocketException e) {
                 System.err.println("Client " + socket.getPort() + " disconnected.");
+                closeConnection();
             } catch (IOException e) {
                 System.err.println("IO Exception in ConnectionHandler: " + e.getMessage());
             }
@@ -186,8 +290,12 @@ public class Server {
         // Closes the client connection and associated streams.
         private void closeConnection() {
             synchronized (connections) {
+                if (isClosed) return;
+                isClosed = true;
                 connections.remove(socket.getPort()); // Remove this connection handler from the map.
             }
+            Thread writerThread = this.writerThread;
+            if (writerThread != null) writerThread.interrupt();
             try {
                 if (out != null) out.close(); // Close the output stream.
                 if (in != null) in.close(); // Close the input stream.
@@ -199,33 +307,45 @@ public class Server {
             }
         }
 
-        // Sends the updated game state to the clients.
-        public void broadcastGameState(GameState gameState) {
+        // Queues the updated game state for the client, either the full game state or the changes since the last one.
+        // Never blocks: a client that stays behind for longer than the lag budget is disconnected instead.
+        public void broadcastGameState(Broadcast broadcast) {
             if (out == null) {
                 System.err.println("Output stream not initialized for client " + socket.getPort() + ".");
                 return;
             }
+            if (sendQueue.isLagging()) {
+                System.err.println("Client " + socket.getPort() + " exceeded the lag budget: " + sendQueue + ".");
+                closeConnection();
+                return;
+            }
+            sendQueue.acknowledge(snake.getAppliedInput(), broadcast.getSequence(), localBoard);
+            sendQueue.offer(broadcast);
+        }
+
+        // Writes the queued frames to the client, blocking only this connection's writer thread.
+        private void writeFrames() {
             try {
-                out.reset(); // Reset the ObjectOutputStream to ensure no stale objects are sent.
-                out.writeObject(gameState); // Send the game state to the client.
-                out.flush(); // Flush the stream to ensure the data is sent.
-                System.out.println("Sending the game state to client " + socket.getPort() + ".");
+                while (!socket.isClosed()) {
+                    ByteBuffer frame = sendQueue.take();
+                    while (frame.hasRemaining()) {
+                        int length = Math.min(frame.remaining(), chunk.length);
+                        frame.get(chunk, 0, length);
+                        out.write(chunk, 0, length); // Send the game state to the client.
+                    }
+                    sendQueue.markWritten();
+                }
+            } catch (InterruptedException e) {
+                // The connection is being closed.
             } catch (IOException e) {
                 System.err.println("Exception on sending game state to client " + socket.getPort() + ". " + e.getMessage() + ".");
                 closeConnection(); // Close the connection if an error occurs while broadcasting.
             }
         }
 
-        // Processes incoming commands from the client.
-        private void processClientInput() throws IOException {
-            String directionInput = in.nextLine();
-            try {
-                Direction direction = Direction.valueOf(directionInput);
-                snake.setDirection(direction);
-                System.out.println("Received direction from client " + socket.getPort() + ": " + directionInput);
-            } catch (IllegalArgumentException e) {
-                System.err.println("Invalid direction received from client " + socket.getPort() + ".");
-            }
+        // Processes the input record received from the client.
+        private void processClientInput() {
+            processInput(ByteBuffer.wrap(record), socket.getPort(), snake, sendQueue);
         }
     }
 }
\ No newline at end of file
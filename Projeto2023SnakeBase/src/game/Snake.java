@@ -1,11 +1,15 @@
 package game;
 
 import java.io.Serializable;
-import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
 
 import environment.Board;
+import environment.BoardEvents;
 import environment.BoardPosition;
 import environment.Cell;
+import environment.LocalBoard;
 
 /** Base class for representing Snakes.
  * Will be extended by HumanSnake and AutomaticSnake.
@@ -13,24 +17,100 @@ import environment.Cell;
  * @author luismota
  *
  */
-public abstract class Snake extends Thread implements Serializable {
-	protected LinkedList<Cell> cells = new LinkedList<Cell>();
+public abstract class Snake implements Runnable, Serializable {
+	private static final long DEADLOCK_CHECK_INTERVAL = Board.PLAYER_PLAY_INTERVAL / 4; // Time waited for a cell between two checks for a deadlock.
+	protected SnakeBody body; // Cells of the snake, tail first.
 	protected int size = 5;
 	private final int id;
 	private transient final Board board;
 	private int growthPending = 0;
 	protected volatile boolean isIdle = true;
+	private transient volatile Thread thread; // Thread running the snake, created by start() according to the execution mode.
+	private transient volatile boolean isStepDriven = false; // Whether the snake is moved in steps by the tick engine or the timing wheel of its board instead of a thread.
+	private transient volatile boolean isInterruptRequested = false; // Interruption asked for a step-driven snake, handled on its next step.
+	private transient volatile boolean isLeaving = false; // Whether the player left, for a snake on a timing wheel to take itself off on its next step.
+	// Source of the random choices of this snake, seeded from the board so that games stay reproducible even when
+	// snakes decide their moves in parallel.
+	private transient final Random random;
 	
 	public Snake(int id, Board board) {
 		this.id = id;
 		this.board = board;
-		this.setName("Snake " + id);
+		this.random = new Random(board != null ? board.getRandom().nextLong() : System.nanoTime());
+		this.body = new SnakeBody(board != null ? board.getRows() : Board.NUMBER_ROWS);
+	}
+
+	// Starts the snake on a platform or virtual thread, depending on the current execution mode. On a board
+	// driven by a tick engine no thread is started: the engine places and moves the snake on its ticks. On a board
+	// with a timing wheel the snake is placed at once and then moved by a step every player interval, after the
+	// delay for the remote players to connect for an automatic snake.
+	public void start() {
+		if (board instanceof LocalBoard && ((LocalBoard) board).getTickEngine() != null) {
+			isStepDriven = true;
+			return;
+		}
+		if (board instanceof LocalBoard && ((LocalBoard) board).getTimingWheel() != null) {
+			isStepDriven = true;
+			placeWithoutWaiting();
+			long delay = this instanceof AutomaticSnake ? Board.REMOTE_CONNECTION_SETUP_DELAY + Board.PLAYER_PLAY_INTERVAL
+					: Board.PLAYER_PLAY_INTERVAL;
+			((LocalBoard) board).getTimingWheel().schedule(this::step, delay, Board.PLAYER_PLAY_INTERVAL);
+			return;
+		}
+		thread = ExecutionMode.current().newThread(this, getName());
+		thread.start();
+	}
+
+	// Takes a snake moved by a timing wheel off the board on its next step, so that only its own steps change its
+	// cells.
+	public void leave() {
+		isLeaving = true;
+	}
+
+	// Interrupts the thread running the snake, if it was started. A step-driven snake handles it on its next step.
+	public void interrupt() {
+		if (isStepDriven) {
+			isInterruptRequested = true;
+			return;
+		}
+		Thread thread = this.thread;
+		if (thread != null) thread.interrupt();
+	}
+
+	// Checks if the thread running the snake has been interrupted.
+	public boolean isInterrupted() {
+		if (isStepDriven) return isInterruptRequested;
+		Thread thread = this.thread;
+		return thread != null && thread.isInterrupted();
+	}
+
+	// Checks if the snake has been started and is still running.
+	public boolean isAlive() {
+		if (isStepDriven) return !board.isFinished() && !isLeaving;
+		Thread thread = this.thread;
+		return thread != null && thread.isAlive();
+	}
+
+	// Returns whether an interruption was asked for since the last call, clearing it. Only for step-driven snakes.
+	protected boolean takeInterruptRequest() {
+		boolean isRequested = isInterruptRequested;
+		isInterruptRequested = false;
+		return isRequested;
+	}
+
+	public String getName() {
+		return "Snake " + id;
 	}
 
 	public Board getBoard() {
 		return board;
 	}
 
+	// Returns the source of the random choices of this snake.
+	protected Random getRandom() {
+		return random;
+	}
+
 	public int getSize() {
 		return size;
 	}
@@ -40,15 +120,21 @@ public abstract class Snake extends Thread implements Serializable {
 	}
 
 	public int getLength() {
-		return cells.size();
+		return body.getLength();
 	}
 
 	public Cell getHead() {
-		return getCells().getLast();
+		return board.getCell(body.getHead());
 	}
-	
-	public LinkedList<Cell> getCells() {
-		return cells;
+
+	// Returns the cells of the snake, as indices into its board, tail first.
+	public SnakeBody getBody() {
+		return body;
+	}
+
+	// Replaces the body of the snake. Only for boards mirroring a remote game state.
+	public void setBody(SnakeBody body) {
+		this.body = body;
 	}
 
 	// Increases the growth pending for the snake.
@@ -61,40 +147,109 @@ public abstract class Snake extends Thread implements Serializable {
 		// TODO
 		// Abort the move if the cell is already occupied (Human Snake).
 		if (this instanceof HumanSnake && cell.isOccupied()) return;
-		// Request access to the cell for the snake.
-		cell.request(this);
+		// Request access to the cell for the snake, checking between waits whether it would wait forever: for a
+		// stopped snake, an obstacle that no longer moves, or snakes that all wait for each other. Then it gives up
+		// its move.
+		while (!cell.tryRequest(this, DEADLOCK_CHECK_INTERVAL, TimeUnit.MILLISECONDS)) {
+			if (board.shouldGiveWay(this, cell)) {
+				System.out.println(getName() + " gives way not to wait forever.");
+				onDeadlock();
+				return;
+			}
+		}
+		advance(cell, true);
+
+		// Publish the move to the consumers of the board's events, such as the GUI.
+		board.publish(BoardEvents.SNAKE_MOVED | BoardEvents.CELL_CHANGED);
+	}
+
+	// Called when the snake gave up a move not to wait forever. Its next move chooses a cell again.
+	protected void onDeadlock() {
+	}
+
+	// Moves the snake to a free cell without any locking. Only called by the tick engine, the only thread changing
+	// its board, which notifies the observers once per tick.
+	void moveWithoutLocking(Cell cell) {
+		cell.setOccupyingSnake(this);
+		advance(cell, false);
+		onTickMove();
+	}
+
+	// Chooses the cell the snake moves to on the next tick, or null to stay where it is. Never blocks; only
+	// called by the tick engine and the steps of a timing wheel. The choice stands until the snake gets there.
+	protected abstract Cell getTickTarget();
+
+	// Called once the snake moved to the cell its last call to getTickTarget() returned.
+	protected void onTickMove() {
+	}
+
+	// Runs one step of a snake moved by the timing wheel of its board: places the snake if it is not on the board
+	// yet, or else moves it to the cell its AI or player chose if that cell is free, trying again on the next step
+	// otherwise. Never blocks. Returns whether the snake keeps moving.
+	private boolean step() {
+		if (isLeaving) {
+			board.removeSnake(this);
+			releaseCells();
+			board.forgetSnake(this);
+			board.publish(BoardEvents.SNAKE_MOVED | BoardEvents.CELL_CHANGED);
+			return false;
+		}
+		if (board.isFinished()) return false;
+		if (getLength() == 0) {
+			placeWithoutWaiting();
+			return true;
+		}
+		isIdle = false;
+		Cell target = getTickTarget();
+		if (target != null && target.tryRequest(this)) {
+			advance(target, true);
+			onTickMove();
+			board.publish(BoardEvents.SNAKE_MOVED | BoardEvents.CELL_CHANGED);
+		}
+		return true;
+	}
+
+	// Releases every cell of the snake's body, waking the threads waiting for them.
+	public void releaseCells() {
+		for (int segment = 0; segment < body.getLength(); segment++) {
+			board.getCell(body.getIndex(segment)).release();
+		}
+	}
+
+	// Adds the cell the snake just occupied as its head, captures the goal on it, if any, and releases the tail.
+	private void advance(Cell cell, boolean isLocking) {
 		// Add the cell to the snake's path.
-		getCells().addLast(cell);
+		body.addHead(cell.getIndex());
 
 		// Check if the cell contains a goal.
 		if (cell.isOccupiedByGoal()) {
 			// Increment the growth pending for the snake as it captures the goal.
 			Goal goal = (Goal)cell.getGameElement();
 			increaseGrowthPending(goal.captureGoal());
-			Cell.goalCaptureAndMoveHandler(board);
+			if (isLocking) {
+				Cell.goalCaptureAndMoveHandler(cell);
+			} else {
+				Cell.goalCaptureAndMoveWithoutLocking(cell);
+			}
 		}
 
 		// Release the tail cell if the snake has not grown.
 		if (getLength() > size && growthPending == 0) {
-			BoardPosition tail = cells.removeFirst().getPosition();
-			board.getCell(tail).release();
+			Cell tail = board.getCell(body.removeTail());
+			if (isLocking) {
+				tail.release();
+			} else {
+				tail.setOccupyingSnake(null);
+			}
 		} else if (growthPending > 0) {
 			// If growth is pending, decrement it.
 			growthPending--;
 		}
-
-		// Notify the board that a change has occurred. This could be used to update the game state,
-		// refresh the UI, or notify other components that are observing the board.
-		board.setChanged();
 	}
 
-	// Returns a list of positions representing the snake's body.
-	public LinkedList<BoardPosition> getPath() {
-		LinkedList<BoardPosition> coordinates = new LinkedList<BoardPosition>();
-		for (Cell cell : cells) {
-			coordinates.add(cell.getPosition());
-		}
-		return coordinates;
+	// Returns the positions of the snake's body, tail first, as a view that follows the body without copying it.
+	public List<BoardPosition> getPath() {
+		return body.getPath();
 	}
 
 	// Checks if the snake is currently idle.
@@ -104,20 +259,47 @@ public abstract class Snake extends Thread implements Serializable {
 
 	// Determines the initial position of the snake on the board.
 	protected void doInitialPositioning() {
-		// Random position on the first column. At startup, the snake occupies a single cell.
+		// Random free position on the first column, from the board's index of free cells. At startup, the snake
+		// occupies a single cell.
 		int x = 0;
-		int y = (int) (Math.random() * Board.NUMBER_ROWS);
-		BoardPosition at = new BoardPosition(x, y);
-		while (board.getCell(at).isOccupied()) {
-			y = (int) (Math.random() * Board.NUMBER_ROWS);
-			at = new BoardPosition(x, y);
-		}
+		BoardPosition at = null;
 		try {
+			while ((at = board.getUnoccupiedPositionInColumn(x)) == null) {
+				Thread.sleep(Board.PLAYER_PLAY_INTERVAL); // Column full: wait for a snake to leave it.
+			}
 			board.getCell(at).request(this);
 		} catch (InterruptedException e1) {
-			System.out.println(currentThread().getName() + ": Interrupted.");
+			System.out.println(Thread.currentThread().getName() + ": Interrupted.");
+			Thread.currentThread().interrupt();
+			return; // Not placed.
 		}
-		cells.add(board.getCell(at));
+		body.addHead(board.getCell(at).getIndex());
 		System.out.println("Snake "+ getIdentification() + " starting at: " + getHead().getPosition());
 	}
+
+	// Places the snake on a random free cell of the first column like doInitialPositioning, without waiting when
+	// the column is full or another snake takes the cell first. Returns whether it did; a snake on a timing wheel
+	// tries again on its next step.
+	private boolean placeWithoutWaiting() {
+		BoardPosition at = board.getUnoccupiedPositionInColumn(0);
+		if (at == null) return false;
+		Cell cell = board.getCell(at);
+		if (!cell.tryRequest(this)) return false;
+		body.addHead(cell.getIndex());
+		System.out.println("Snake "+ getIdentification() + " starting at: " + getHead().getPosition());
+		return true;
+	}
+
+	// Places the snake on a random free cell of the first column without any locking, like doInitialPositioning.
+	// Returns false, leaving the snake off the board, if the column is full. Only called by the tick engine.
+	boolean doInitialPositioningWithoutLocking() {
+		BoardPosition at = board.getUnoccupiedPositionInColumn(0);
+		if (at == null) return false;
+		Cell cell = board.getCell(at);
+		cell.setOccupyingSnake(this);
+		body.addHead(cell.getIndex());
+		System.out.println("Snake "+ getIdentification() + " starting at: " + getHead().getPosition());
+		return true;
+	}
+
 }
\ No newline at end of file
@@ -0,0 +1,141 @@
+package game;
+
+import environment.BoardPosition;
+
+import java.lang.invoke.VarHandle;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/** Cells of a snake body, tail first, kept as cell indices ({@code x * rows + y}) in a ring buffer with a bitset
+ * of the indices it holds. Moving the head and the tail and checking whether the body covers a cell take
+ * constant time and allocate nothing once the ring is as long as the snake. Only the thread moving the snake
+ * changes the body; other threads may read it while it moves, and then see indices that are a step apart, so
+ * they check that consecutive segments are adjacent, or copy it with copyIndices(), which retries until it read
+ * the body between two changes, like a seqlock. The ring is replaced, never shrunk, when it grows, so a reader
+ * always indexes within the array it read.
+ */
+public class SnakeBody {
+	private static final int INITIAL_CAPACITY = 8; // Segments the ring holds before growing, a power of two.
+	private final int rows; // Number of rows of the board, to turn indices into positions.
+	private int[] ring = new int[INITIAL_CAPACITY]; // Cell indices of the segments, from the tail at slot tail.
+	private int tail = 0; // Slot of the tail in the ring.
+	private int length = 0; // Number of segments.
+	private long[] occupancy = new long[0]; // Bit of each cell index the body holds, grown to the highest index seen.
+	private List<BoardPosition> path; // View of the segments as positions, created on first use.
+	private volatile int version = 0; // Odd while the body changes, increased by two with every head or tail move.
+
+	public SnakeBody(int rows) {
+		this.rows = rows;
+	}
+
+	// Returns the number of segments.
+	public int getLength() {
+		return length;
+	}
+
+	// Returns the cell index of a segment, 0 being the tail.
+	public int getIndex(int segment) {
+		int[] ring = this.ring;
+		return ring[(tail + segment) & (ring.length - 1)];
+	}
+
+	// Returns the cell index of the head. The body must not be empty.
+	public int getHead() {
+		return getIndex(length - 1);
+	}
+
+	// Checks if a segment of the body is on the cell with the given index.
+	public boolean contains(int index) {
+		int word = index >>> 6;
+		return word < occupancy.length && (occupancy[word] & (1L << index)) != 0;
+	}
+
+	// Returns the version of the body, which changes with every move of the head or the tail, and is odd while
+	// one is under way.
+	public int getVersion() {
+		return version;
+	}
+
+	// Copies the cell indices of the segments, tail first, as they were between two changes, waiting for a
+	// change under way to end and copying again if one happened meanwhile.
+	public int[] copyIndices() {
+		while (true) {
+			int start = version;
+			if ((start & 1) != 0) {
+				Thread.onSpinWait();
+				continue;
+			}
+			int[] ring = this.ring;
+			int tail = this.tail;
+			int length = Math.min(this.length, ring.length);
+			int[] indices = new int[length];
+			for (int segment = 0; segment < length; segment++) {
+				indices[segment] = ring[(tail + segment) & (ring.length - 1)];
+			}
+			VarHandle.acquireFence(); // The reads above must not move past the check of the version.
+			if (version == start) return indices;
+		}
+	}
+
+	// Adds a segment in front of the head.
+	public void addHead(int index) {
+		beginChange();
+		if (length == ring.length) grow();
+		ring[(tail + length) & (ring.length - 1)] = index;
+		length++;
+		int word = index >>> 6;
+		if (word >= occupancy.length) {
+			occupancy = Arrays.copyOf(occupancy, Math.max(word + 1, occupancy.length * 2));
+		}
+		occupancy[word] |= 1L << index;
+		version++;
+	}
+
+	// Removes the tail and returns its cell index. The body must not be empty.
+	public int removeTail() {
+		beginChange();
+		int index = ring[tail];
+		tail = (tail + 1) & (ring.length - 1);
+		length--;
+		occupancy[index >>> 6] &= ~(1L << index); // A snake only moves into free cells, so no other segment holds it.
+		version++;
+		return index;
+	}
+
+	// Makes the version odd before the body changes. Only the thread moving the snake writes the version.
+	private void beginChange() {
+		version++;
+		VarHandle.storeStoreFence(); // The changes that follow must not move before the odd version.
+	}
+
+	// Returns the segments as positions, tail first. The list is a view: it follows the body without copying it.
+	public List<BoardPosition> getPath() {
+		if (path == null) {
+			path = new AbstractList<BoardPosition>() {
+				@Override
+				public BoardPosition get(int segment) {
+					if (segment < 0 || segment >= length) throw new IndexOutOfBoundsException(segment);
+					int index = getIndex(segment);
+					return new BoardPosition(index / rows, index % rows);
+				}
+
+				@Override
+				public int size() {
+					return length;
+				}
+			};
+		}
+		return path;
+	}
+
+	// Doubles the ring, moving the segments to its start.
+	private void grow() {
+		int[] larger = new int[ring.length * 2];
+		for (int segment = 0; segment < length; segment++) {
+			larger[segment] = getIndex(segment);
+		}
+		ring = larger;
+		tail = 0;
+	}
+}
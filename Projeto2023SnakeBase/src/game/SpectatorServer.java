@@ -0,0 +1,192 @@
+package game;
+
+import environment.Board;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Serves read-only spectator connections. Spectators get no snake and no per-client queue: a single event
+ * loop writes to each of them from a shared {@link FrameRing}, following it with a cursor per spectator, so
+ * thousands of viewers cost one thread and never slow down the broadcast thread. A spectator that falls
+ * behind the ring skips to the newest broadcast and gets the full game state.
+ */
+public class SpectatorServer implements Runnable {
+    public static final int DEFAULT_PORT = 12346; // Port on which spectators connect by default.
+    private final int port; // Port on which the server listens for spectators.
+    private final FrameRing ring = new FrameRing(); // Broadcasts waiting to be sent to the spectators.
+    private final List<Spectator> spectators = new ArrayList<>(); // Connected spectators, only used by the event loop.
+    private final ByteBuffer discarded = ByteBuffer.allocate(256); // Input sent by spectators, ignored.
+    private Selector selector; // Selector for the server channel and the spectator channels.
+    private ServerSocketChannel serverChannel; // Channel listening for spectators.
+    private long lastHead = 0; // Last broadcast handed to the spectators, only used by the event loop.
+
+    public SpectatorServer(int port) {
+        this.port = port;
+    }
+
+    // Opens the port and starts the event loop on its own thread.
+    public void start() throws IOException {
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        new Thread(this, "SpectatorServer").start();
+        System.out.println("Accepting spectators on port " + port + ".");
+    }
+
+    // Adds a broadcast to the ring and wakes the event loop. Only called by the broadcast thread, never blocks.
+    public void publish(Broadcast broadcast) {
+        ring.publish(broadcast);
+        if (selector != null) selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        while (serverChannel.isOpen()) {
+            try {
+                selector.select();
+                processSelectedKeys();
+                long head = ring.getHead();
+                if (head != lastHead) {
+                    lastHead = head;
+                    for (Spectator spectator : new ArrayList<>(spectators)) {
+                        spectator.flush();
+                    }
+                    if (head % Board.KEYFRAME_INTERVAL == 0 && !spectators.isEmpty()) {
+                        System.out.println("Active spectators: " + spectators.size() + ".");
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("Exception in spectator event loop: " + e.getMessage() + ".");
+            }
+        }
+    }
+
+    // Dispatches accept, read and write readiness events.
+    private void processSelectedKeys() throws IOException {
+        Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+        while (iterator.hasNext()) {
+            SelectionKey key = iterator.next();
+            iterator.remove();
+            if (!key.isValid()) continue;
+            if (key.isAcceptable()) {
+                acceptSpectators();
+                continue;
+            }
+            Spectator spectator = (Spectator) key.attachment();
+            if (key.isReadable()) spectator.read();
+            if (key.isValid() && key.isWritable()) spectator.flush();
+        }
+    }
+
+    // Accepts all pending spectator connections.
+    private void acceptSpectators() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            Spectator spectator = new Spectator(channel);
+            channel.register(selector, SelectionKey.OP_READ, spectator);
+            spectators.add(spectator);
+            System.out.println("New spectator " + spectator.port + ". " + channel.socket().getInetAddress().getHostAddress());
+            spectator.flush();
+        }
+    }
+
+    // State of a single spectator connection. Only accessed by the event loop.
+    private class Spectator {
+        private final SocketChannel channel; // Channel representing the spectator connection.
+        private final int port; // Remote port, used to identify the spectator.
+        private long cursor; // Sequence number of the next broadcast to send.
+        private ByteBuffer frame; // Frame being written, null if none.
+        private boolean needsKeyframe = true; // Whether the next frame must hold the full game state.
+
+        public Spectator(SocketChannel channel) {
+            this.channel = channel;
+            this.port = channel.socket().getPort();
+            this.cursor = Math.max(1, ring.getHead()); // Start with the newest broadcast.
+        }
+
+        // Discards the input of the spectator, only checking whether it disconnected.
+        private void read() {
+            try {
+                int count;
+                do {
+                    discarded.clear();
+                    count = channel.read(discarded);
+                } while (count > 0);
+                if (count == -1) {
+                    System.out.println("Spectator " + port + " disconnected.");
+                    close();
+                }
+            } catch (IOException e) {
+                System.err.println("Spectator " + port + " disconnected.");
+                close();
+            }
+        }
+
+        // Writes the broadcasts from the cursor up to the newest one, until the socket buffer is full.
+        private void flush() {
+            try {
+                while (true) {
+                    if (frame != null) {
+                        channel.write(frame);
+                        if (frame.hasRemaining()) {
+                            interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                            return;
+                        }
+                        frame = null;
+                    }
+                    if (cursor > ring.getHead()) {
+                        interestOps(SelectionKey.OP_READ); // Up to date, wait for the next broadcast.
+                        return;
+                    }
+                    Broadcast broadcast = ring.get(cursor);
+                    if (broadcast == null) {
+                        // Overwritten while this spectator was behind: skip to the newest broadcast.
+                        cursor = ring.getHead();
+                        needsKeyframe = true;
+                        continue;
+                    }
+                    if (broadcast.sendsKeyframe(needsKeyframe)) {
+                        frame = broadcast.frameFor(true);
+                        needsKeyframe = false;
+                    } else {
+                        frame = broadcast.frameFor(false);
+                    }
+                    cursor++;
+                }
+            } catch (IOException e) {
+                System.err.println("Exception on sending game state to spectator " + port + ". " + e.getMessage() + ".");
+                close();
+            }
+        }
+
+        // Updates the readiness events this spectator is interested in.
+        private void interestOps(int ops) {
+            SelectionKey key = channel.keyFor(selector);
+            if (key != null && key.isValid() && key.interestOps() != ops) {
+                key.interestOps(ops);
+            }
+        }
+
+        // Closes the spectator connection.
+        private void close() {
+            if (!spectators.remove(this)) return;
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.err.println("Exception on closing spectator connection: " + e.getMessage() + ".");
+            }
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package game;
+
+import environment.Board;
+import environment.BoardEvents;
+import environment.BoardPosition;
+import environment.Cell;
+import environment.LocalBoard;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/** Advances the whole game on a single thread, one tick per player interval, instead of one thread per snake
+ * and a pool of obstacle movers. Each tick places the snakes that joined, moves every snake in the order of
+ * the snake list, with its AI or its player's latest input choosing the cell, and moves the obstacles; only
+ * then are the observers notified. Cells are changed without locks, as no other thread changes them, and
+ * every random choice comes from the board, so the same seed and the same inputs give the same game.
+ *
+ * With more than one region the board is split into a grid of rectangular regions, and the snakes are moved
+ * region by region on a ForkJoin pool, each snake by the worker of the region holding its head. A tick then
+ * has three phases: every worker chooses the targets of its snakes while the board does not change, keeping
+ * only targets free at that point; every worker applies the moves whose target lies in its own region, in
+ * snake list order, so only that worker changes the target cells; the moves into another region or onto a
+ * goal are applied last, on the engine thread, in snake list order. A cell freed by a tail is therefore only
+ * free for the next tick, and the same seed, inputs and number of regions give the same game.
+ */
+public class TickEngine implements Runnable {
+	private static final long SETUP_TICKS = Board.REMOTE_CONNECTION_SETUP_DELAY / Board.PLAYER_PLAY_INTERVAL; // Ticks before the automatic snakes and obstacles start.
+	private static final long OBSTACLE_TICKS = Obstacle.OBSTACLE_MOVE_INTERVAL / Board.PLAYER_PLAY_INTERVAL; // Ticks between two moves of an obstacle.
+	private final LocalBoard board; // Board advanced by this engine.
+	private final Queue<Snake> leavingSnakes = new ConcurrentLinkedQueue<>(); // Snakes whose players left, removed on the next tick.
+	private final Queue<Obstacle> waitingObstacles = new ArrayDeque<>(); // Obstacles not moving yet, in board order.
+	private final List<MovingObstacle> movingObstacles = new ArrayList<>(); // Obstacles currently moving, at most NUM_SIMULTANEOUS_MOVING_OBSTACLES.
+	private final Thread thread = new Thread(this, "TickEngine"); // Thread running the ticks.
+	private final int regionColumns; // Number of regions across the board.
+	private final int regionRows; // Number of regions down the board.
+	private final ForkJoinPool pool; // Workers moving the snakes of each region, null with a single region.
+	private long tick = 0; // Number of ticks run so far.
+
+	public TickEngine(LocalBoard board) {
+		this(board, 1);
+	}
+
+	// Creates an engine splitting the board into the given number of regions, moved in parallel when above one.
+	public TickEngine(LocalBoard board, int regions) {
+		this.board = board;
+		int columns = 1;
+		for (int divisor = 1; divisor * divisor <= regions; divisor++) {
+			if (regions % divisor == 0) columns = divisor; // Closest to a square grid.
+		}
+		regionColumns = Math.min(columns, board.getColumns());
+		regionRows = Math.min(regions / columns, board.getRows());
+		pool = regions > 1 ? new ForkJoinPool(Math.min(regions, Runtime.getRuntime().availableProcessors())) : null;
+	}
+
+	// Starts running one tick per player interval on the engine thread.
+	public void start() {
+		thread.start();
+		System.out.println("Tick engine started: one tick every " + Board.PLAYER_PLAY_INTERVAL + " ms, "
+				+ regionColumns + "x" + regionRows + " regions.");
+	}
+
+	// Removes a snake whose player left, with its cells, before the next tick. Safe to call from any thread.
+	public void removeSnake(Snake snake) {
+		leavingSnakes.add(snake);
+	}
+
+	// Returns the number of ticks run so far.
+	public long getTick() {
+		return tick;
+	}
+
+	@Override
+	public void run() {
+		long nextTick = System.nanoTime();
+		while (!Thread.currentThread().isInterrupted() && !board.isFinished()) {
+			long start = System.nanoTime();
+			tick();
+			long duration = System.nanoTime() - start;
+			if (duration > Board.PLAYER_PLAY_INTERVAL * 1_000_000) {
+				System.err.println("Tick " + tick + " took " + duration / 1_000_000 + " ms, longer than the player interval.");
+			}
+			nextTick += Board.PLAYER_PLAY_INTERVAL * 1_000_000;
+			long delay = nextTick - System.nanoTime();
+			if (delay < 0) {
+				nextTick = System.nanoTime(); // Running late: start the next tick now instead of catching up.
+				continue;
+			}
+			try {
+				Thread.sleep(delay / 1_000_000, (int) (delay % 1_000_000));
+			} catch (InterruptedException e) {
+				System.out.println(Thread.currentThread().getName() + ": Interrupted.");
+				Thread.currentThread().interrupt();
+			}
+		}
+		System.out.println(Thread.currentThread().getName() + ": Exiting run method.");
+	}
+
+	// Advances the game by one tick. Only called by the engine thread, or directly when the engine is not started.
+	public void tick() {
+		if (tick == 0) {
+			waitingObstacles.addAll(board.getObstacles());
+		}
+		removeLeavingSnakes();
+		if (pool == null) {
+			for (Snake snake : board.getSnakes()) {
+				if (board.isFinished()) break;
+				if (!isReadyToMove(snake)) continue;
+				Cell target = snake.getTickTarget();
+				// A snake heading to an occupied cell waits for it, trying again on the next tick.
+				if (target != null && !target.isOccupied()) {
+					snake.moveWithoutLocking(target);
+				}
+			}
+		} else {
+			moveSnakesByRegion();
+		}
+		if (!board.isFinished()) {
+			moveObstacles();
+		}
+		tick++;
+		board.updateSnapshot(); // The state after the whole tick, for the threads only reading the board.
+		board.publish(BoardEvents.SNAKE_MOVED | BoardEvents.CELL_CHANGED);
+	}
+
+	// Places a snake that joined since the last tick and returns whether the snake may move on this tick.
+	private boolean isReadyToMove(Snake snake) {
+		if (snake.getLength() == 0) {
+			snake.doInitialPositioningWithoutLocking(); // Joined since the last tick, moves from the next one.
+			return false;
+		}
+		if (snake instanceof AutomaticSnake) {
+			if (tick < SETUP_TICKS) return false; // Wait for the remote players to connect.
+			snake.isIdle = false;
+		}
+		return true;
+	}
+
+	// Moves the snakes of every region in parallel, then the moves leaving their region, as described above.
+	private void moveSnakesByRegion() {
+		List<List<Move>> regions = new ArrayList<>();
+		for (int region = 0; region < regionColumns * regionRows; region++) {
+			regions.add(new ArrayList<>());
+		}
+		List<Move> moves = new ArrayList<>();
+		for (Snake snake : board.getSnakes()) {
+			if (board.isFinished()) return;
+			if (!isReadyToMove(snake)) continue;
+			Move move = new Move(snake);
+			moves.add(move);
+			regions.get(getRegion(snake.getHead())).add(move);
+		}
+
+		// Choose the targets while the board does not change.
+		runInRegions(regions, move -> {
+			Cell target = move.snake.getTickTarget();
+			if (target != null && !target.isOccupied()) {
+				move.target = target;
+				move.isLocal = !target.isOccupiedByGoal() && getRegion(target) == getRegion(move.snake.getHead());
+			}
+		});
+		// Apply the moves inside each region. Only the worker of a region changes its target cells, and the tails
+		// it frees elsewhere are no target on this tick.
+		runInRegions(regions, move -> {
+			if (move.isLocal && !move.target.isOccupied()) {
+				move.snake.moveWithoutLocking(move.target);
+			}
+		});
+		// Apply the moves into another region or onto a goal, in snake list order.
+		for (Move move : moves) {
+			if (board.isFinished()) break;
+			if (move.target != null && !move.isLocal && !move.target.isOccupied()) {
+				move.snake.moveWithoutLocking(move.target);
+			}
+		}
+	}
+
+	// Runs a step for the moves of every region on the pool, each region on one worker in snake list order, and
+	// waits for all of them.
+	private void runInRegions(List<List<Move>> regions, MoveStep step) {
+		List<Callable<Void>> tasks = new ArrayList<>();
+		for (List<Move> moves : regions) {
+			if (moves.isEmpty()) continue;
+			tasks.add(() -> {
+				for (Move move : moves) {
+					step.run(move);
+				}
+				return null;
+			});
+		}
+		for (Future<Void> result : pool.invokeAll(tasks)) {
+			try {
+				result.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException e) {
+				System.err.println("Exception moving the snakes of a region: " + e.getCause() + ".");
+			}
+		}
+	}
+
+	// Returns the region holding a cell.
+	private int getRegion(Cell cell) {
+		BoardPosition position = cell.getPosition();
+		return position.x * regionColumns / board.getColumns() * regionRows + position.y * regionRows / board.getRows();
+	}
+
+	// Frees the cells of the snakes whose players left and takes them off the board.
+	private void removeLeavingSnakes() {
+		Snake snake;
+		while ((snake = leavingSnakes.poll()) != null) {
+			board.removeSnake(snake);
+			SnakeBody body = snake.getBody();
+			for (int segment = 0; segment < body.getLength(); segment++) {
+				board.getCell(body.getIndex(segment)).setOccupyingSnake(null);
+			}
+			board.forgetSnake(snake);
+		}
+	}
+
+	// Moves the obstacles whose interval elapsed, keeping as many moving at once as the obstacle mover pool would.
+	private void moveObstacles() {
+		if (tick < SETUP_TICKS) return;
+		while (movingObstacles.size() < LocalBoard.NUM_SIMULTANEOUS_MOVING_OBSTACLES && !waitingObstacles.isEmpty()) {
+			movingObstacles.add(new MovingObstacle(waitingObstacles.poll(), tick + OBSTACLE_TICKS));
+		}
+		for (Iterator<MovingObstacle> iterator = movingObstacles.iterator(); iterator.hasNext(); ) {
+			MovingObstacle moving = iterator.next();
+			if (tick >= moving.nextMoveTick) {
+				Cell.obstacleMoveWithoutLocking(moving.obstacle);
+				moving.nextMoveTick += OBSTACLE_TICKS;
+			}
+			if (moving.obstacle.getRemainingMoves() <= 0) {
+				iterator.remove();
+			}
+		}
+	}
+
+	// Move of a snake on the current tick.
+	private static class Move {
+		private final Snake snake; // Snake moving.
+		private Cell target; // Cell the snake moves to, null if it waits.
+		private boolean isLocal; // Whether the target lies in the region of the snake's head, without a goal on it.
+
+		private Move(Snake snake) {
+			this.snake = snake;
+		}
+	}
+
+	// Step applied to each move of a region.
+	private interface MoveStep {
+		void run(Move move);
+	}
+
+	// Obstacle taking its moves, with the tick of its next one.
+	private static class MovingObstacle {
+		private final Obstacle obstacle; // Obstacle being moved.
+		private long nextMoveTick; // Tick on which it moves next.
+
+		private MovingObstacle(Obstacle obstacle, long nextMoveTick) {
+			this.obstacle = obstacle;
+			this.nextMoveTick = nextMoveTick;
+		}
+	}
+}
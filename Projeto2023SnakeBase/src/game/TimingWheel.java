@@ -0,0 +1,203 @@
+package game;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/** Runs the timed steps of the game (snake moves, obstacle moves, delayed starts) as short tasks on a small pool
+ * of workers, instead of a thread sleeping between the steps of each snake and obstacle. Time is cut into ticks
+ * of {@link #TICK} ms, and the timers waiting for a tick are kept in a hierarchy of wheels of 64 slots: the first
+ * wheel holds the timers due within the current 64 ticks, one slot per tick, the next one those due within the
+ * current 4096 ticks, one slot per 64 ticks, and so on. A single timer thread wakes up on every tick, moves the
+ * timers of the next slot of a higher wheel down when a lower wheel wraps around, and hands the timers of the
+ * current slot to the workers. Scheduling, expiring and cancelling a timer take constant time whatever the number
+ * of timers, so steps run at most about a tick late as long as the workers keep up.
+ *
+ * A repeating timer is scheduled again only once its step returned, at its previous deadline plus its interval,
+ * so the steps of one entity never overlap and do not drift. Steps must not block: a worker held by one delays
+ * every other step.
+ */
+public class TimingWheel {
+	public static final long TICK = 5; // Length of a tick in milliseconds, the resolution of the timers.
+	private static final int SLOT_BITS = 6; // Bits of a deadline each wheel covers.
+	private static final int SLOTS = 1 << SLOT_BITS; // Slots of each wheel.
+	private static final int LEVELS = 4; // Number of wheels, covering 2^24 ticks, about a day.
+	private final Timer[] slots = new Timer[LEVELS * SLOTS]; // First timer of each slot of each wheel, chained through next.
+	private final Lock lock = new ReentrantLock(); // Guards the slots and the current tick.
+	private final ExecutorService workers; // Workers running the expired steps.
+	private final Thread thread = new Thread(this::run, "TimingWheel"); // Thread advancing the wheels.
+	private long start; // Time in nanoseconds of tick 0.
+	private long tick = 0; // Last tick whose timers were handed to the workers.
+	private volatile boolean isShutdown = false; // Whether the timers were all cancelled.
+	private final LongAdder steps = new LongAdder(); // Number of steps run.
+	private final LongAdder lateNanos = new LongAdder(); // Time between the deadlines of the steps and their start, in all.
+	private final LongAccumulator maxLateNanos = new LongAccumulator(Math::max, 0); // Longest time a step started late.
+
+	// Creates a wheel whose steps run on the given number of workers.
+	public TimingWheel(int workerCount) {
+		workers = Executors.newFixedThreadPool(workerCount, ExecutionMode.PLATFORM.threadFactory("Timing wheel worker"));
+		thread.setDaemon(true);
+	}
+
+	// Starts advancing the wheels. Timers scheduled before run from now on.
+	public void start() {
+		lock.lock();
+		try {
+			start = System.nanoTime();
+		} finally {
+			lock.unlock();
+		}
+		thread.start();
+		System.out.println("Timing wheel started: " + TICK + " ms ticks.");
+	}
+
+	// Schedules a step to run after the given delay, and then every interval for as long as it returns true.
+	// Delays and intervals are in milliseconds, rounded up to whole ticks.
+	public Timer schedule(Task task, long delay, long interval) {
+		Timer timer = new Timer(task, Math.max(1, (interval + TICK - 1) / TICK));
+		lock.lock();
+		try {
+			timer.deadline = tick + Math.max(1, (delay + TICK - 1) / TICK);
+			add(timer, false);
+		} finally {
+			lock.unlock();
+		}
+		return timer;
+	}
+
+	// Cancels every timer and stops the timer thread and the workers. Steps already running finish; may be
+	// called from one of them.
+	public void shutdown() {
+		isShutdown = true;
+		thread.interrupt();
+		workers.shutdown();
+	}
+
+	// Returns how many steps ran and how late they started, on average and at most.
+	public String getStatistics() {
+		long count = Math.max(1, steps.sum());
+		return "Timing wheel ran " + steps.sum() + " steps, " + lateNanos.sum() / count / 1000 + " us late on average and "
+				+ maxLateNanos.get() / 1_000_000 + " ms at most.";
+	}
+
+	// Advances the wheels one tick at a time, handing the timers due to the workers.
+	private void run() {
+		while (!isShutdown) {
+			long deadline = start + (tick + 1) * TICK * 1_000_000;
+			long delay = deadline - System.nanoTime();
+			if (delay > 0) {
+				LockSupport.parkNanos(this, delay); // Checked again: parking may end early.
+				continue;
+			}
+			Timer expired;
+			lock.lock();
+			try {
+				tick++;
+				// Move the timers of the slots a lower wheel just reached down, the highest wheel first.
+				for (int level = LEVELS - 1; level > 0; level--) {
+					if ((tick & ((1L << (level * SLOT_BITS)) - 1)) == 0) {
+						int slot = level * SLOTS + (int) ((tick >>> (level * SLOT_BITS)) & (SLOTS - 1));
+						Timer timer = slots[slot];
+						slots[slot] = null;
+						while (timer != null) {
+							Timer next = timer.next;
+							if (!timer.isCancelled) add(timer, true);
+							timer = next;
+						}
+					}
+				}
+				int slot = (int) (tick & (SLOTS - 1));
+				expired = slots[slot];
+				slots[slot] = null;
+			} finally {
+				lock.unlock();
+			}
+			while (expired != null) {
+				Timer next = expired.next; // Read first: the timer may be scheduled again as soon as it runs.
+				expired.next = null;
+				if (!expired.isCancelled) {
+					try {
+						workers.execute(expired);
+					} catch (RejectedExecutionException e) {
+						break; // Shut down.
+					}
+				}
+				expired = next;
+			}
+		}
+		System.out.println(Thread.currentThread().getName() + ": Exiting run method.");
+	}
+
+	// Puts a timer in the slot of its deadline, in the lowest wheel whose current turn holds it. Called under the
+	// lock. A deadline already passed is moved to the next tick; when cascading, a deadline on the current tick
+	// stays, as its slot is handed to the workers right after.
+	private void add(Timer timer, boolean isCascading) {
+		long earliest = isCascading ? tick : tick + 1; // First tick whose slot is still to be handed to the workers.
+		if (timer.deadline < earliest) timer.deadline = earliest;
+		int level = 0;
+		while (level < LEVELS - 1 && (timer.deadline >>> ((level + 1) * SLOT_BITS)) != (tick >>> ((level + 1) * SLOT_BITS))) {
+			level++;
+		}
+		int slot = level * SLOTS + (int) ((timer.deadline >>> (level * SLOT_BITS)) & (SLOTS - 1));
+		timer.next = slots[slot];
+		slots[slot] = timer;
+	}
+
+	// Runs an expired timer on a worker and schedules it again if its step asks for it.
+	private void run(Timer timer) {
+		long late = System.nanoTime() - (start + timer.deadline * TICK * 1_000_000);
+		steps.increment();
+		lateNanos.add(Math.max(0, late));
+		maxLateNanos.accumulate(late);
+		boolean isRepeating;
+		try {
+			isRepeating = timer.task.run();
+		} catch (RuntimeException e) {
+			System.err.println("Exception in a timed step: " + e + ".");
+			isRepeating = false;
+		}
+		if (!isRepeating || timer.isCancelled || isShutdown) return;
+		lock.lock();
+		try {
+			timer.deadline += timer.interval;
+			add(timer, false);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// Step run by a timer.
+	public interface Task {
+		// Runs the step without blocking and returns whether to run it again after the interval.
+		boolean run();
+	}
+
+	// Timer of a step, to cancel it.
+	public class Timer implements Runnable {
+		private final Task task; // Step to run.
+		private final long interval; // Ticks between two runs.
+		private long deadline; // Tick of the next run.
+		private Timer next; // Next timer of the same slot.
+		private volatile boolean isCancelled = false; // Whether the step must not run again.
+
+		private Timer(Task task, long interval) {
+			this.task = task;
+			this.interval = interval;
+		}
+
+		// Keeps the step from running again. A run already started finishes.
+		public void cancel() {
+			isCancelled = true;
+		}
+
+		@Override
+		public void run() {
+			if (!isCancelled && !isShutdown) TimingWheel.this.run(this);
+		}
+	}
+}
@@ -1,9 +1,10 @@
 package gui;
 
-import environment.LocalBoard;
 import environment.Board;
 import environment.BoardPosition;
+import environment.BoardSnapshot;
 import environment.Cell;
+import environment.LocalBoard;
 
 import game.Goal;
 import game.HumanSnake;
@@ -18,6 +19,9 @@ import java.awt.Graphics2D;
 import java.awt.Image;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.swing.ImageIcon;
 import javax.swing.JComponent;
@@ -43,11 +47,17 @@ public class BoardComponent extends JComponent implements KeyListener {
     @Override
     protected void paintComponent(Graphics g) {
         super.paintComponent(g);
-        final double CELL_WIDTH = getHeight() / (double) SnakeGui.NUM_ROWS;
+        final int columns = board.getColumns();
+        final int rows = board.getRows();
+        final double CELL_WIDTH = Math.min(getWidth() / (double) columns, getHeight() / (double) rows);
+        if (board instanceof LocalBoard) {
+            paintSnapshot(g, board.getSnapshot(), CELL_WIDTH);
+            return;
+        }
 
 		// Iterate over each cell and render its contents.
-        for (int x = 0; x < LocalBoard.NUMBER_COLUMNS; x++) {
-            for (int y = 0; y < LocalBoard.NUMBER_ROWS; y++) {
+        for (int x = 0; x < columns; x++) {
+            for (int y = 0; y < rows; y++) {
                 Cell cell = board.getCell(new BoardPosition(x, y));
                 Image image = null;
                 if (cell.getGameElement() != null)
@@ -84,30 +94,83 @@ public class BoardComponent extends JComponent implements KeyListener {
             }
             g.setColor(Color.BLACK);
             g.drawLine((int) Math.round(x * CELL_WIDTH), 0, (int) Math.round(x * CELL_WIDTH),
-                    (int) Math.round(LocalBoard.NUMBER_ROWS * CELL_WIDTH));
+                    (int) Math.round(rows * CELL_WIDTH));
         }
-        for (int y = 1; y < LocalBoard.NUMBER_ROWS; y++) {
-            g.drawLine(0, (int) Math.round(y * CELL_WIDTH), (int) Math.round(LocalBoard.NUMBER_COLUMNS * CELL_WIDTH),
+        for (int y = 1; y < rows; y++) {
+            g.drawLine(0, (int) Math.round(y * CELL_WIDTH), (int) Math.round(columns * CELL_WIDTH),
                     (int) Math.round(y * CELL_WIDTH));
         }
         for (Snake s : board.getSnakes()) {
-            if (s.getLength() > 0) {
-                g.setColor(new Color(s.getIdentification() * 1000));
-
-                ((Graphics2D) g).setStroke(new BasicStroke(5));
-                BoardPosition prevPos = s.getPath().getFirst();
-                for (BoardPosition coordinate : s.getPath()) {
-                    if (prevPos != null) {
-                        g.drawLine((int) Math.round((prevPos.x + .5) * CELL_WIDTH),
-                                (int) Math.round((prevPos.y + .5) * CELL_WIDTH),
-                                (int) Math.round((coordinate.x + .5) * CELL_WIDTH),
-                                (int) Math.round((coordinate.y + .5) * CELL_WIDTH));
-                    }
-                    prevPos = coordinate;
+            drawPath(g, s.getIdentification(), board.getRenderedPath(s), CELL_WIDTH); // Interpolated on remote boards.
+        }
+    }
+
+    // Paints a snapshot of a local board, the same way as the live cells and snakes of a remote board, without
+    // reading anything the snakes change while it is painted.
+    private void paintSnapshot(Graphics g, BoardSnapshot snapshot, double CELL_WIDTH) {
+        final int columns = snapshot.getColumns();
+        final int rows = snapshot.getRows();
+        for (int x = 0; x < columns; x++) {
+            for (int y = 0; y < rows; y++) {
+                int index = x * rows + y;
+                if (snapshot.isObstacleAt(index)) {
+                    g.setColor(Color.BLACK);
+                    g.drawImage(obstacleImage, (int) Math.round(x * CELL_WIDTH), (int) Math.round(y * CELL_WIDTH),
+                            (int) Math.round(CELL_WIDTH), (int) Math.round(CELL_WIDTH), null);
+                    g.setColor(Color.WHITE);
+                    g.setFont(new Font(Font.MONOSPACED, Font.PLAIN, (int) CELL_WIDTH));
+                    g.drawString(snapshot.getElementValue(index) + "", (int) Math.round((x + 0.15) * CELL_WIDTH),
+                            (int) Math.round((y + 0.9) * CELL_WIDTH));
+                } else if (snapshot.isGoalAt(index)) {
+                    g.setColor(Color.RED);
+                    g.setFont(new Font(Font.MONOSPACED, Font.PLAIN, (int) CELL_WIDTH));
+                    g.drawString(snapshot.getElementValue(index) + "", (int) Math.round((x + 0.15) * CELL_WIDTH),
+                            (int) Math.round((y + 0.9) * CELL_WIDTH));
                 }
-                ((Graphics2D) g).setStroke(new BasicStroke(1));
             }
         }
+        for (int snake = 0; snake < snapshot.getSnakeCount(); snake++) {
+            // Different color for human player.
+            g.setColor(snapshot.isHuman(snake) ? Color.ORANGE : Color.LIGHT_GRAY);
+            for (int segment = 0; segment < snapshot.getLength(snake); segment++) {
+                int index = snapshot.getIndex(snake, segment);
+                g.fillRect((int) Math.round(index / rows * CELL_WIDTH), (int) Math.round(index % rows * CELL_WIDTH),
+                        (int) Math.round(CELL_WIDTH), (int) Math.round(CELL_WIDTH));
+            }
+        }
+        g.setColor(Color.BLACK);
+        for (int x = 0; x < columns; x++) {
+            g.drawLine((int) Math.round(x * CELL_WIDTH), 0, (int) Math.round(x * CELL_WIDTH),
+                    (int) Math.round(rows * CELL_WIDTH));
+        }
+        for (int y = 1; y < rows; y++) {
+            g.drawLine(0, (int) Math.round(y * CELL_WIDTH), (int) Math.round(columns * CELL_WIDTH),
+                    (int) Math.round(y * CELL_WIDTH));
+        }
+        for (int snake = 0; snake < snapshot.getSnakeCount(); snake++) {
+            List<Point2D.Double> path = new ArrayList<>();
+            for (int segment = 0; segment < snapshot.getLength(snake); segment++) {
+                int index = snapshot.getIndex(snake, segment);
+                path.add(new Point2D.Double(index / rows, index % rows));
+            }
+            drawPath(g, snapshot.getSnakeId(snake), path, CELL_WIDTH);
+        }
+    }
+
+    // Draws the line of a snake through the centers of its cells.
+    private void drawPath(Graphics g, int id, List<Point2D.Double> path, double CELL_WIDTH) {
+        if (path.isEmpty()) return;
+        g.setColor(new Color(id * 1000));
+        ((Graphics2D) g).setStroke(new BasicStroke(5));
+        Point2D.Double prevPos = path.get(0);
+        for (Point2D.Double coordinate : path) {
+            g.drawLine((int) Math.round((prevPos.x + .5) * CELL_WIDTH),
+                    (int) Math.round((prevPos.y + .5) * CELL_WIDTH),
+                    (int) Math.round((coordinate.x + .5) * CELL_WIDTH),
+                    (int) Math.round((coordinate.y + .5) * CELL_WIDTH));
+            prevPos = coordinate;
+        }
+        ((Graphics2D) g).setStroke(new BasicStroke(1));
     }
 
     // Only for remote clients: 2. part of the project.
@@ -2,16 +2,88 @@ package gui;
 
 import environment.LocalBoard;
 
+import game.ExecutionMode;
+import game.NioServer;
+import game.ReplayRecorder;
 import game.Server;
+import game.SpectatorServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Paths;
+import java.util.Arrays;
 
 public class Main {
 	public static void main(String[] args) {
-		LocalBoard board = new LocalBoard(); // Create a local game board.
+		if (hasOption(args, "--virtual")) {
+			ExecutionMode.set(ExecutionMode.VIRTUAL); // Run snakes, obstacle movers and connection handlers on virtual threads.
+		}
+		if (hasOption(args, "--scheduled")) {
+			ExecutionMode.set(ExecutionMode.SCHEDULED); // Run snakes and obstacle movers as steps of a timing wheel.
+		}
+		String seed = getOption(args, "--seed="); // Seed of every random choice, to replay a game.
+		String size = getOption(args, "--size="); // Board size as columns x rows, 30x30 by default.
+		int columns = size != null ? Integer.parseInt(size.substring(0, size.indexOf('x'))) : LocalBoard.NUMBER_COLUMNS;
+		int rows = size != null ? Integer.parseInt(size.substring(size.indexOf('x') + 1)) : LocalBoard.NUMBER_ROWS;
+		// With --tick a single tick engine moves every snake and obstacle instead of a thread each.
+		String regions = getOption(args, "--regions="); // Regions whose snakes the tick engine moves in parallel.
+		String goals = getOption(args, "--goals="); // Number of goals on the board at once, 1 by default.
+		LocalBoard board = new LocalBoard(columns, rows, seed != null ? Long.parseLong(seed) : System.nanoTime(),
+				hasOption(args, "--tick") || regions != null, regions != null ? Integer.parseInt(regions) : 1,
+				goals != null ? Integer.parseInt(goals) : 1); // Create a local game board.
+		String record = getOption(args, "--record="); // Log file the game is recorded to, for remote.ReplayPlayer.
+		if (record != null) {
+			try {
+				new ReplayRecorder(board, Paths.get(record)).start();
+			} catch (IOException e) {
+				System.err.println("Cannot record the game to " + record + ": " + e.getMessage());
+			}
+		}
 		SnakeGui game = new SnakeGui(board,100,0);  // Initialize the graphical user interface (GUI) for the game.
 		game.init(); // Initialize game components and start the GUI.
 		// TODO
 		// Create and launch the server to handle remote connections. The server uses the same local board as the GUI.
-		Server server = new Server(board);
-		server.runServer(); // Start the server to listen for incoming client connections.
+		boolean isDeltaBroadcast = hasOption(args, "--delta"); // Send only the changes between full game states.
+		String lagBudget = getOption(args, "--lag-budget="); // Time a client may stay behind before being disconnected.
+		String refreshInterval = getOption(args, "--refresh-interval="); // Time between two broadcasts.
+		String multicast = getOption(args, "--multicast="); // Group and port each broadcast is also published to.
+		String spectatorPort = getOption(args, "--spectator-port="); // Port for read-only spectators.
+		if (spectatorPort == null && hasOption(args, "--spectators")) spectatorPort = String.valueOf(SpectatorServer.DEFAULT_PORT);
+		if (hasOption(args, "--nio")) {
+			NioServer server = new NioServer(board, isDeltaBroadcast); // Non-blocking server with a fixed set of event loops.
+			if (lagBudget != null) server.setLagBudget(Long.parseLong(lagBudget));
+			if (refreshInterval != null) server.setRefreshInterval(Long.parseLong(refreshInterval));
+			if (multicast != null) server.setMulticast(parseAddress(multicast));
+			if (spectatorPort != null) server.setSpectatorPort(Integer.parseInt(spectatorPort));
+			server.runServer();
+		} else {
+			Server server = new Server(board, isDeltaBroadcast);
+			if (lagBudget != null) server.setLagBudget(Long.parseLong(lagBudget));
+			if (refreshInterval != null) server.setRefreshInterval(Long.parseLong(refreshInterval));
+			if (multicast != null) server.setMulticast(parseAddress(multicast));
+			if (spectatorPort != null) server.setSpectatorPort(Integer.parseInt(spectatorPort));
+			server.runServer(); // Start the server to listen for incoming client connections.
+		}
+	}
+
+	// Parses an address given as host:port.
+	static InetSocketAddress parseAddress(String address) {
+		int separator = address.lastIndexOf(':');
+		return new InetSocketAddress(address.substring(0, separator), Integer.parseInt(address.substring(separator + 1)));
+	}
+
+	// Checks if a launch option was given on the command line.
+	static boolean hasOption(String[] args, String option) {
+		return Arrays.asList(args).contains(option);
+	}
+
+	// Returns the value of a launch option given as prefix followed by the value, or null if it was not given.
+	static String getOption(String[] args, String prefix) {
+		for (String arg : args) {
+			if (arg.startsWith(prefix)) {
+				return arg.substring(prefix.length());
+			}
+		}
+		return null;
 	}
-}
\ No newline at end of file
+}
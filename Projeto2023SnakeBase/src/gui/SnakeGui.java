@@ -4,12 +4,11 @@ import java.awt.BorderLayout;
 import java.awt.Dimension;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.util.Observable;
-import java.util.Observer;
 
 import javax.swing.*;
 
 import environment.Board;
+import environment.BoardEvents;
 import environment.LocalBoard;
 import game.AutomaticSnake;
 import game.Snake;
@@ -22,12 +21,13 @@ import remote.RemoteBoard;
  * @author luismota
  *
  */
-public class SnakeGui implements Observer {
+public class SnakeGui implements BoardEvents.Listener {
 	// Constants defining the dimensions of the game board.
 	public static final int BOARD_WIDTH = 800;
 	public static final int BOARD_HEIGHT = 800;
 	public static final int NUM_COLUMNS = 40;
 	public static final int NUM_ROWS = 30;
+	public static final int RENDER_INTERVAL = 16; // Time in milliseconds between two repaints of a remote board.
 	private final JFrame frame; // Main window frame of the game.
 	private BoardComponent boardGui; // Component that visualizes the game board.
 	private final Board board; // The game board logic.
@@ -65,6 +65,8 @@ public class SnakeGui implements Observer {
 		// Disable the button if the board is a RemoteBoard instance.
 		if (board instanceof RemoteBoard) {
 			resetObstaclesButton.setEnabled(false);
+			// Remote snakes move between game states, so repaint continuously instead of only on updates.
+			new Timer(RENDER_INTERVAL, e -> boardGui.repaint()).start();
 		}
 
 		frame.add(resetObstaclesButton, BorderLayout.SOUTH);
@@ -75,15 +77,16 @@ public class SnakeGui implements Observer {
 	// Initializes the game GUI and starts the game logic.
 	public void init() {
 		frame.setVisible(true);
-		board.addObserver(this);
+		board.getEvents().subscribe("GUI events", this); // Repaint on the changes of the board, off the game threads.
 		board.init();
 	}
 
-	// Method called when the observed object (game board) is updated.
+	// Method called with the changes of the game board published since the previous call.
 	@Override
-	public void update(Observable o, Object arg) {
+	public void onEvents(int events) {
+		if (board instanceof LocalBoard) ((LocalBoard) board).refreshSnapshot(); // Painted from the snapshot.
 		boardGui.repaint();
-		if (board.isFinished() && !isGameCompletedPopupShown) {
+		if ((events & BoardEvents.GAME_OVER) != 0 && !isGameCompletedPopupShown) {
 			isGameCompletedPopupShown = true;
 			showGameCompletedPopup();
 		}
@@ -1,15 +1,15 @@
 package remote;
 
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.PrintWriter;
 
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketException;
 import java.net.UnknownHostException;
-
-import environment.GameState;
+import java.util.Arrays;
 
 import gui.SnakeGui;
 
@@ -23,19 +23,40 @@ public class Client {
 	private Socket socket; // Client socket for communicating with the server.
 	private final InetAddress address; // IP address of the server.
 	private final int port; // Port number of the server.
-	private ObjectInputStream in; // Stream for receiving data from the server.
-	private PrintWriter out; // Stream for sending data to the server.
+	private DataInputStream in; // Stream for receiving data from the server.
+	private InputSender inputSender; // Sends the directions chosen by the player to the server.
 	private final RemoteBoard remoteBoard; // Remote board that will reflect the game state from the server.
+	private final FrameDecoder decoder; // Applies the frames received from the server to the remote board.
+	private InetSocketAddress multicastGroup; // Group the game state is received from by multicast, null to use TCP.
+	private MulticastReceiver multicastReceiver; // Receives the game state by multicast, if enabled.
 
 	public Client(InetAddress address, int port, RemoteBoard remoteBoard) {
 		this.address = address;
 		this.port = port;
 		this.remoteBoard = remoteBoard;
+		this.decoder = new FrameDecoder(remoteBoard);
 		remoteBoard.setClient(this);
 	}
 
-	public PrintWriter getPrintWriter() {
-		return out;
+	// Sends a direction to the server without blocking and returns its sequence number, or -1 if the connection
+	// is not established yet.
+	public int sendDirection(Direction direction) {
+		return inputSender != null ? inputSender.send(direction) : -1;
+	}
+
+	// Receives the game state from a UDP multicast group instead of the TCP connection. Call before runClient().
+	public void setMulticast(InetSocketAddress multicastGroup) {
+		this.multicastGroup = multicastGroup;
+	}
+
+	// Asks the server for a full game state over TCP, after losing multicast frames.
+	void requestKeyframe() {
+		if (inputSender != null) inputSender.sendCommand(Protocol.COMMAND_KEYFRAME);
+	}
+
+	// Handles the acknowledgement of an input applied by the server.
+	void acknowledgeInput(int sequence, long timestamp, int applyDelay) {
+		if (inputSender != null) inputSender.acknowledge(sequence, timestamp, applyDelay);
 	}
 
 	// Runs the client to connect to the server and update the game state.
@@ -64,27 +85,32 @@ public class Client {
 
 	// Sets up the I/O streams for communication with the server.
 	private void getStreams() throws IOException {
-		in = new ObjectInputStream(socket.getInputStream()); // Input stream.
-		out = new PrintWriter(socket.getOutputStream(), true); // Output stream.
+		in = new DataInputStream(new BufferedInputStream(socket.getInputStream())); // Input stream.
+		inputSender = new InputSender(socket.getOutputStream()); // Output stream.
+		inputSender.start();
+		if (multicastGroup != null) {
+			multicastReceiver = new MulticastReceiver(multicastGroup, remoteBoard, this);
+			multicastReceiver.start();
+			inputSender.sendCommand(Protocol.COMMAND_MULTICAST); // Only per-client frames are sent over TCP from now on.
+		}
 	}
 
 	// Handles communication with the server.
 	private void processConnection() throws IOException {
-		try {
-			Object object = in.readObject(); // Reads an object from the input stream.
-			GameState gameState = (GameState)object; // Casts the received object to GameState.
-			remoteBoard.setChanged(gameState); // Updates the remote board with the new game state.
-		} catch (ClassNotFoundException e) {
-			System.err.println("Class not found: " + e.getMessage() + ".");
-		}
+		decoder.readFrame(in); // Reads a frame and updates the remote board with the new game state.
 	}
 
 	// Closes the I/O streams and the socket.
 	private void closeConnection() {
 		try {
 			if (in != null) in.close(); // Close the input stream.
-			if (out != null) out.close(); // Close the output stream.
+			if (inputSender != null) {
+				inputSender.close(); // Stop sending input.
+				System.out.println(inputSender.getStatistics());
+			}
+			if (multicastReceiver != null) multicastReceiver.close(); // Stop receiving the game state by multicast.
 			if (socket != null) socket.close();
+			System.out.println(remoteBoard.getPredictionStatistics());
 			System.out.println("Connection closed.");
 		} catch (IOException e) {
 			System.err.println("Error on closing connection: " + e.getMessage() + ".");
@@ -101,7 +127,17 @@ public class Client {
 		game.init(); // Initializes the game user interface, making it visible and ready for interaction.
 		// Constructs a new Client instance, connecting to the server at the specified IP address ("localhost") and port number (12345).
 		// The client will interact with the remote board.
-		Client client = new Client(InetAddress.getByName("localhost"), 12345, board);
+		// With --spectate the client connects to the spectator port (12346) and only watches the game.
+		boolean isSpectator = Arrays.asList(args).contains("--spectate");
+		Client client = new Client(InetAddress.getByName("localhost"), isSpectator ? 12346 : 12345, board);
+		// With --multicast=<group>:<port> the game state is received from the multicast group the server publishes to.
+		for (String arg : args) {
+			if (arg.startsWith("--multicast=")) {
+				String group = arg.substring("--multicast=".length());
+				int separator = group.lastIndexOf(':');
+				client.setMulticast(new InetSocketAddress(group.substring(0, separator), Integer.parseInt(group.substring(separator + 1))));
+			}
+		}
 		// Starts the client's operation, which involves connecting to the server, receiving game state updates,
 		// and updating the remote board accordingly.
 		client.runClient();
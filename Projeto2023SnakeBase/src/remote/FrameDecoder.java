@@ -0,0 +1,195 @@
+package remote;
+
+import environment.Cell;
+
+import game.Snake;
+import game.SnakeBody;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+
+/** Decodes binary frames, see {@link Protocol} for the format, and applies them to a remote board.
+ * Cells, obstacles, goals and snakes already known to the board are reused, so a frame only allocates
+ * the body lists of the snakes that moved.
+ */
+public class FrameDecoder {
+	private static final Direction[] DIRECTIONS = Direction.values(); // Directions indexed by their wire code.
+	private final RemoteBoard board; // Board mirroring the game state of the server.
+	private final ByteBuffer header = ByteBuffer.allocate(Protocol.HEADER_SIZE); // Header of the current frame.
+	private ByteBuffer payload = ByteBuffer.allocate(1024); // Payload of the current frame, grown when needed.
+	private int[] segments = new int[16]; // Scratch cell indices of the snake body being read, tail first.
+
+	public FrameDecoder(RemoteBoard board) {
+		this.board = board;
+	}
+
+	// Reads one frame from the stream and applies it to the board.
+	public void readFrame(DataInputStream in) throws IOException {
+		in.readFully(header.array());
+		header.clear();
+		if (header.getShort() != Protocol.MAGIC) {
+			throw new IOException("Invalid frame header");
+		}
+		byte version = header.get();
+		if (version != Protocol.VERSION) {
+			throw new IOException("Unsupported protocol version " + version);
+		}
+		byte type = header.get();
+		boolean isFinished = (header.get() & Protocol.FLAG_FINISHED) != 0;
+		header.get();
+		int columns = header.getShort();
+		int rows = header.getShort();
+		int sequence = header.getInt();
+		int length = header.getInt();
+		if (columns <= 0 || rows <= 0) {
+			throw new IOException("Invalid board of " + columns + "x" + rows);
+		}
+
+		if (payload.capacity() < length) {
+			payload = ByteBuffer.allocate(Math.max(length, payload.capacity() * 2));
+		}
+		payload.clear();
+		in.readFully(payload.array(), 0, length);
+		payload.limit(length);
+
+		// Frames may come from both the TCP connection and multicast, so only one is applied at a time.
+		board.getStateLock().lock();
+		try {
+			if (columns != board.getColumns() || rows != board.getRows()) {
+				board.adoptSize(columns, rows); // The server runs another board size, wait for its full game state.
+			}
+			applyFrame(type, isFinished, sequence, rows);
+		} finally {
+			board.getStateLock().unlock();
+		}
+	}
+
+	// Applies a frame whose payload has been read.
+	private void applyFrame(byte type, boolean isFinished, int sequence, int rows) {
+		if (type == Protocol.FRAME_KEYFRAME) {
+			if (sequence <= board.getSequence()) return; // Older than the state already applied, out of order datagram.
+			applyKeyframe(rows);
+		} else if (type == Protocol.FRAME_HELLO) {
+			board.setLocalSnake(payload.getInt());
+			return;
+		} else if (type == Protocol.FRAME_ACK) {
+			board.acknowledgeInput(payload.getInt(), payload.getLong(), payload.getInt());
+			return;
+		} else if (type == Protocol.FRAME_DELTA) {
+			if (sequence <= board.getSequence()) return; // Older than the state already applied, out of order datagram.
+			// A delta only applies on top of the state right before it; otherwise wait for the next keyframe.
+			if (board.getSequence() < 0 || sequence != board.getSequence() + 1) {
+				System.err.println("Skipping game state delta " + sequence + ", waiting for a full game state.");
+				board.setChanged(-1, isFinished);
+				return;
+			}
+			applyDelta(rows);
+		} else {
+			System.err.println("Ignoring frame of unknown type " + type + ".");
+			return;
+		}
+		board.setChanged(sequence, isFinished);
+	}
+
+	// Replaces the whole board with the contents of a keyframe.
+	private void applyKeyframe(int rows) {
+		int size = board.getColumns() * rows;
+		int movesPosition = (size + 3) / 4;
+		int valuesPosition = movesPosition;
+		for (int index = 0; index < size; index++) {
+			if (((payload.get(index / 4) >> ((index % 4) * 2)) & 3) == Protocol.CELL_OBSTACLE) valuesPosition++;
+		}
+
+		for (int index = 0; index < size; index++) {
+			Cell cell = board.getCell(index);
+			int type = (payload.get(index / 4) >> ((index % 4) * 2)) & 3;
+			int value = type == Protocol.CELL_OBSTACLE ? payload.get(movesPosition++)
+					: type == Protocol.CELL_GOAL ? payload.get(valuesPosition++) : 0;
+			board.setGameElement(index, type, value);
+			cell.setOccupyingSnake(null);
+		}
+		payload.position(valuesPosition);
+
+		LinkedList<Snake> snakes = new LinkedList<>();
+		int count = payload.getShort();
+		for (int i = 0; i < count; i++) {
+			snakes.add(readSnake(rows));
+		}
+		board.setSnakes(snakes);
+	}
+
+	// Applies the changed cells, moved snakes and removed snakes of a delta.
+	private void applyDelta(int rows) {
+		int changedCells = payload.getInt();
+		for (int i = 0; i < changedCells; i++) {
+			int index = payload.getInt();
+			int type = payload.get();
+			int value = payload.get();
+			board.setGameElement(index, type, value);
+		}
+
+		int changedSnakes = payload.getShort();
+		for (int i = 0; i < changedSnakes; i++) {
+			Snake snake = readSnake(rows);
+			if (!board.getSnakes().contains(snake)) {
+				LinkedList<Snake> snakes = new LinkedList<>(board.getSnakes());
+				snakes.add(snake);
+				board.setSnakes(snakes);
+			}
+		}
+
+		int removedSnakes = payload.getShort();
+		for (int i = 0; i < removedSnakes; i++) {
+			Snake snake = board.removeSnake(payload.getInt());
+			if (snake != null) {
+				releaseBody(snake);
+			}
+		}
+	}
+
+	// Reads a snake, moves its stand-in on the board to the new body and returns it.
+	private Snake readSnake(int rows) {
+		int id = payload.getInt();
+		boolean isHuman = (payload.get() & Protocol.SNAKE_HUMAN) != 0;
+		int length = payload.getShort();
+		Snake snake = board.getSnake(id, isHuman);
+		releaseBody(snake);
+
+		if (length > segments.length) segments = new int[Math.max(length, segments.length * 2)];
+		if (length > 0) {
+			int index = payload.getInt();
+			segments[length - 1] = index;
+			int packed = 0;
+			for (int n = 0; n < length - 1; n++) {
+				if (n % 4 == 0) packed = payload.get();
+				switch (DIRECTIONS[(packed >> ((n % 4) * 2)) & 3]) {
+					case LEFT -> index -= rows;
+					case RIGHT -> index += rows;
+					case UP -> index--;
+					case DOWN -> index++;
+				}
+				segments[length - 2 - n] = index;
+			}
+		}
+		SnakeBody body = new SnakeBody(rows); // A new body, so that readers see either the old one or the new one.
+		for (int segment = 0; segment < length; segment++) {
+			body.addHead(segments[segment]);
+			board.getCell(segments[segment]).setOccupyingSnake(snake);
+		}
+		snake.setBody(body);
+		return snake;
+	}
+
+	// Clears the cells still marked as occupied by a snake.
+	private void releaseBody(Snake snake) {
+		SnakeBody body = snake.getBody();
+		for (int segment = 0; segment < body.getLength(); segment++) {
+			Cell cell = board.getCell(body.getIndex(segment));
+			if (cell.getOccupyingSnake() == snake) {
+				cell.setOccupyingSnake(null);
+			}
+		}
+	}
+}
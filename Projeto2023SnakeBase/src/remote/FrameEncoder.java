@@ -0,0 +1,203 @@
+package remote;
+
+import environment.BoardSnapshot;
+import environment.GameState;
+import environment.GameStateDelta;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/** Encodes game states into binary frames, see {@link Protocol} for the format.
+ * Scratch space is reused between calls, so an encoder must not be shared between threads.
+ */
+public class FrameEncoder {
+	private ByteBuffer buffer; // Scratch buffer the frame is built in.
+	private int[] body = new int[16]; // Scratch copy of the cell indices of a snake body, tail first.
+
+	public FrameEncoder() {
+		this(1024);
+	}
+
+	private FrameEncoder(int capacity) {
+		buffer = ByteBuffer.allocate(capacity);
+	}
+
+	// Encodes a full game state into a new buffer ready to be written. Cells and snakes are read from the
+	// snapshot of the state, which no move changes while it is encoded.
+	public ByteBuffer encode(GameState gameState) {
+		BoardSnapshot board = gameState.getSnapshot();
+		int columns = board.getColumns();
+		int rows = board.getRows();
+		writeHeader(Protocol.FRAME_KEYFRAME, board.isFinished(), gameState.getSequence(), columns, rows);
+
+		// Cell types, four cells per byte.
+		ensureCapacity((columns * rows + 3) / 4);
+		int packed = 0;
+		int obstacles = 0;
+		int goals = 0;
+		for (int index = 0; index < columns * rows; index++) {
+			int type = cellType(board, index);
+			if (type == Protocol.CELL_OBSTACLE) obstacles++;
+			if (type == Protocol.CELL_GOAL) goals++;
+			packed |= type << ((index % 4) * 2);
+			if (index % 4 == 3) {
+				buffer.put((byte) packed);
+				packed = 0;
+			}
+		}
+		if ((columns * rows) % 4 != 0) buffer.put((byte) packed);
+
+		// Remaining moves of every obstacle, then value of every goal, in cell order.
+		ensureCapacity(obstacles + goals);
+		for (int index = 0; index < columns * rows && obstacles > 0; index++) {
+			if (board.isObstacleAt(index)) {
+				buffer.put((byte) board.getElementValue(index));
+				obstacles--;
+			}
+		}
+		for (int index = 0; index < columns * rows && goals > 0; index++) {
+			if (board.isGoalAt(index)) {
+				buffer.put((byte) board.getElementValue(index));
+				goals--;
+			}
+		}
+
+		// Snakes, each as its head followed by the chain of directions towards its tail.
+		ensureCapacity(2);
+		buffer.putShort((short) board.getSnakeCount());
+		for (int snake = 0; snake < board.getSnakeCount(); snake++) {
+			writeSnake(board.getSnakeId(snake), board.isHuman(snake), copyBody(board, snake), rows);
+		}
+		return finish();
+	}
+
+	// Encodes the changes since the previous broadcast into a new buffer ready to be written. The new contents
+	// of the changed cells and snakes are read from the snapshot of the delta, like a full game state.
+	public ByteBuffer encode(GameStateDelta delta) {
+		BoardSnapshot board = delta.getSnapshot();
+		int rows = board.getRows();
+		writeHeader(Protocol.FRAME_DELTA, delta.isFinished(), delta.getSequence(), board.getColumns(), rows);
+
+		int[] cells = delta.getCells();
+		ensureCapacity(4 + cells.length * 6);
+		buffer.putInt(cells.length);
+		for (int index : cells) {
+			int type = cellType(board, index);
+			buffer.putInt(index);
+			buffer.put((byte) type);
+			buffer.put((byte) (type != Protocol.CELL_EMPTY ? board.getElementValue(index) : 0));
+		}
+
+		int[] snakes = delta.getSnakes();
+		ensureCapacity(2);
+		buffer.putShort((short) snakes.length);
+		for (int snake : snakes) {
+			writeSnake(board.getSnakeId(snake), board.isHuman(snake), copyBody(board, snake), rows);
+		}
+
+		int[] removedSnakes = delta.getRemovedSnakes();
+		ensureCapacity(2 + removedSnakes.length * 4);
+		buffer.putShort((short) removedSnakes.length);
+		for (int id : removedSnakes) {
+			buffer.putInt(id);
+		}
+		return finish();
+	}
+
+	// Encodes the acknowledgement of the last input applied for one client into a new buffer ready to be written.
+	public static ByteBuffer encodeAck(long sequence, int inputSequence, long timestamp, int applyDelay, int columns, int rows) {
+		FrameEncoder encoder = new FrameEncoder(Protocol.HEADER_SIZE + Protocol.ACK_SIZE);
+		encoder.writeHeader(Protocol.FRAME_ACK, false, sequence, columns, rows);
+		encoder.buffer.putInt(inputSequence);
+		encoder.buffer.putLong(timestamp);
+		encoder.buffer.putInt(applyDelay);
+		encoder.buffer.putInt(Protocol.HEADER_SIZE - 4, Protocol.ACK_SIZE);
+		return encoder.buffer.flip();
+	}
+
+	// Encodes the hello telling a client which snake it controls into a new buffer ready to be written.
+	public static ByteBuffer encodeHello(int snakeId, int columns, int rows) {
+		FrameEncoder encoder = new FrameEncoder(Protocol.HEADER_SIZE + Protocol.HELLO_SIZE);
+		encoder.writeHeader(Protocol.FRAME_HELLO, false, 0, columns, rows);
+		encoder.buffer.putInt(snakeId);
+		encoder.buffer.putInt(Protocol.HEADER_SIZE - 4, Protocol.HELLO_SIZE);
+		return encoder.buffer.flip();
+	}
+
+	// Starts a new frame with the fixed header. The payload length is filled in by finish().
+	private void writeHeader(byte type, boolean isFinished, long sequence, int columns, int rows) {
+		buffer.clear();
+		buffer.putShort(Protocol.MAGIC);
+		buffer.put(Protocol.VERSION);
+		buffer.put(type);
+		buffer.put(isFinished ? Protocol.FLAG_FINISHED : 0);
+		buffer.put((byte) 0);
+		buffer.putShort((short) columns);
+		buffer.putShort((short) rows);
+		buffer.putInt((int) sequence);
+		buffer.putInt(0);
+	}
+
+	// Writes a snake whose cell indices, tail first, are in the scratch array.
+	private void writeSnake(int id, boolean isHuman, int length, int rows) {
+		ensureCapacity(11 + (length + 2) / 4);
+		buffer.putInt(id);
+		buffer.put(isHuman ? Protocol.SNAKE_HUMAN : 0);
+		buffer.putShort((short) length);
+		if (length > 0) {
+			buffer.putInt(body[length - 1]);
+			int packed = 0;
+			for (int i = length - 1, n = 0; i > 0; i--, n++) {
+				packed |= direction(body[i], body[i - 1], rows).ordinal() << ((n % 4) * 2);
+				if (n % 4 == 3 || i == 1) {
+					buffer.put((byte) packed);
+					packed = 0;
+				}
+			}
+		}
+	}
+
+	// Copies the cell indices of a snake of a snapshot into the scratch array and returns its length.
+	private int copyBody(BoardSnapshot board, int snake) {
+		int length = board.getLength(snake);
+		if (length > body.length) body = Arrays.copyOf(body, Math.max(length, body.length * 2));
+		for (int segment = 0; segment < length; segment++) {
+			body[segment] = board.getIndex(snake, segment);
+		}
+		return length;
+	}
+
+	// Completes the frame and returns a copy of it sized to its contents.
+	private ByteBuffer finish() {
+		buffer.putInt(Protocol.HEADER_SIZE - 4, buffer.position() - Protocol.HEADER_SIZE);
+		return ByteBuffer.wrap(Arrays.copyOf(buffer.array(), buffer.position()));
+	}
+
+	// Grows the scratch buffer so that at least the given number of bytes can still be written.
+	private void ensureCapacity(int bytes) {
+		if (buffer.remaining() < bytes) {
+			ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+			buffer.flip();
+			larger.put(buffer);
+			buffer = larger;
+		}
+	}
+
+	// Returns the wire type of the cell at the given index.
+	private static int cellType(BoardSnapshot board, int index) {
+		if (board.isObstacleAt(index)) return Protocol.CELL_OBSTACLE;
+		if (board.isGoalAt(index)) return Protocol.CELL_GOAL;
+		return Protocol.CELL_EMPTY;
+	}
+
+	// Returns the direction leading from one cell to an adjacent one, or null if they are not adjacent.
+	static Direction direction(int from, int to, int rows) {
+		int dx = to / rows - from / rows;
+		int dy = to % rows - from % rows;
+		if (dx == -1 && dy == 0) return Direction.LEFT;
+		if (dx == 1 && dy == 0) return Direction.RIGHT;
+		if (dx == 0 && dy == -1) return Direction.UP;
+		if (dx == 0 && dy == 1) return Direction.DOWN;
+		return null;
+	}
+}
@@ -0,0 +1,137 @@
+package remote;
+
+import environment.Board;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/** Sends the directions chosen by the player to the server as binary input records, see {@link Protocol}.
+ * Key presses only store the latest direction, so the event dispatch thread never blocks on the socket;
+ * a sender thread writes at most one record per refresh interval, coalescing the keys pressed in between.
+ */
+public class InputSender implements Runnable {
+	private final DataOutputStream out; // Stream for sending input records to the server.
+	private final Lock lock = new ReentrantLock();
+	private final Condition inputAvailable = lock.newCondition(); // Signaled when a key is pressed.
+	private final Thread thread = new Thread(this, "InputSender"); // Thread writing the records.
+	private final ArrayDeque<Byte> pendingCommands = new ArrayDeque<>(); // Commands waiting to be sent, never coalesced.
+	private Direction pendingDirection; // Latest direction chosen since the last record was sent.
+	private long pendingTimestamp; // Client clock in microseconds when the pending direction was chosen.
+	private int sequence = 0; // Sequence number of the last record taken for sending.
+	private volatile long lastLatency = -1; // Time in microseconds between the last acknowledged key press and its acknowledgement.
+	private final LongAdder acknowledgedInputs = new LongAdder(); // Inputs the server acknowledged as applied.
+	private final LongAdder latencyMicros = new LongAdder(); // Time from the key presses to their acknowledgements, in all.
+	private final LongAdder applyDelayMicros = new LongAdder(); // Time the acknowledged inputs waited on the server, in all.
+
+	public InputSender(OutputStream out) {
+		this.out = new DataOutputStream(new BufferedOutputStream(out, Protocol.INPUT_SIZE));
+	}
+
+	// Starts the sender thread.
+	public void start() {
+		thread.start();
+	}
+
+	// Stops the sender thread. Records not sent yet are discarded.
+	public void close() {
+		thread.interrupt();
+	}
+
+	// Records the direction chosen by the player and returns the sequence number it will be sent with.
+	// Never blocks, safe to call from the event dispatch thread.
+	public int send(Direction direction) {
+		lock.lock();
+		try {
+			pendingDirection = direction;
+			pendingTimestamp = now();
+			inputAvailable.signal();
+			return sequence + 1;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// Queues a command for the server, see {@link Protocol}. Never blocks.
+	public void sendCommand(byte command) {
+		lock.lock();
+		try {
+			pendingCommands.add(command);
+			inputAvailable.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// Handles the acknowledgement of an input applied by the server, adding its latency to the statistics.
+	public void acknowledge(int sequence, long timestamp, int applyDelay) {
+		lastLatency = now() - timestamp;
+		acknowledgedInputs.increment();
+		latencyMicros.add(lastLatency);
+		applyDelayMicros.add(applyDelay);
+	}
+
+	// Returns how many inputs were acknowledged and how long after the key press, on average and for the last one.
+	public String getStatistics() {
+		long count = Math.max(1, acknowledgedInputs.sum());
+		return acknowledgedInputs.sum() + " inputs applied " + latencyMicros.sum() / count / 1000.0
+				+ " ms after the key press on average (" + applyDelayMicros.sum() / count / 1000.0
+				+ " ms waiting on the server), the last one " + lastLatency / 1000.0 + " ms.";
+	}
+
+	// Returns the time in microseconds between the last acknowledged key press and its acknowledgement, -1 if none yet.
+	public long getLastLatency() {
+		return lastLatency;
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				Byte command;
+				Direction direction;
+				long timestamp;
+				int recordSequence;
+				lock.lock();
+				try {
+					while (pendingDirection == null && pendingCommands.isEmpty()) {
+						inputAvailable.await();
+					}
+					command = pendingCommands.poll();
+					direction = command == null ? pendingDirection : null;
+					timestamp = pendingTimestamp;
+					if (direction != null) {
+						pendingDirection = null;
+						recordSequence = ++sequence;
+					} else {
+						recordSequence = 0;
+					}
+				} finally {
+					lock.unlock();
+				}
+				out.writeByte(command != null ? command : direction.ordinal());
+				out.writeInt(recordSequence);
+				out.writeLong(command != null ? 0 : timestamp);
+				out.flush();
+				if (direction != null) {
+					Thread.sleep(Board.REMOTE_REFRESH_INTERVAL); // Keys pressed meanwhile are coalesced into the next record.
+				}
+			}
+		} catch (InterruptedException e) {
+			// The connection is being closed.
+		} catch (IOException e) {
+			System.err.println("Error on sending input to the server: " + e.getMessage() + ".");
+		}
+	}
+
+	// Returns the client clock in microseconds, only meaningful when compared with other readings of this client.
+	static long now() {
+		return System.nanoTime() / 1000;
+	}
+}
@@ -0,0 +1,334 @@
+package remote;
+
+import game.ExecutionMode;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Headless capacity test for the server. Opens a number of concurrent connections, each one decoding the
+ * game state into its own remote board and sending directions at a fixed rate, chosen at random or taken
+ * from a script. Prints a status line every second and, at the end, the throughput, the jitter between
+ * frames, the percentiles of the time from sending an input to its acknowledgement and the disconnects.
+ *
+ * Options: --host=localhost --port=12345 --clients=50 --rate=5 (inputs per second and connection)
+ * --duration=30 (seconds) --script=UP,RIGHT,... --seed=n --virtual
+ */
+public class LoadGenerator {
+	private static final Direction[] DIRECTIONS = Direction.values(); // Directions chosen from at random.
+	private final InetAddress address; // IP address of the server.
+	private final int port; // Port number of the server.
+	private final int clients; // Number of connections to open.
+	private final double rate; // Inputs sent per second by each connection.
+	private final int duration; // Seconds the test runs once all connections are open.
+	private final Direction[] script; // Directions sent in turn by each connection, null to send random ones.
+	private final Random random; // Source of the random directions, only used by the scheduler thread.
+	private final List<Connection> connections = new ArrayList<>(); // Connections that were established.
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(); // Sends the inputs and reports.
+	private final LongAdder frames = new LongAdder(); // Game states received by all connections.
+	private final LongAdder bytes = new LongAdder(); // Bytes received by all connections.
+	private final LongAdder inputs = new LongAdder(); // Directions sent by all connections.
+	private final LongAdder acks = new LongAdder(); // Inputs acknowledged by the server.
+	private final AtomicInteger disconnects = new AtomicInteger(); // Connections lost before the end of the test.
+	private int failedConnections = 0; // Connections that could not be established.
+	private long elapsed = 0; // Seconds since the test started, only used by the scheduler thread.
+	private long lastFrames, lastBytes, lastInputs, lastAcks; // Totals at the previous report, only used by the scheduler thread.
+
+	public LoadGenerator(InetAddress address, int port, int clients, double rate, int duration, Direction[] script, long seed) {
+		this.address = address;
+		this.port = port;
+		this.clients = clients;
+		this.rate = rate;
+		this.duration = duration;
+		this.script = script;
+		this.random = new Random(seed);
+	}
+
+	// Opens the connections, runs the test for the configured duration and prints the summary.
+	public void run() throws InterruptedException {
+		for (int i = 0; i < clients; i++) {
+			Connection connection = new Connection(i);
+			try {
+				connection.connect();
+			} catch (IOException e) {
+				failedConnections++;
+				System.err.println("Could not open connection " + i + ": " + e.getMessage() + ".");
+				continue;
+			}
+			connections.add(connection);
+			ExecutionMode.current().newThread(connection, "LoadGenerator " + i).start();
+		}
+		System.out.println("Opened " + connections.size() + " of " + clients + " connections to " + address + ":" + port + ".");
+		if (rate > 0) {
+			long period = Math.max(1, (long) (1_000_000 / rate)); // In microseconds.
+			for (Connection connection : connections) {
+				// Spread the inputs of the connections over the period instead of sending them all at once.
+				long delay = period * connection.index / Math.max(1, connections.size());
+				scheduler.scheduleAtFixedRate(() -> connection.sendInput(), delay, period, TimeUnit.MICROSECONDS);
+			}
+		}
+		scheduler.scheduleAtFixedRate(this::report, 1, 1, TimeUnit.SECONDS);
+		Thread.sleep(duration * 1000L);
+		scheduler.shutdownNow();
+		scheduler.awaitTermination(1, TimeUnit.SECONDS);
+		for (Connection connection : connections) {
+			connection.close();
+		}
+		printSummary();
+	}
+
+	// Prints the activity of the last second.
+	private void report() {
+		elapsed++;
+		long totalFrames = frames.sum(), totalBytes = bytes.sum(), totalInputs = inputs.sum(), totalAcks = acks.sum();
+		System.out.println("t=" + elapsed + "s connections=" + (connections.size() - disconnects.get()) + "/" + clients
+				+ " frames/s=" + (totalFrames - lastFrames) + " KB/s=" + (totalBytes - lastBytes) / 1024
+				+ " inputs/s=" + (totalInputs - lastInputs) + " acks/s=" + (totalAcks - lastAcks)
+				+ " disconnects=" + disconnects.get());
+		lastFrames = totalFrames;
+		lastBytes = totalBytes;
+		lastInputs = totalInputs;
+		lastAcks = totalAcks;
+	}
+
+	// Prints the results of the whole test.
+	private void printSummary() {
+		Samples interArrivals = new Samples();
+		Samples latencies = new Samples();
+		for (Connection connection : connections) {
+			interArrivals.addAll(connection.interArrivals);
+			latencies.addAll(connection.latencies);
+		}
+		long[] gaps = interArrivals.toSortedArray();
+		long[] delays = latencies.toSortedArray();
+		System.out.println("--- Load test summary ---");
+		System.out.println("Connections: " + connections.size() + " opened, " + failedConnections + " failed, "
+				+ disconnects.get() + " disconnected before the end.");
+		System.out.println("Throughput: " + frames.sum() / duration + " frames/s, " + bytes.sum() / duration / 1024 + " KB/s, "
+				+ inputs.sum() / duration + " inputs/s sent, " + acks.sum() / duration + " acks/s received.");
+		if (gaps.length > 0) {
+			double mean = mean(gaps);
+			System.out.printf("Frame inter-arrival: mean %.2f ms, jitter (std dev) %.2f ms, p99 %.2f ms, max %.2f ms.%n",
+					mean / 1000, standardDeviation(gaps, mean) / 1000, percentile(gaps, 0.99) / 1000.0, gaps[gaps.length - 1] / 1000.0);
+		}
+		if (delays.length > 0) {
+			System.out.printf("Input to ack latency (%d acks): p50 %.2f ms, p90 %.2f ms, p99 %.2f ms, max %.2f ms.%n", delays.length,
+					percentile(delays, 0.5) / 1000.0, percentile(delays, 0.9) / 1000.0, percentile(delays, 0.99) / 1000.0,
+					delays[delays.length - 1] / 1000.0);
+		} else {
+			System.out.println("Input to ack latency: no input was acknowledged.");
+		}
+	}
+
+	// Returns the value below which the given fraction of the sorted samples fall.
+	private static long percentile(long[] sorted, double fraction) {
+		int index = (int) Math.ceil(fraction * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+	}
+
+	// Returns the average of the samples.
+	private static double mean(long[] samples) {
+		double sum = 0;
+		for (long sample : samples) sum += sample;
+		return sum / samples.length;
+	}
+
+	// Returns the standard deviation of the samples around their average.
+	private static double standardDeviation(long[] samples, double mean) {
+		double sum = 0;
+		for (long sample : samples) sum += (sample - mean) * (sample - mean);
+		return Math.sqrt(sum / samples.length);
+	}
+
+	// One simulated player: a socket, a decoder and a board of its own, and an input sender.
+	private class Connection implements Runnable {
+		private final int index; // Position of the connection, used to identify it.
+		private final MeasuredBoard board = new MeasuredBoard(this); // Board the game state is decoded into.
+		private final FrameDecoder decoder = new FrameDecoder(board); // Applies the frames to the board.
+		private final Samples interArrivals = new Samples(); // Time between two game states, in microseconds.
+		private final Samples latencies = new Samples(); // Time from sending an input to its acknowledgement, in microseconds.
+		private Socket socket; // Socket connected to the server.
+		private DataInputStream in; // Stream the frames are read from.
+		private InputSender inputSender; // Sends the directions to the server.
+		private int scriptPosition = 0; // Next direction of the script, only used by the scheduler thread.
+		private long lastFrameTime = -1; // Time the last game state arrived, in microseconds, only used by the reader thread.
+		private volatile boolean isClosing = false; // Set once the test is over, so the closed socket is not counted as a disconnect.
+
+		private Connection(int index) {
+			this.index = index;
+		}
+
+		// Connects to the server and starts sending input.
+		private void connect() throws IOException {
+			socket = new Socket(address, port);
+			in = new DataInputStream(new BufferedInputStream(new CountingInputStream(socket.getInputStream(), bytes)));
+			inputSender = new InputSender(socket.getOutputStream());
+			inputSender.start();
+		}
+
+		// Reads frames until the connection is closed.
+		@Override
+		public void run() {
+			try {
+				while (true) {
+					decoder.readFrame(in);
+				}
+			} catch (IOException e) {
+				if (!isClosing) {
+					disconnects.incrementAndGet();
+					System.err.println("Connection " + index + " lost: " + e.getMessage() + ".");
+				}
+			} finally {
+				inputSender.close();
+			}
+		}
+
+		// Sends the next direction, from the script or at random. Only called by the scheduler thread.
+		private void sendInput() {
+			if (socket.isClosed()) return;
+			Direction direction = script != null ? script[scriptPosition++ % script.length] : DIRECTIONS[random.nextInt(DIRECTIONS.length)];
+			inputSender.send(direction);
+			inputs.increment();
+		}
+
+		// Records the arrival of a game state. Called by the reader thread.
+		private void recordFrame() {
+			long now = InputSender.now();
+			if (lastFrameTime >= 0) interArrivals.add(now - lastFrameTime);
+			lastFrameTime = now;
+			frames.increment();
+		}
+
+		// Records the acknowledgement of an input sent at the given client time. Called by the reader thread.
+		private void recordAck(long timestamp) {
+			latencies.add(InputSender.now() - timestamp);
+			acks.increment();
+		}
+
+		// Stops the connection at the end of the test.
+		private void close() {
+			isClosing = true;
+			inputSender.close();
+			try {
+				socket.close();
+			} catch (IOException e) {
+				System.err.println("Error on closing connection " + index + ": " + e.getMessage() + ".");
+			}
+		}
+	}
+
+	// Remote board that reports every game state and acknowledgement to its connection.
+	private static class MeasuredBoard extends RemoteBoard {
+		private final Connection connection; // Connection the board belongs to.
+
+		private MeasuredBoard(Connection connection) {
+			this.connection = connection;
+		}
+
+		@Override
+		public void setChanged(long sequence, boolean isFinished) {
+			super.setChanged(sequence, isFinished);
+			connection.recordFrame();
+		}
+
+		@Override
+		void acknowledgeInput(int sequence, long timestamp, int applyDelay) {
+			super.acknowledgeInput(sequence, timestamp, applyDelay);
+			connection.recordAck(timestamp);
+		}
+	}
+
+	// Growable list of samples, written by one reader thread and read once the test is over.
+	private static class Samples {
+		private long[] values = new long[256]; // Samples recorded so far, followed by unused space.
+		private int size = 0; // Number of samples recorded.
+
+		private synchronized void add(long value) {
+			if (size == values.length) values = Arrays.copyOf(values, size * 2);
+			values[size++] = value;
+		}
+
+		private synchronized void addAll(Samples other) {
+			long[] copy = other.toSortedArray();
+			for (long value : copy) add(value);
+		}
+
+		private synchronized long[] toSortedArray() {
+			long[] sorted = Arrays.copyOf(values, size);
+			Arrays.sort(sorted);
+			return sorted;
+		}
+	}
+
+	// Input stream that counts the bytes read through it.
+	private static class CountingInputStream extends FilterInputStream {
+		private final LongAdder counter; // Counter the bytes read are added to.
+
+		private CountingInputStream(InputStream in, LongAdder counter) {
+			super(in);
+			this.counter = counter;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int value = super.read();
+			if (value >= 0) counter.increment();
+			return value;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			int count = super.read(buffer, offset, length);
+			if (count > 0) counter.add(count);
+			return count;
+		}
+	}
+
+	// Main method for running a load test against a server, see the class comment for the options.
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (Arrays.asList(args).contains("--virtual")) {
+			ExecutionMode.set(ExecutionMode.VIRTUAL); // Read the frames of each connection on a virtual thread.
+		}
+		String script = getOption(args, "--script=", null);
+		Direction[] directions = null;
+		if (script != null) {
+			String[] names = script.split(",");
+			directions = new Direction[names.length];
+			for (int i = 0; i < names.length; i++) {
+				directions[i] = Direction.valueOf(names[i].trim().toUpperCase());
+			}
+		}
+		LoadGenerator generator = new LoadGenerator(InetAddress.getByName(getOption(args, "--host=", "localhost")),
+				Integer.parseInt(getOption(args, "--port=", "12345")),
+				Integer.parseInt(getOption(args, "--clients=", "50")),
+				Double.parseDouble(getOption(args, "--rate=", "5")),
+				Integer.parseInt(getOption(args, "--duration=", "30")),
+				directions,
+				Long.parseLong(getOption(args, "--seed=", String.valueOf(System.nanoTime()))));
+		generator.run();
+		System.exit(0); // Input sender threads of connections that never got a frame may still be waiting.
+	}
+
+	// Returns the value of an option given as prefix followed by the value, or the default if it was not given.
+	private static String getOption(String[] args, String prefix, String defaultValue) {
+		for (String arg : args) {
+			if (arg.startsWith(prefix)) {
+				return arg.substring(prefix.length());
+			}
+		}
+		return defaultValue;
+	}
+}
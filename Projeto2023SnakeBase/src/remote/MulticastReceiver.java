@@ -0,0 +1,120 @@
+package remote;
+
+import environment.Board;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/** Receives the game state published by the server to a UDP multicast group and applies it to the remote
+ * board. Datagrams are reassembled into frames, see {@link Protocol}; an incomplete frame is dropped as soon
+ * as a datagram of a newer one arrives. When frames are lost the board waits for a full game state, which
+ * is requested over the TCP connection.
+ */
+public class MulticastReceiver implements Runnable {
+	private static final long KEYFRAME_REQUEST_INTERVAL = 4 * Board.REMOTE_REFRESH_INTERVAL; // Minimum time between two requests.
+	private final InetSocketAddress group; // Multicast group, or unicast address, the server publishes to.
+	private final RemoteBoard board; // Board mirroring the game state of the server.
+	private final Client client; // Connection used to ask for a full game state.
+	private final FrameDecoder decoder; // Applies the reassembled frames to the board.
+	private final Thread thread = new Thread(this, "MulticastReceiver"); // Thread receiving the datagrams.
+	private MulticastSocket socket; // Socket the datagrams are received on.
+	private int frameSequence = -1; // Sequence number of the frame being reassembled.
+	private byte[] frame = new byte[Protocol.MAX_FRAGMENT_SIZE]; // Frame being reassembled.
+	private int frameLength; // Length of the frame being reassembled, known once its last fragment arrived.
+	private final BitSet receivedFragments = new BitSet(); // Fragments of the frame received so far.
+	private long lastKeyframeRequest = 0; // Time the last full game state was requested.
+	private long lostFrames = 0; // Frames dropped because some of their datagrams never arrived.
+
+	public MulticastReceiver(InetSocketAddress group, RemoteBoard board, Client client) {
+		this.group = group;
+		this.board = board;
+		this.client = client;
+		this.decoder = new FrameDecoder(board);
+	}
+
+	// Joins the group and starts receiving datagrams.
+	public void start() throws IOException {
+		socket = new MulticastSocket(group.getPort());
+		if (group.getAddress().isMulticastAddress()) {
+			socket.joinGroup(group, null);
+		}
+		thread.start();
+	}
+
+	// Stops receiving datagrams.
+	public void close() {
+		thread.interrupt();
+		if (socket != null) socket.close();
+	}
+
+	@Override
+	public void run() {
+		byte[] buffer = new byte[Protocol.DATAGRAM_HEADER_SIZE + Protocol.MAX_FRAGMENT_SIZE];
+		DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				socket.receive(packet);
+				processDatagram(ByteBuffer.wrap(buffer, 0, packet.getLength()));
+				if (board.getSequence() < 0) {
+					requestKeyframe();
+				}
+			}
+		} catch (IOException e) {
+			if (!socket.isClosed()) {
+				System.err.println("Error on receiving the game state by multicast: " + e.getMessage() + ".");
+			}
+		}
+	}
+
+	// Adds a datagram to the frame being reassembled and applies the frame once complete.
+	private void processDatagram(ByteBuffer datagram) {
+		if (datagram.remaining() < Protocol.DATAGRAM_HEADER_SIZE) return;
+		int sequence = datagram.getInt();
+		int index = datagram.getShort();
+		int fragments = datagram.getShort();
+		if (index < 0 || index >= fragments) return;
+		if (sequence != frameSequence) {
+			if (sequence < frameSequence) return; // Datagram of a frame already applied or given up.
+			if (frameSequence >= 0 && receivedFragments.cardinality() > 0) {
+				lostFrames++;
+				System.err.println("Lost multicast frame " + frameSequence + " (" + lostFrames + " so far).");
+			}
+			frameSequence = sequence;
+			receivedFragments.clear();
+			if (frame.length < fragments * Protocol.MAX_FRAGMENT_SIZE) {
+				frame = Arrays.copyOf(frame, fragments * Protocol.MAX_FRAGMENT_SIZE);
+			}
+		}
+		if (receivedFragments.get(index)) return;
+		int length = datagram.remaining();
+		datagram.get(frame, index * Protocol.MAX_FRAGMENT_SIZE, length);
+		receivedFragments.set(index);
+		if (index == fragments - 1) {
+			frameLength = index * Protocol.MAX_FRAGMENT_SIZE + length;
+		}
+		if (receivedFragments.cardinality() == fragments) {
+			receivedFragments.clear();
+			try {
+				decoder.readFrame(new DataInputStream(new ByteArrayInputStream(frame, 0, frameLength)));
+			} catch (IOException e) {
+				System.err.println("Ignoring invalid multicast frame " + sequence + ": " + e.getMessage() + ".");
+			}
+		}
+	}
+
+	// Asks the server for a full game state over TCP, at most once per request interval.
+	private void requestKeyframe() {
+		long now = System.currentTimeMillis();
+		if (now - lastKeyframeRequest >= KEYFRAME_REQUEST_INTERVAL) {
+			lastKeyframeRequest = now;
+			client.requestKeyframe();
+		}
+	}
+}
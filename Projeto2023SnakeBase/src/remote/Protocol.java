@@ -0,0 +1,63 @@
+package remote;
+
+/** Constants of the binary formats used between the server and the clients: frames carrying the game
+ * state from the server to the clients, and input records carrying directions the other way.
+ *
+ * Every frame starts with a fixed header:
+ * magic (2 bytes), version (1), frame type (1), flags (1), reserved (1), columns (2), rows (2),
+ * sequence number (4) and payload length (4). Cells are identified by their index x * rows + y.
+ *
+ * Keyframe payload: cell types packed four per byte, the remaining moves of every obstacle in cell
+ * order (1 byte each) and the value of every goal in cell order (1 byte each), followed by the snakes.
+ *
+ * Delta payload: the number of changed cells (4) and, for each, its index (4), type (1) and value (1),
+ * followed by the changed snakes and the identifications of the removed snakes.
+ *
+ * Snakes are sent as a count (2) followed by, for each, its identification (4), flags (1), length (2),
+ * head cell index (4) and the direction from each segment to the next one towards the tail, packed
+ * four per byte using the ordinal of {@link Direction}.
+ *
+ * Acknowledgement payload, sent to a single client ahead of a state frame once the server applied a new
+ * input of that client: the sequence number of the input (4), its client timestamp (8) and the time in
+ * microseconds between the server receiving and applying it (4).
+ *
+ * Hello payload, sent to a single client before any other frame: the identification of the snake it controls (4).
+ *
+ * Input records are sent by the clients without any header: the direction ordinal (1), a sequence
+ * number increasing with every record (4) and the client clock in microseconds when the key was pressed (8).
+ * A first byte of {@link #INPUT_COMMAND} or above holds a command instead of a direction, the rest is unused.
+ *
+ * In multicast mode the server also publishes every frame once as datagrams: the sequence number of the
+ * frame (4), the index of the fragment (2) and the number of fragments (2), followed by up to
+ * {@link #MAX_FRAGMENT_SIZE} bytes of the frame.
+ */
+public final class Protocol {
+	public static final short MAGIC = 0x534E; // Marks the start of a frame ("SN").
+	public static final byte VERSION = 3; // Version of the frame format.
+	public static final int HEADER_SIZE = 18; // Size in bytes of the fixed frame header.
+	public static final int TYPE_OFFSET = 3; // Position of the frame type in the header.
+
+	public static final byte FRAME_KEYFRAME = 1; // Frame holding the full game state.
+	public static final byte FRAME_DELTA = 2; // Frame holding the changes since the previous frame.
+	public static final byte FRAME_ACK = 3; // Frame acknowledging the last input applied for the receiving client.
+	public static final int ACK_SIZE = 16; // Size in bytes of the payload of an acknowledgement.
+	public static final byte FRAME_HELLO = 4; // Frame telling a client which snake it controls.
+	public static final int HELLO_SIZE = 4; // Size in bytes of the payload of a hello.
+	public static final int INPUT_SIZE = 13; // Size in bytes of an input record.
+	public static final byte INPUT_COMMAND = 16; // Lowest first byte of an input record holding a command.
+	public static final byte COMMAND_MULTICAST = 16; // The client receives the game state by multicast.
+	public static final byte COMMAND_KEYFRAME = 17; // The client lost frames and needs a full game state over TCP.
+
+	public static final int DATAGRAM_HEADER_SIZE = 8; // Size in bytes of the header of a multicast datagram.
+	public static final int MAX_FRAGMENT_SIZE = 1400; // Bytes of a frame carried by one datagram, below the usual MTU.
+
+	public static final byte FLAG_FINISHED = 1; // Header flag set when the game is finished.
+	public static final byte SNAKE_HUMAN = 1; // Snake flag set for snakes controlled by a remote player.
+
+	public static final int CELL_EMPTY = 0; // Cell without any game element.
+	public static final int CELL_OBSTACLE = 1; // Cell holding an obstacle.
+	public static final int CELL_GOAL = 2; // Cell holding a goal.
+
+	private Protocol() {
+	}
+}
@@ -1,12 +1,24 @@
 package remote;
 
 import environment.Board;
+import environment.BoardEvents;
 import environment.BoardPosition;
 import environment.Cell;
-import environment.GameState;
+import game.AutomaticSnake;
+import game.GameElement;
 import game.Goal;
+import game.HumanSnake;
+import game.Obstacle;
+import game.Snake;
 
 import java.awt.event.KeyEvent;
+import java.awt.geom.Point2D;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 /** Remote representation of the game, no local threads involved.
  * Game state will be changed when updated info is received from Server.
@@ -17,18 +29,183 @@ import java.awt.event.KeyEvent;
 
 public class RemoteBoard extends Board {
 	private Client client;
+	private long sequence = -1; // Sequence number of the last game state applied, -1 before the first full state.
+	private final Map<Integer, Snake> snakesById = new HashMap<>(); // Local stand-ins of the snakes on the server.
+	private final Lock stateLock = new ReentrantLock(); // Held while a frame is applied, frames may arrive on several threads.
+	private final SnakeInterpolator interpolator = new SnakeInterpolator(); // Smooths the movement of the other snakes.
+	private volatile int localSnakeId = -1; // Identification of the snake controlled by this client, -1 until known.
+	private final Lock predictionLock = new ReentrantLock(); // Guards the prediction, shared by the client thread and the EDT.
+	private Direction predictedDirection; // Direction pressed but not yet applied by the server, null if none.
+	private int predictedSequence; // Sequence number of the input holding the predicted direction.
+	private BoardPosition predictedPosition; // Cell the snake should reach once the server applies the input.
+	private long predictions = 0; // Predictions checked against the server.
+	private long mispredictions = 0; // Predictions the server did not confirm.
 
 	// Client instance for communication with the server.
 	public void setClient(Client client) {
 		this.client = client;
 	}
 
-	// Sets the client instance used for communication with the server.
-	public void setChanged(GameState gameState) {
-		this.cells = gameState.getCells();
-		this.snakes = gameState.getSnakes();
-		this.isFinished = gameState.isFinished();
-		super.setChanged();
+	// Returns the sequence number of the last game state applied, -1 if a full game state is needed.
+	public long getSequence() {
+		return sequence;
+	}
+
+	// Marks the game state as updated by the server and publishes the change to the consumers of its events.
+	public void setChanged(long sequence, boolean isFinished) {
+		this.sequence = sequence;
+		this.isFinished = isFinished;
+		interpolator.update(snakes, System.nanoTime());
+		reconcilePrediction();
+		publish(BoardEvents.CELL_CHANGED | BoardEvents.SNAKE_MOVED | BoardEvents.GOAL_MOVED | (isFinished ? BoardEvents.GAME_OVER : 0));
+	}
+
+	// Returns the lock held while a frame is applied to the board.
+	Lock getStateLock() {
+		return stateLock;
+	}
+
+	// Switches to the board size of the server, as read from a frame header. The board is emptied, so a full
+	// game state is needed before any delta applies.
+	void adoptSize(int columns, int rows) {
+		resize(columns, rows);
+		sequence = -1;
+		System.out.println("Server board is " + columns + "x" + rows + ".");
+	}
+
+	// Sets the snake controlled by this client, as told by the server.
+	void setLocalSnake(int id) {
+		localSnakeId = id;
+	}
+
+	// Returns the body of a snake as it should be drawn now. The snake of this client is drawn at its latest
+	// position plus the predicted move, the other snakes are interpolated between the latest game states.
+	@Override
+	public List<Point2D.Double> getRenderedPath(Snake snake) {
+		if (snake.getIdentification() == localSnakeId) {
+			return getPredictedPath(snake);
+		}
+		List<Point2D.Double> path = interpolator.getPath(snake, System.nanoTime());
+		return path != null ? path : super.getRenderedPath(snake);
+	}
+
+	// Returns the body of the snake of this client with the predicted move applied.
+	private List<Point2D.Double> getPredictedPath(Snake snake) {
+		List<Point2D.Double> path = super.getRenderedPath(snake);
+		BoardPosition next = null;
+		predictionLock.lock();
+		try {
+			if (predictedDirection != null && !path.isEmpty()) {
+				Point2D.Double head = path.get(path.size() - 1);
+				next = new BoardPosition((int) head.x, (int) head.y).directionalPosition(predictedDirection);
+			}
+		} finally {
+			predictionLock.unlock();
+		}
+		// The server ignores moves into occupied cells, so only predict moves it would apply.
+		if (next != null && isWithinBounds(next) && !getCell(next).isOccupied()) {
+			path.add(new Point2D.Double(next.x, next.y));
+			if (path.size() > snake.getSize()) {
+				path.remove(0);
+			}
+		}
+		return path;
+	}
+
+	// Handles the acknowledgement of the last input applied by the server. The prediction is checked against
+	// the next game state, which holds the move.
+	void acknowledgeInput(int sequence, long timestamp, int applyDelay) {
+		if (client != null) client.acknowledgeInput(sequence, timestamp, applyDelay);
+		predictionLock.lock();
+		try {
+			if (predictedDirection != null && sequence >= predictedSequence && predictedPosition == null) {
+				Snake snake = snakesById.get(localSnakeId);
+				if (snake != null && snake.getLength() > 0) {
+					predictedPosition = snake.getHead().getPosition().directionalPosition(predictedDirection);
+				} else {
+					predictedDirection = null;
+				}
+			}
+		} finally {
+			predictionLock.unlock();
+		}
+	}
+
+	// Returns how many of the predicted moves of the local snake the server did not apply.
+	public String getPredictionStatistics() {
+		predictionLock.lock();
+		try {
+			return mispredictions + " of " + predictions + " predicted moves were not applied by the server.";
+		} finally {
+			predictionLock.unlock();
+		}
+	}
+
+	// Drops the prediction once the game state holding the acknowledged move has been applied.
+	private void reconcilePrediction() {
+		predictionLock.lock();
+		try {
+			if (predictedPosition == null) return;
+			Snake snake = snakesById.get(localSnakeId);
+			predictions++;
+			if (snake == null || snake.getLength() == 0 || !snake.getHead().getPosition().equals(predictedPosition)) {
+				mispredictions++;
+			}
+			predictedDirection = null;
+			predictedPosition = null;
+		} finally {
+			predictionLock.unlock();
+		}
+	}
+
+	// Updates the game element of a cell to a wire type and value, reusing the obstacle or goal already there
+	// when possible.
+	void setGameElement(int index, int type, int value) {
+		Cell cell = getCell(index);
+		GameElement current = cell.getGameElement();
+		if (type == Protocol.CELL_OBSTACLE) {
+			Obstacle obstacle = current instanceof Obstacle ? (Obstacle) current : new Obstacle(0, this);
+			obstacle.setRemainingMoves(value);
+			cell.replaceGameElement(obstacle);
+		} else if (type == Protocol.CELL_GOAL) {
+			Goal goal = current instanceof Goal ? (Goal) current : new Goal(this);
+			goal.setValue(value);
+			cell.replaceGameElement(goal);
+		} else if (current != null) {
+			cell.replaceGameElement(null);
+		}
+	}
+
+	// Returns the local stand-in of a snake, creating it the first time the snake is seen. Stand-ins are never started.
+	Snake getSnake(int id, boolean isHuman) {
+		Snake snake = snakesById.get(id);
+		if (snake == null || (snake instanceof HumanSnake) != isHuman) {
+			snake = isHuman ? new HumanSnake(id, this) : new AutomaticSnake(id, null);
+			snakesById.put(id, snake);
+		}
+		return snake;
+	}
+
+	// Returns the local stand-in of a snake already seen, or null if it is unknown.
+	Snake getSnake(int id) {
+		return snakesById.get(id);
+	}
+
+	// Replaces the list of snakes, forgetting the stand-ins of the snakes no longer in the game.
+	void setSnakes(LinkedList<Snake> snakes) {
+		snakesById.values().retainAll(snakes);
+		this.snakes = snakes;
+	}
+
+	// Removes the stand-in of a snake that left the game and returns it, or null if it was unknown.
+	Snake removeSnake(int id) {
+		Snake snake = snakesById.remove(id);
+		if (snake != null) {
+			LinkedList<Snake> snakes = new LinkedList<>(this.snakes);
+			snakes.remove(snake);
+			this.snakes = snakes;
+		}
+		return snake;
 	}
 
 	// Handles key press events for remote control. Sends direction commands to the server.
@@ -44,20 +221,30 @@ public class RemoteBoard extends Board {
 			case KeyEvent.VK_RIGHT -> direction = Direction.RIGHT;
 		}
 
-		// Sends a direction command to the server.
+		// Sends a direction command to the server and predicts its move until the server applies it.
 		if (direction != null && client != null) {
 			System.out.println(direction.toString());
-			client.getPrintWriter().println(direction.toString());
+			int inputSequence = client.sendDirection(direction);
+			if (inputSequence >= 0) {
+				predictionLock.lock();
+				try {
+					predictedDirection = direction;
+					predictedSequence = inputSequence;
+					predictedPosition = null;
+				} finally {
+					predictionLock.unlock();
+				}
+			}
 		}
 	}
 
-	// Handles key release events. Sends a stop command to the server.
+	// Handles key release events. Nothing to do, directions are sent as soon as a key is pressed.
 	@Override
 	public void handleKeyRelease() {
 		// TODO
-		client.getPrintWriter().flush();
 	}
 
+
 	// Initialize the remote board. Additional setup can be added here if needed.
 	@Override
 	public void init() {
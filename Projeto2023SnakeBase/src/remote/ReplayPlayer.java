@@ -0,0 +1,145 @@
+package remote;
+
+import environment.Cell;
+import game.ReplayRecorder;
+import game.Snake;
+import game.SnakeBody;
+import gui.SnakeGui;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedList;
+
+/** Replays a game recorded by {@link ReplayRecorder} on a remote board, as if its changes came from a server,
+ * at the pace they were recorded or faster. The log is memory mapped and read one record at a time; the records
+ * of one batch are applied under the lock of the board, and the board then publishes them to its consumers.
+ */
+public class ReplayPlayer {
+	public static final int MAX_SPEED = 100; // Fastest replay, in times the recorded pace.
+	private final RemoteBoard board; // Board the game is replayed on.
+	private final MappedByteBuffer log; // Mapped log file.
+	private final long records; // Number of records in the log.
+	private final int speed; // Times faster than recorded the game is replayed.
+	private long sequence = 0; // Number of batches applied, as the sequence of the board.
+
+	// Opens a log and checks its header. The board adopts the size of the recorded game.
+	public ReplayPlayer(RemoteBoard board, Path file, int speed) throws IOException {
+		this.board = board;
+		this.speed = Math.max(1, Math.min(MAX_SPEED, speed));
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			log = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()); // Stays valid once the channel is closed.
+		}
+		if (log.remaining() < ReplayRecorder.HEADER_SIZE || log.getInt() != ReplayRecorder.MAGIC) {
+			throw new IOException("Not a replay log: " + file);
+		}
+		short version = log.getShort();
+		if (version != ReplayRecorder.VERSION || log.getShort() != ReplayRecorder.RECORD_SIZE) {
+			throw new IOException("Unsupported replay log version " + version);
+		}
+		int columns = log.getShort();
+		int rows = log.getShort();
+		long recorded = log.getLong(ReplayRecorder.RECORD_COUNT_POSITION);
+		records = Math.min(recorded, (log.capacity() - ReplayRecorder.HEADER_SIZE) / ReplayRecorder.RECORD_SIZE);
+		log.position(ReplayRecorder.HEADER_SIZE);
+		board.getStateLock().lock();
+		try {
+			board.adoptSize(columns, rows);
+		} finally {
+			board.getStateLock().unlock();
+		}
+	}
+
+	// Replays every record, waiting between batches for the time recorded between them divided by the speed.
+	public void play() throws InterruptedException {
+		long start = System.nanoTime();
+		long record = 0;
+		System.out.println("Replaying " + records + " changes at " + speed + "x.");
+		while (record < records) {
+			int time = log.getInt(log.position());
+			long delay = time * 1_000_000L / speed - (System.nanoTime() - start);
+			if (delay > 0) Thread.sleep(delay / 1_000_000, (int) (delay % 1_000_000));
+			boolean isFinished = false;
+			board.getStateLock().lock();
+			try {
+				while (record < records && log.getInt(log.position()) == time) {
+					isFinished |= apply();
+					record++;
+				}
+				board.setChanged(++sequence, isFinished || board.isFinished());
+			} finally {
+				board.getStateLock().unlock();
+			}
+		}
+		System.out.println("Replay finished.");
+	}
+
+	// Applies the next record to the board and returns whether it ended the game.
+	private boolean apply() {
+		log.getInt(); // Time, already read.
+		byte kind = log.get();
+		int type = log.get();
+		int value = log.get();
+		int flags = log.get();
+		int id = log.getInt();
+		int index = log.getInt();
+		switch (kind) {
+			case ReplayRecorder.RECORD_CELL -> board.setGameElement(index, type, value);
+			case ReplayRecorder.RECORD_JOIN -> {
+				Snake snake = board.getSnake(id, (flags & Protocol.SNAKE_HUMAN) != 0);
+				snake.setBody(new SnakeBody(board.getRows()));
+				LinkedList<Snake> snakes = new LinkedList<>(board.getSnakes());
+				snakes.remove(snake);
+				snakes.add(snake);
+				board.setSnakes(snakes);
+			}
+			case ReplayRecorder.RECORD_HEAD -> {
+				Snake snake = board.getSnake(id);
+				if (snake == null) break; // Joined before a log cut short at its start.
+				snake.getBody().addHead(index);
+				board.getCell(index).setOccupyingSnake(snake);
+			}
+			case ReplayRecorder.RECORD_TAIL -> {
+				Snake snake = board.getSnake(id);
+				if (snake == null || snake.getBody().getLength() == 0) break;
+				Cell cell = board.getCell(snake.getBody().removeTail());
+				if (cell.getOccupyingSnake() == snake) cell.setOccupyingSnake(null);
+			}
+			case ReplayRecorder.RECORD_LEAVE -> {
+				Snake snake = board.removeSnake(id);
+				if (snake != null) {
+					SnakeBody body = snake.getBody();
+					for (int segment = 0; segment < body.getLength(); segment++) {
+						Cell cell = board.getCell(body.getIndex(segment));
+						if (cell.getOccupyingSnake() == snake) cell.setOccupyingSnake(null);
+					}
+				}
+			}
+			case ReplayRecorder.RECORD_GAME_OVER -> {
+				return true;
+			}
+			default -> System.err.println("Skipping unknown replay record " + kind + ".");
+		}
+		return false;
+	}
+
+	// Replays a log in a window: java remote.ReplayPlayer <file> [--speed=<1-100>].
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length == 0) {
+			System.err.println("Usage: java remote.ReplayPlayer <file> [--speed=<1-" + MAX_SPEED + ">]");
+			return;
+		}
+		int speed = 1;
+		for (String arg : args) {
+			if (arg.startsWith("--speed=")) speed = Integer.parseInt(arg.substring("--speed=".length()));
+		}
+		RemoteBoard board = new RemoteBoard();
+		ReplayPlayer player = new ReplayPlayer(board, Paths.get(args[0]), speed);
+		SnakeGui game = new SnakeGui(board, 1000, 0);
+		game.init();
+		player.play();
+	}
+}
@@ -0,0 +1,113 @@
+package remote;
+
+import environment.Board;
+import environment.BoardPosition;
+import game.Snake;
+import game.SnakeBody;
+
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Keeps the last few bodies received for each snake and interpolates between them, so that snakes glide
+ * from cell to cell instead of jumping whenever a new game state arrives. Each snake is drawn behind the
+ * server by the average time between two of its steps, which keeps a body to move towards.
+ * Updated by the client thread and read by the event dispatch thread.
+ */
+class SnakeInterpolator {
+	private static final int HISTORY_SIZE = 3; // Bodies kept for each snake.
+	private static final long MIN_STEP_INTERVAL = Board.REMOTE_REFRESH_INTERVAL * 1_000_000; // Shortest render delay, in nanoseconds.
+	private static final long MAX_STEP_INTERVAL = Board.PLAYER_PLAY_INTERVAL * 1_000_000; // Longest render delay, in nanoseconds.
+	private final Map<Integer, Track> tracks = new ConcurrentHashMap<>(); // History of each snake, by identification.
+
+	// Records the bodies of the snakes that moved in the game state just applied.
+	public void update(List<Snake> snakes, long now) {
+		Set<Integer> ids = new HashSet<>();
+		for (Snake snake : snakes) {
+			ids.add(snake.getIdentification());
+			tracks.computeIfAbsent(snake.getIdentification(), id -> new Track()).update(snake.getBody(), now);
+		}
+		tracks.keySet().retainAll(ids);
+	}
+
+	// Returns the body of a snake as it should be drawn now, tail first, or null if the snake was never recorded.
+	public List<Point2D.Double> getPath(Snake snake, long now) {
+		Track track = tracks.get(snake.getIdentification());
+		return track != null ? track.getPath(now) : null;
+	}
+
+	// Body of a snake received at a given time.
+	private static class Sample {
+		private final long time; // Time the body was received, in nanoseconds.
+		private final BoardPosition[] body; // Positions of the body, tail first.
+
+		private Sample(long time, BoardPosition[] body) {
+			this.time = time;
+			this.body = body;
+		}
+	}
+
+	// Recent bodies of one snake.
+	private static class Track {
+		private SnakeBody lastBody; // Body of the last recorded state, replaced whenever the snake moves.
+		private volatile Sample[] samples = new Sample[0]; // Recent bodies, oldest first. Replaced, never modified.
+		private volatile long stepInterval = MAX_STEP_INTERVAL; // Average time between two steps, in nanoseconds.
+
+		// Records the body of the snake if it changed since the last game state.
+		private void update(SnakeBody snakeBody, long now) {
+			if (snakeBody == lastBody) return; // The decoder only replaces the body of snakes that moved.
+			lastBody = snakeBody;
+			BoardPosition[] body = snakeBody.getPath().toArray(new BoardPosition[0]);
+			Sample[] current = samples;
+			if (current.length > 0) {
+				long gap = Math.max(MIN_STEP_INTERVAL, Math.min(MAX_STEP_INTERVAL, now - current[current.length - 1].time));
+				stepInterval = (3 * stepInterval + gap) / 4;
+			}
+			Sample[] next = Arrays.copyOfRange(current, Math.max(0, current.length + 1 - HISTORY_SIZE), current.length + 1);
+			next[next.length - 1] = new Sample(now, body);
+			samples = next;
+		}
+
+		// Interpolates between the two bodies surrounding the render time.
+		private List<Point2D.Double> getPath(long now) {
+			Sample[] current = samples;
+			if (current.length == 0) return new ArrayList<>();
+			long renderTime = now - stepInterval;
+			Sample to = current[current.length - 1];
+			if (renderTime >= to.time || current.length == 1) {
+				return interpolate(to.body, to.body, 1);
+			}
+			for (int i = current.length - 1; i > 0; i--) {
+				Sample from = current[i - 1];
+				to = current[i];
+				if (renderTime >= from.time) {
+					// A snake that was standing still moves in one step interval, not over the whole time it stood still.
+					long start = Math.max(from.time, to.time - stepInterval);
+					double alpha = Math.max(0, (double) (renderTime - start) / Math.max(1, to.time - start));
+					return interpolate(from.body, to.body, alpha);
+				}
+			}
+			return interpolate(current[0].body, current[0].body, 1);
+		}
+
+		// Moves each segment of the older body towards the segment at the same distance from the head in the newer one.
+		private static List<Point2D.Double> interpolate(BoardPosition[] from, BoardPosition[] to, double alpha) {
+			List<Point2D.Double> path = new ArrayList<>(to.length);
+			for (int i = 0; i < to.length; i++) {
+				BoardPosition end = to[i];
+				int j = from.length - to.length + i; // Same distance from the head, or the tail of a shorter body.
+				BoardPosition start = from.length > 0 ? from[Math.max(0, j)] : end;
+				if (Math.abs(end.x - start.x) + Math.abs(end.y - start.y) > 1) {
+					start = end; // The snake was replaced or skipped a step, do not slide across the board.
+				}
+				path.add(new Point2D.Double(start.x + (end.x - start.x) * alpha, start.y + (end.y - start.y) * alpha));
+			}
+			return path;
+		}
+	}
+}